@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.demo;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.mta.tehreer.collections.FloatList;
+import com.mta.tehreer.collections.IntList;
+import com.mta.tehreer.collections.PointList;
+import com.mta.tehreer.graphics.GlyphCacheManager;
+import com.mta.tehreer.graphics.Renderer;
+import com.mta.tehreer.graphics.Typeface;
+import com.mta.tehreer.graphics.TypefaceManager;
+import com.mta.tehreer.internal.util.LruCache;
+import com.mta.tehreer.sfnt.SfntTag;
+import com.mta.tehreer.sfnt.ShapingEngine;
+import com.mta.tehreer.sfnt.ShapingResult;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+public class CacheBenchmarkActivity extends AppCompatActivity {
+
+    private static final int KEY_COUNT = 8192;
+    private static final int TRACE_LENGTH = 1 << 16;
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    private static final int CACHE_CAPACITY = 2048;
+    private static final int SEGMENT_COUNT = 8;
+    private static final long CONTENTION_DURATION = 1000;
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+    private static final int SCAN_INTERVAL = 8192;
+    private static final int SCAN_LENGTH = 2048;
+    private static final int MAX_WEIGHT = 8;
+    private static final int[] EVICTION_POLICIES = {
+        LruCache.LRU_POLICY, LruCache.FREQUENCY_POLICY, LruCache.SIZE_POLICY
+    };
+    private static final String[] POLICY_NAMES = { "LRU", "Frequency", "Size" };
+
+    private static final int SIZES_PER_THREAD = 6;
+    private static final int FIRST_TYPE_SIZE = 16;
+    private static final int BITMAP_SIZE = 256;
+
+    private TextView mResultTextView;
+    private Button[] mBenchmarkButtons;
+
+    private static class BenchmarkCache extends LruCache {
+
+        private static class Segment extends LruCache.Segment<Integer, Integer> {
+
+            private final boolean weighted;
+
+            public Segment(LruCache cache, boolean weighted) {
+                super(cache);
+                this.weighted = weighted;
+            }
+
+            @Override
+            protected int sizeOf(Integer key, Integer value) {
+                return (weighted ? weightOf(key) : 1);
+            }
+        }
+
+        private final Segment[] segments;
+
+        public BenchmarkCache(int capacity, int segmentCount) {
+            this(capacity, segmentCount, false);
+        }
+
+        public BenchmarkCache(int capacity, int segmentCount, boolean weighted) {
+            super(capacity);
+
+            segments = new Segment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = new Segment(this, weighted);
+            }
+        }
+
+        // Looks up the key, and puts it if missing just like the glyph cache does on a miss.
+        public boolean access(int key) {
+            Segment segment = segments[key % segments.length];
+            Integer value = key;
+
+            if (segment.get(value) != null) {
+                return true;
+            }
+
+            segment.putIfAbsent(value, value);
+            return false;
+        }
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_cache_benchmark);
+
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setDisplayHomeAsUpEnabled(true);
+        }
+
+        mResultTextView = (TextView) findViewById(R.id.text_view_result);
+
+        Button contentionButton = (Button) findViewById(R.id.button_cache_contention);
+        contentionButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                runBenchmark(new Runnable() {
+                    @Override
+                    public void run() {
+                        measureContention();
+                    }
+                });
+            }
+        });
+
+        Button policyButton = (Button) findViewById(R.id.button_eviction_policy);
+        policyButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                runBenchmark(new Runnable() {
+                    @Override
+                    public void run() {
+                        measureEvictionPolicies();
+                    }
+                });
+            }
+        });
+
+        Button scalingButton = (Button) findViewById(R.id.button_raster_scaling);
+        scalingButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                final String text = getString(R.string.article_detail);
+                runBenchmark(new Runnable() {
+                    @Override
+                    public void run() {
+                        measureRasterScaling(text);
+                    }
+                });
+            }
+        });
+
+        mBenchmarkButtons = new Button[] { contentionButton, policyButton, scalingButton };
+    }
+
+    @Override
+    public boolean onSupportNavigateUp(){
+        onBackPressed();
+        return true;
+    }
+
+    private void setButtonsEnabled(boolean enabled) {
+        for (Button button : mBenchmarkButtons) {
+            button.setEnabled(enabled);
+        }
+    }
+
+    private void runBenchmark(final Runnable benchmark) {
+        mResultTextView.setText("");
+        setButtonsEnabled(false);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    benchmark.run();
+                } finally {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            setButtonsEnabled(true);
+                        }
+                    });
+                }
+            }
+        });
+        thread.start();
+    }
+
+    private void appendResult(final String line) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mResultTextView.append(line + "\n");
+            }
+        });
+    }
+
+    private static int[] createZipfTrace(long seed) {
+        double[] cumulative = new double[KEY_COUNT];
+        double sum = 0.0;
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+
+        Random random = new Random(seed);
+        int[] trace = new int[TRACE_LENGTH];
+
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            double target = random.nextDouble() * sum;
+            int low = 0;
+            int high = KEY_COUNT - 1;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            trace[i] = low;
+        }
+
+        return trace;
+    }
+
+    // Spreads the weights of keys like glyph bitmaps of a strike, i.e. mostly small with a few
+    // large ones, without tying the weight to the popularity of a key.
+    private static int weightOf(int key) {
+        int hash = key * 0x9E3779B9;
+        return 1 + ((hash >>> 16) % MAX_WEIGHT);
+    }
+
+    // Interleaves the skewed trace with one-off scans of cold keys, like a page of rarely used
+    // glyphs being rendered once between regular text.
+    private static int[] createScanTrace(long seed) {
+        int[] zipfTrace = createZipfTrace(seed);
+        int[] trace = new int[TRACE_LENGTH];
+        int coldKey = KEY_COUNT;
+        int position = 0;
+
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            if (i % SCAN_INTERVAL >= SCAN_INTERVAL - SCAN_LENGTH) {
+                trace[i] = coldKey++;
+            } else {
+                trace[i] = zipfTrace[position++];
+            }
+        }
+
+        return trace;
+    }
+
+    private static double replayTrace(int[] trace, int policy, boolean weighted) {
+        BenchmarkCache cache = new BenchmarkCache(CACHE_CAPACITY, SEGMENT_COUNT, weighted);
+        cache.setEvictionPolicy(policy);
+
+        // Warm the cache with a single pass so that only the steady state gets measured.
+        for (int key : trace) {
+            cache.access(key);
+        }
+
+        long hits = 0;
+        for (int key : trace) {
+            if (cache.access(key)) {
+                hits++;
+            }
+        }
+
+        return hits * 100.0 / trace.length;
+    }
+
+    private void measureEvictionPolicies() {
+        appendResult("Hit rates of replayed traces");
+        appendResult(String.format(Locale.US, "Capacity: %d, Segments: %d, Keys: %d, Accesses: %d",
+                                   CACHE_CAPACITY, SEGMENT_COUNT, KEY_COUNT, TRACE_LENGTH));
+
+        int[][] traces = { createZipfTrace(1), createScanTrace(1) };
+        String[] traceNames = { "Zipf", "Zipf + scans" };
+
+        for (int weighted = 0; weighted <= 1; weighted++) {
+            appendResult(weighted == 0 ? "Unit weights" : "Weights 1 to " + MAX_WEIGHT);
+
+            for (int i = 0; i < traces.length; i++) {
+                StringBuilder line = new StringBuilder();
+                line.append(String.format(Locale.US, "  %-12s", traceNames[i]));
+
+                for (int j = 0; j < EVICTION_POLICIES.length; j++) {
+                    double hitRate = replayTrace(traces[i], EVICTION_POLICIES[j], weighted == 1);
+                    line.append(String.format(Locale.US, " %s %.1f%%", POLICY_NAMES[j], hitRate));
+                }
+
+                appendResult(line.toString());
+            }
+        }
+    }
+
+    private void measureContention() {
+        appendResult("Concurrent lookups on a skewed key set");
+        appendResult(String.format(Locale.US, "Capacity: %d, Segments: %d, Keys: %d",
+                                   CACHE_CAPACITY, SEGMENT_COUNT, KEY_COUNT));
+
+        final int[] trace = createZipfTrace(1);
+        double baseThroughput = 0.0;
+
+        for (int threadCount : THREAD_COUNTS) {
+            final BenchmarkCache cache = new BenchmarkCache(CACHE_CAPACITY, SEGMENT_COUNT);
+            final CountDownLatch startSignal = new CountDownLatch(1);
+            final long[] operations = new long[threadCount];
+            final long[] hits = new long[threadCount];
+            Thread[] threads = new Thread[threadCount];
+
+            for (int i = 0; i < threadCount; i++) {
+                final int index = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        int position = (index * TRACE_LENGTH) / operations.length;
+                        long operationCount = 0;
+                        long hitCount = 0;
+
+                        try {
+                            startSignal.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+
+                        long endTime = System.nanoTime() + (CONTENTION_DURATION * 1000000);
+                        while (System.nanoTime() < endTime) {
+                            for (int j = 0; j < 256; j++) {
+                                if (cache.access(trace[position])) {
+                                    hitCount++;
+                                }
+                                position = (position + 1) & (TRACE_LENGTH - 1);
+                            }
+                            operationCount += 256;
+                        }
+
+                        operations[index] = operationCount;
+                        hits[index] = hitCount;
+                    }
+                });
+                threads[i].start();
+            }
+
+            startSignal.countDown();
+            if (!joinAll(threads)) {
+                appendResult("Interrupted");
+                return;
+            }
+
+            long totalOperations = 0;
+            long totalHits = 0;
+            for (int i = 0; i < threadCount; i++) {
+                totalOperations += operations[i];
+                totalHits += hits[i];
+            }
+
+            double throughput = totalOperations / (CONTENTION_DURATION / 1000.0);
+            if (threadCount == 1) {
+                baseThroughput = throughput;
+            }
+
+            appendResult(String.format(Locale.US, "%d thread(s): %.2f M ops/s, %.2fx, hit rate %.1f%%",
+                                       threadCount, throughput / 1000000.0, throughput / baseThroughput,
+                                       totalHits * 100.0 / totalOperations));
+        }
+    }
+
+    private void measureRasterScaling(String text) {
+        Typeface typeface = TypefaceManager.getTypeface(R.id.typeface_taj_nastaleeq);
+
+        ShapingEngine shapingEngine = ShapingEngine.finalizable(new ShapingEngine());
+        shapingEngine.setTypeface(typeface);
+        shapingEngine.setTypeSize(FIRST_TYPE_SIZE);
+        shapingEngine.setScriptTag(SfntTag.make("arab"));
+        shapingEngine.setLanguageTag(SfntTag.make("URD "));
+
+        ShapingResult shapingResult = ShapingResult.finalizable(shapingEngine.shapeText(text, 0, text.length()));
+        int glyphCount = shapingResult.getGlyphCount();
+
+        appendResult("Rasterizing one typeface on several threads");
+        appendResult(String.format(Locale.US, "Glyphs: %d, Sizes per thread: %d",
+                                   glyphCount, SIZES_PER_THREAD));
+
+        double baseThroughput = 0.0;
+
+        for (int threadCount : THREAD_COUNTS) {
+            // Start from an empty cache so that every run rasterizes all of its glyphs.
+            GlyphCacheManager.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+            Thread[] threads = new Thread[threadCount];
+            CountDownLatch startSignal = new CountDownLatch(1);
+
+            for (int i = 0; i < threadCount; i++) {
+                // Each thread draws its own strikes, so none of them finds the glyphs of another.
+                int firstSize = FIRST_TYPE_SIZE + (i * SIZES_PER_THREAD);
+                threads[i] = new Thread(new RasterTask(startSignal, typeface, firstSize, shapingResult));
+                threads[i].start();
+            }
+
+            long startTime = System.nanoTime();
+            startSignal.countDown();
+            if (!joinAll(threads)) {
+                appendResult("Interrupted");
+                return;
+            }
+            long duration = System.nanoTime() - startTime;
+
+            long totalGlyphs = (long) glyphCount * SIZES_PER_THREAD * threadCount;
+            double throughput = totalGlyphs / (duration / 1000000000.0);
+            if (threadCount == 1) {
+                baseThroughput = throughput;
+            }
+
+            appendResult(String.format(Locale.US, "%d thread(s): %.0f glyphs/s, %.2fx, %.1f ms",
+                                       threadCount, throughput, throughput / baseThroughput,
+                                       duration / 1000000.0));
+        }
+
+        GlyphCacheManager.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    private static class RasterTask implements Runnable {
+
+        private final CountDownLatch startSignal;
+        private final Typeface typeface;
+        private final int firstSize;
+        private final ShapingResult shapingResult;
+
+        RasterTask(CountDownLatch startSignal, Typeface typeface, int firstSize,
+                   ShapingResult shapingResult) {
+            this.startSignal = startSignal;
+            this.typeface = typeface;
+            this.firstSize = firstSize;
+            this.shapingResult = shapingResult;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = Bitmap.createBitmap(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            Renderer renderer = new Renderer();
+            renderer.setTypeface(typeface);
+
+            IntList glyphIds = shapingResult.getGlyphIds();
+            PointList offsets = shapingResult.getGlyphOffsets();
+            FloatList advances = shapingResult.getGlyphAdvances();
+
+            try {
+                startSignal.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            for (int i = 0; i < SIZES_PER_THREAD; i++) {
+                renderer.setTypeSize(firstSize + i);
+                renderer.drawGlyphs(canvas, glyphIds, offsets, advances);
+            }
+
+            bitmap.recycle();
+        }
+    }
+
+    private static boolean joinAll(Thread[] threads) {
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -74,6 +74,15 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        Button cacheBenchmarkButton = (Button) findViewById(R.id.button_cache_benchmark);
+        cacheBenchmarkButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent intent = new Intent(MainActivity.this, CacheBenchmarkActivity.class);
+                startActivity(intent);
+            }
+        });
+
         Button openSourceLicensesButton = (Button) findViewById(R.id.button_open_source_licenses);
         openSourceLicensesButton.setOnClickListener(new View.OnClickListener() {
             @Override
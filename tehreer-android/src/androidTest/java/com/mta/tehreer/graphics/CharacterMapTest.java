@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CharacterMapTest {
+
+    private Typeface typeface;
+
+    private void assertMatchesSingleLookup(CharSequence text, int start, int end) {
+        int[] glyphIds = new int[end - start];
+        int count = typeface.getGlyphIds(text, start, end, glyphIds);
+
+        int index = start;
+        int glyphCount = 0;
+        while (index < end) {
+            int codePoint = Character.codePointAt(text, index);
+            if (Character.isHighSurrogate(text.charAt(index)) && index + 1 == end) {
+                // A pair split by the end of the range is not combined.
+                codePoint = text.charAt(index);
+            }
+
+            assertEquals("Code Point: " + codePoint,
+                         typeface.getGlyphId(codePoint), glyphIds[glyphCount]);
+
+            index += Character.charCount(codePoint);
+            glyphCount++;
+        }
+
+        assertEquals(glyphCount, count);
+    }
+
+    @Before
+    public void setUp() {
+        typeface = new Typeface(InstrumentationRegistry.getContext().getAssets(), "NafeesWeb.ttf");
+    }
+
+    @Test
+    public void testMixedText() {
+        String text = "\u0627\u0631\u062F\u0648 Urdu 123 \uD83D\uDE00 \u06F1\u06F2 \uFDF2";
+        assertMatchesSingleLookup(text, 0, text.length());
+
+        // The Arabic letters are covered by the font, whereas the emoji is not.
+        int[] glyphIds = new int[text.length()];
+        typeface.getGlyphIds(text, 0, 1, glyphIds);
+        assertTrue(glyphIds[0] != 0);
+        assertEquals(0, typeface.getGlyphId(0x1F600));
+    }
+
+    @Test
+    public void testSubrange() {
+        String text = "ab\uD83D\uDE00cd";
+        assertMatchesSingleLookup(text, 1, 5);
+        assertMatchesSingleLookup(text, 2, 3);
+        assertMatchesSingleLookup(text, 3, 4);
+        assertMatchesSingleLookup(text, 2, 2);
+    }
+
+    @Test
+    public void testBasicMultilingualPlane() {
+        StringBuilder builder = new StringBuilder();
+        for (int codePoint = 0; codePoint < Character.MIN_SURROGATE; codePoint++) {
+            builder.append((char) codePoint);
+        }
+        for (int codePoint = Character.MAX_SURROGATE + 1; codePoint <= 0xFFFF; codePoint++) {
+            builder.append((char) codePoint);
+        }
+
+        assertMatchesSingleLookup(builder, 0, builder.length());
+    }
+
+    @Test
+    public void testSupplementaryPlanes() {
+        StringBuilder builder = new StringBuilder();
+        for (int codePoint = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+                 codePoint <= Character.MAX_CODE_POINT; codePoint += 97) {
+            builder.appendCodePoint(codePoint);
+        }
+
+        assertMatchesSingleLookup(builder, 0, builder.length());
+    }
+
+    @Test
+    public void testUnpairedSurrogates() {
+        String text = "\uD83Da\uDE00\uDE00\uD83D";
+        assertMatchesSingleLookup(text, 0, text.length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        typeface.getGlyphIds("abc", 2, 1, new int[3]);
+    }
+}
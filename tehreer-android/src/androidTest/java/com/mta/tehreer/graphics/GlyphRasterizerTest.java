@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.content.res.AssetManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class GlyphRasterizerTest {
+
+    private static final String FONT_ASSET = "NafeesWeb.ttf";
+    private static final int STRIKE_COUNT = 8;
+    private static final int THREAD_COUNT = 4;
+    private static final int MAX_GLYPH_COUNT = 128;
+
+    private File fontFile;
+    private Typeface typeface;
+    private int[] glyphIds;
+
+    private static class Masks {
+        final byte[] data;
+        final int[] metrics;
+
+        Masks(byte[] data, int[] metrics) {
+            this.data = data;
+            this.metrics = metrics;
+        }
+    }
+
+    private static GlyphStrike newStrike(Typeface typeface, int pixelSize) {
+        GlyphStrike strike = new GlyphStrike();
+        strike.typeface = typeface;
+        strike.pixelWidth = pixelSize << 6;
+        strike.pixelHeight = pixelSize << 6;
+        strike.skewX = 0;
+
+        return strike;
+    }
+
+    private Masks loadMasks(Typeface typeface, int pixelSize) {
+        GlyphRasterizer rasterizer = new GlyphRasterizer(newStrike(typeface, pixelSize));
+        int[] metrics = new int[glyphIds.length * 4];
+        byte[] data = rasterizer.loadMasks(glyphIds, glyphIds.length, metrics);
+
+        return new Masks(data, metrics);
+    }
+
+    private static void assertMasksEqual(Masks expected, Masks actual) {
+        assertArrayEquals(expected.metrics, actual.metrics);
+        assertTrue(Arrays.equals(expected.data, actual.data));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        AssetManager assets = InstrumentationRegistry.getContext().getAssets();
+        fontFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), FONT_ASSET);
+
+        InputStream input = assets.open(FONT_ASSET);
+        try {
+            OutputStream output = new FileOutputStream(fontFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, length);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+
+        // A typeface backed by a file can open several faces, so its glyphs are rasterized in
+        // parallel.
+        typeface = new Typeface(fontFile);
+
+        glyphIds = new int[Math.min(typeface.getGlyphCount(), MAX_GLYPH_COUNT)];
+        for (int i = 0; i < glyphIds.length; i++) {
+            glyphIds[i] = i;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        fontFile.delete();
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws InterruptedException {
+        final Masks[] expected = new Masks[STRIKE_COUNT];
+        for (int i = 0; i < STRIKE_COUNT; i++) {
+            expected[i] = loadMasks(typeface, 12 + i * 3);
+        }
+
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[THREAD_COUNT];
+
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+
+                        // Every thread goes through all strikes in a different order, so that
+                        // the leased faces keep switching between the sizes.
+                        for (int i = 0; i < STRIKE_COUNT; i++) {
+                            int strike = (i + offset) % STRIKE_COUNT;
+                            Masks actual = loadMasks(typeface, 12 + strike * 3);
+                            assertMasksEqual(expected[strike], actual);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void testAssetMatchesFile() {
+        // An asset cannot be opened more than once, so its glyphs are rasterized one at a time.
+        AssetManager assets = InstrumentationRegistry.getContext().getAssets();
+        Typeface assetTypeface = new Typeface(assets, FONT_ASSET);
+
+        assertMasksEqual(loadMasks(typeface, 16), loadMasks(assetTypeface, 16));
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class GlyphSlabAllocatorTest {
+
+    private GlyphSlabAllocator allocator;
+
+    private static Glyph newGlyph(int glyphId, int width, int height) {
+        byte[] mask = new byte[width * height];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = (byte) (glyphId + i);
+        }
+
+        Glyph glyph = new Glyph(glyphId);
+        glyph.ownMask(mask, width, height, 0, 0);
+
+        return glyph;
+    }
+
+    private long idleBytes() {
+        return allocator.reservedBytes() - allocator.usedBytes();
+    }
+
+    @Before
+    public void setUp() {
+        allocator = new GlyphSlabAllocator();
+    }
+
+    @Test
+    public void testStore() {
+        Glyph glyph = newGlyph(1, 10, 10);
+        byte[] mask = glyph.mask();
+        int idleGrowth = allocator.store(glyph);
+
+        assertTrue(glyph.containsSlabBlock());
+        assertNotNull(glyph.slab());
+        assertNull(glyph.mask());
+
+        // The glyph is charged its block, and the rest of the slab is reported as idle.
+        int blockSize = GlyphSlabAllocator.blockSizeOf(glyph);
+        assertTrue(blockSize >= mask.length);
+        assertEquals(blockSize, allocator.usedBytes());
+        assertEquals(idleBytes(), idleGrowth);
+
+        ByteBuffer buffer = glyph.slab().buffer;
+        for (int i = 0; i < mask.length; i++) {
+            assertEquals(mask[i], buffer.get(glyph.slabOffset() + i));
+        }
+    }
+
+    @Test
+    public void testStoreEmptyMask() {
+        Glyph glyph = new Glyph(1);
+        assertEquals(0, allocator.store(glyph));
+
+        assertTrue(glyph.containsSlabBlock());
+        assertNull(glyph.slab());
+        assertEquals(0, allocator.reservedBytes());
+    }
+
+    @Test
+    public void testRelease() {
+        Glyph first = newGlyph(1, 10, 10);
+        Glyph second = newGlyph(2, 10, 10);
+        int idleGrowth = allocator.store(first);
+        idleGrowth += allocator.store(second);
+
+        // Both glyphs share a slab of their size class.
+        assertSame(first.slab(), second.slab());
+
+        idleGrowth += allocator.release(first);
+        idleGrowth += allocator.release(second);
+
+        assertFalse(first.containsSlabBlock());
+        assertEquals(0, allocator.usedBytes());
+        assertEquals(idleBytes(), idleGrowth);
+
+        // An empty slab is kept for the size class until it is released explicitly.
+        assertTrue(allocator.reservedBytes() > 0);
+        assertEquals(allocator.reservedBytes(), allocator.releaseEmptySlabs());
+        assertEquals(0, allocator.reservedBytes());
+    }
+
+    @Test
+    public void testDedicatedSlab() {
+        Glyph glyph = newGlyph(1, 100, 100);
+
+        // A large mask gets a slab of its own, so nothing is left idle.
+        assertEquals(0, allocator.store(glyph));
+        assertEquals(100 * 100, GlyphSlabAllocator.blockSizeOf(glyph));
+        assertEquals(100 * 100, allocator.reservedBytes());
+
+        assertEquals(0, allocator.release(glyph));
+        assertEquals(0, allocator.reservedBytes());
+        assertEquals(0, allocator.usedBytes());
+    }
+
+    @Test
+    public void testDeferredRelease() {
+        Glyph glyph = newGlyph(1, 10, 10);
+        allocator.store(glyph);
+
+        int blockSize = GlyphSlabAllocator.blockSizeOf(glyph);
+        Glyph[] glyphs = { glyph };
+        ByteBuffer[] buffers = new ByteBuffer[1];
+        int[] blocks = new int[GlyphSlabAllocator.BLOCK_FIELD_COUNT];
+
+        assertEquals(0, allocator.takeBlocks(glyphs, 1, buffers, blocks));
+        assertSame(glyph.slab().buffer, buffers[0]);
+        assertEquals(glyph.slabOffset(), blocks[0]);
+        assertEquals(1, glyph.slabPinCount());
+
+        // The block of a pinned glyph is kept until it is untaken.
+        assertEquals(0, allocator.release(glyph));
+        assertTrue(glyph.isSlabReleasePending());
+        assertTrue(glyph.containsSlabBlock());
+        assertEquals(blockSize, allocator.usedBytes());
+
+        assertEquals(blockSize, allocator.untakeBlocks(glyphs, 1, buffers));
+        assertEquals(0, glyph.slabPinCount());
+        assertFalse(glyph.isSlabReleasePending());
+        assertFalse(glyph.containsSlabBlock());
+        assertEquals(0, allocator.usedBytes());
+    }
+
+    @Test
+    public void testTakeReleasedBlock() {
+        Glyph glyph = newGlyph(1, 10, 10);
+        allocator.store(glyph);
+        allocator.release(glyph);
+
+        Glyph[] glyphs = { glyph };
+        ByteBuffer[] buffers = new ByteBuffer[1];
+        int[] blocks = new int[GlyphSlabAllocator.BLOCK_FIELD_COUNT];
+
+        // A glyph which has lost its block is reported as a miss.
+        assertEquals(1, allocator.takeBlocks(glyphs, 1, buffers, blocks));
+        assertNull(glyphs[0]);
+        assertNull(buffers[0]);
+    }
+
+    @Test
+    public void testReleaseAfterClear() {
+        Glyph oldGlyph = newGlyph(1, 10, 10);
+        allocator.store(oldGlyph);
+        GlyphSlabAllocator.Slab oldSlab = oldGlyph.slab();
+
+        allocator.clear();
+        assertEquals(0, allocator.reservedBytes());
+        assertEquals(0, allocator.usedBytes());
+
+        // The slab of a previous generation is ignored, so the counts are left untouched.
+        assertEquals(0, allocator.release(oldGlyph));
+        assertFalse(oldGlyph.containsSlabBlock());
+        assertEquals(0, allocator.reservedBytes());
+        assertEquals(0, allocator.usedBytes());
+
+        // A new glyph never gets a block of a slab from the previous generation.
+        Glyph newGlyph = newGlyph(2, 10, 10);
+        allocator.store(newGlyph);
+        assertNotSame(oldSlab, newGlyph.slab());
+        assertEquals(GlyphSlabAllocator.blockSizeOf(newGlyph), allocator.usedBytes());
+    }
+
+    @Test
+    public void testDeferredReleaseAfterClear() {
+        Glyph glyph = newGlyph(1, 10, 10);
+        allocator.store(glyph);
+
+        Glyph[] glyphs = { glyph };
+        ByteBuffer[] buffers = new ByteBuffer[1];
+        int[] blocks = new int[GlyphSlabAllocator.BLOCK_FIELD_COUNT];
+
+        allocator.takeBlocks(glyphs, 1, buffers, blocks);
+        allocator.release(glyph);
+        allocator.clear();
+
+        assertEquals(0, allocator.untakeBlocks(glyphs, 1, buffers));
+        assertFalse(glyph.containsSlabBlock());
+        assertEquals(0, allocator.reservedBytes());
+        assertEquals(0, allocator.usedBytes());
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TypefaceIndexTest {
+
+    private static final String FONT_ASSET = "NafeesWeb.ttf";
+
+    private File directory;
+    private File indexFile;
+
+    private static void writeBytes(File file, byte[] bytes, boolean append) throws IOException {
+        OutputStream output = new FileOutputStream(file, append);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += input.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            input.close();
+        }
+
+        return bytes;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    private File copyFontAsset(String name) throws IOException {
+        File file = new File(directory, name);
+        InputStream input = InstrumentationRegistry.getContext().getAssets().open(FONT_ASSET);
+        try {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, length);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+
+        return file;
+    }
+
+    private File newFontFile(String name) throws IOException {
+        File file = new File(directory, name);
+        writeBytes(file, new byte[] { 0, 1, 0, 0 }, false);
+
+        return file;
+    }
+
+    @Before
+    public void setUp() {
+        directory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "fonts");
+        deleteRecursively(directory);
+        directory.mkdirs();
+
+        indexFile = new File(directory.getParentFile(), "fonts.index");
+        indexFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(directory);
+        indexFile.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File regularFile = newFontFile("Regular.ttf");
+        File unnamedFile = newFontFile("Unnamed.ttf");
+
+        TypefaceIndex index = new TypefaceIndex();
+        index.put(regularFile, new TypefaceDescription("Family", "Bold Italic",
+                                                       "Family Bold Italic",
+                                                       TypeWeight.BOLD, TypeWidth.CONDENSED,
+                                                       TypeSlope.ITALIC));
+        index.put(unnamedFile, new TypefaceDescription(null, null, null,
+                                                       TypeWeight.REGULAR, TypeWidth.NORMAL,
+                                                       TypeSlope.PLAIN));
+        assertTrue(index.write(indexFile));
+        assertTrue(indexFile.isFile());
+        assertFalse(new File(indexFile.getPath() + ".tmp").exists());
+
+        TypefaceIndex readIndex = TypefaceIndex.read(indexFile);
+        assertEquals(2, readIndex.size());
+
+        TypefaceDescription regular = readIndex.get(regularFile);
+        assertNotNull(regular);
+        assertEquals("Family", regular.familyName);
+        assertEquals("Bold Italic", regular.styleName);
+        assertEquals("Family Bold Italic", regular.fullName);
+        assertEquals(TypeWeight.BOLD, regular.weight);
+        assertEquals(TypeWidth.CONDENSED, regular.width);
+        assertEquals(TypeSlope.ITALIC, regular.slope);
+
+        TypefaceDescription unnamed = readIndex.get(unnamedFile);
+        assertNotNull(unnamed);
+        assertNull(unnamed.familyName);
+        assertNull(unnamed.styleName);
+        assertNull(unnamed.fullName);
+        assertEquals(TypeWeight.REGULAR, unnamed.weight);
+        assertEquals(TypeWidth.NORMAL, unnamed.width);
+        assertEquals(TypeSlope.PLAIN, unnamed.slope);
+    }
+
+    @Test
+    public void testStaleEntry() throws IOException {
+        File fontFile = newFontFile("Regular.ttf");
+
+        TypefaceIndex index = new TypefaceIndex();
+        index.put(fontFile, new TypefaceDescription("Family", "Regular", "Family Regular",
+                                                    TypeWeight.REGULAR, TypeWidth.NORMAL,
+                                                    TypeSlope.PLAIN));
+        assertTrue(index.write(indexFile));
+
+        // An entry is ignored once its file has changed.
+        writeBytes(fontFile, new byte[] { 0, 0, 0, 0 }, true);
+
+        TypefaceIndex readIndex = TypefaceIndex.read(indexFile);
+        assertEquals(1, readIndex.size());
+        assertNull(readIndex.get(fontFile));
+        assertNull(readIndex.get(new File(directory, "Missing.ttf")));
+    }
+
+    @Test
+    public void testMissingFile() {
+        assertEquals(0, TypefaceIndex.read(indexFile).size());
+        assertEquals(0, TypefaceIndex.read(null).size());
+    }
+
+    @Test
+    public void testCorruptFile() throws IOException {
+        writeBytes(indexFile, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, false);
+        assertEquals(0, TypefaceIndex.read(indexFile).size());
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException {
+        TypefaceIndex index = new TypefaceIndex();
+        for (int i = 0; i < 4; i++) {
+            index.put(newFontFile("Font" + i + ".ttf"),
+                      new TypefaceDescription("Family", "Style " + i, "Family Style " + i,
+                                              TypeWeight.REGULAR, TypeWidth.NORMAL,
+                                              TypeSlope.PLAIN));
+        }
+        assertTrue(index.write(indexFile));
+
+        // A partially read index is discarded as a whole.
+        byte[] bytes = readBytes(indexFile);
+        byte[] truncated = new byte[bytes.length - 10];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        writeBytes(indexFile, truncated, false);
+
+        assertEquals(0, TypefaceIndex.read(indexFile).size());
+    }
+
+    @Test
+    public void testIndexDirectory() throws IOException {
+        File fontFile = copyFontAsset("NafeesWeb.ttf");
+        File brokenFile = newFontFile("Broken.ttf");
+        newFontFile("Readme.txt");
+
+        // The files which could not be opened as fonts are skipped.
+        assertEquals(1, TypefaceManager.indexDirectory(directory, indexFile));
+
+        TypefaceIndex index = TypefaceIndex.read(indexFile);
+        assertEquals(1, index.size());
+        assertNotNull(index.get(fontFile));
+        assertNull(index.get(brokenFile));
+
+        // The fonts already in the index are kept as they are.
+        assertEquals(1, TypefaceManager.indexDirectory(directory, indexFile));
+        assertEquals(index.get(fontFile).fullName,
+                     TypefaceIndex.read(indexFile).get(fontFile).fullName);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.internal.util;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LruCacheTest {
+
+    private static class TestCache extends LruCache {
+        int evictedCount;
+        int evictedSize;
+
+        TestCache(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected void entriesEvicted(int count, int size) {
+            evictedCount += count;
+            evictedSize += size;
+        }
+    }
+
+    private static class TestSegment extends LruCache.Segment<String, String> {
+        final ArrayList<String> evictedValues = new ArrayList<>();
+
+        TestSegment(LruCache cache) {
+            super(cache);
+        }
+
+        @Override
+        protected int sizeOf(String key, String value) {
+            return value.length();
+        }
+
+        @Override
+        protected void entryEvicted(String key, String value) {
+            evictedValues.add(value);
+        }
+    }
+
+    private TestCache cache;
+    private TestSegment segment;
+    private TestSegment otherSegment;
+
+    @Before
+    public void setUp() {
+        cache = new TestCache(100);
+        segment = new TestSegment(cache);
+        otherSegment = new TestSegment(cache);
+    }
+
+    @Test
+    public void testPutReplacingValue() {
+        assertNull(segment.put("a", "xx"));
+        assertEquals("xx", segment.put("a", "yyy"));
+
+        assertEquals("yyy", segment.get("a"));
+        assertEquals(3, segment.size());
+        assertEquals(3, cache.size());
+
+        // The replaced value is no longer reachable, so it is reported as evicted.
+        assertEquals(Arrays.asList("xx"), segment.evictedValues);
+        assertEquals(1, cache.evictedCount);
+        assertEquals(2, cache.evictedSize);
+    }
+
+    @Test
+    public void testPutSameValue() {
+        String value = "xx";
+        segment.put("a", value);
+        segment.put("a", value);
+
+        assertEquals(2, cache.size());
+        assertTrue(segment.evictedValues.isEmpty());
+        assertEquals(0, cache.evictedCount);
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        assertNull(segment.putIfAbsent("a", "xx"));
+        assertEquals("xx", segment.putIfAbsent("a", "yyy"));
+
+        assertEquals("xx", segment.get("a"));
+        assertEquals(2, cache.size());
+        assertTrue(segment.evictedValues.isEmpty());
+    }
+
+    @Test
+    public void testTrimToCapacity() {
+        segment.put("a", "aaaa");
+        segment.put("b", "bbbb");
+        cache.setCapacity(6);
+
+        // The least recently used entry goes first.
+        assertNull(segment.get("a"));
+        assertEquals("bbbb", segment.get("b"));
+        assertEquals(4, cache.size());
+        assertEquals(Arrays.asList("aaaa"), segment.evictedValues);
+    }
+
+    @Test
+    public void testEvictAll() {
+        segment.put("a", "aa");
+        segment.put("b", "bbb");
+        otherSegment.put("c", "cccc");
+        segment.evictAll();
+
+        assertEquals(0, segment.size());
+        assertNull(segment.get("a"));
+        assertNull(segment.get("b"));
+        assertEquals(2, segment.evictedValues.size());
+        assertEquals(2, cache.evictedCount);
+        assertEquals(5, cache.evictedSize);
+
+        // The other segments are left as they are.
+        assertEquals("cccc", otherSegment.get("c"));
+        assertEquals(4, otherSegment.size());
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void testSegmentQuota() {
+        cache.setSegmentQuota(4);
+        otherSegment.put("x", "xxxx");
+        segment.put("a", "aa");
+        segment.put("b", "bb");
+        segment.put("c", "cc");
+
+        // Only the segment going over its quota is trimmed, from its own cold end.
+        assertEquals(4, segment.size());
+        assertNull(segment.get("a"));
+        assertEquals("bb", segment.get("b"));
+        assertEquals("cc", segment.get("c"));
+        assertEquals(Arrays.asList("aa"), segment.evictedValues);
+
+        assertEquals("xxxx", otherSegment.get("x"));
+        assertTrue(otherSegment.evictedValues.isEmpty());
+        assertEquals(8, cache.size());
+    }
+
+    @Test
+    public void testSegmentQuotaOnAdjustedSize() {
+        cache.setSegmentQuota(4);
+        segment.put("a", "aa");
+        segment.put("b", "bb");
+
+        // The memory held by the segment itself counts towards its quota as well.
+        segment.adjustSize(2);
+
+        assertNull(segment.get("a"));
+        assertEquals("bb", segment.get("b"));
+        assertEquals(4, segment.size());
+        assertEquals(Arrays.asList("aa"), segment.evictedValues);
+    }
+
+    @Test
+    public void testFrequencyPolicy() {
+        cache.setEvictionPolicy(LruCache.FREQUENCY_POLICY);
+        segment.put("a", "a");
+        for (int i = 0; i < 10; i++) {
+            segment.get("a");
+        }
+        segment.put("b", "b");
+        segment.put("c", "c");
+        cache.setCapacity(2);
+
+        // The least recently used entry is kept as it has been used far more often.
+        assertEquals("a", segment.get("a"));
+        assertEquals(Arrays.asList("b"), segment.evictedValues);
+    }
+
+    @Test
+    public void testSizePolicy() {
+        cache.setEvictionPolicy(LruCache.SIZE_POLICY);
+        segment.put("a", "a");
+        segment.put("b", "bbbbbb");
+        segment.put("c", "c");
+        cache.setCapacity(7);
+
+        // The largest of the cold entries goes first.
+        assertEquals("a", segment.get("a"));
+        assertEquals("c", segment.get("c"));
+        assertEquals(Arrays.asList("bbbbbb"), segment.evictedValues);
+        assertEquals(2, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidEvictionPolicy() {
+        cache.setEvictionPolicy(LruCache.SIZE_POLICY + 1);
+    }
+
+    @Test
+    public void testClear() {
+        segment.adjustSize(10);
+        segment.put("a", "aa");
+        otherSegment.put("b", "bbb");
+        cache.clear();
+
+        assertNull(segment.get("a"));
+        assertNull(otherSegment.get("b"));
+        assertEquals(Arrays.asList("aa"), segment.evictedValues);
+        assertEquals(Arrays.asList("bbb"), otherSegment.evictedValues);
+
+        // The evictions are reported in bulk, and the adjusted size is kept.
+        assertEquals(2, cache.evictedCount);
+        assertEquals(5, cache.evictedSize);
+        assertEquals(10, segment.size());
+        assertEquals(0, otherSegment.size());
+        assertEquals(10, cache.size());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import java.util.Arrays;
+
+//
+// A composite key identifies the pixels of a composited run by what went into them, i.e. the
+// strike, the glyphs and their placements within the composite bitmap. A renderer keeps a single
+// key which it fills for each run to look it up, and only copies it when storing a new composite.
+//
+class CompositeKey {
+
+    static final int MASK_KIND = 0;
+    static final int FIELD_KIND = 1;
+
+    private GlyphStrike strike;
+    private int kind;
+    private int[] values = new int[0];
+    private int length;
+    private int hash;
+
+    void reset(GlyphStrike strike, int kind) {
+        this.strike = strike;
+        this.kind = kind;
+        this.length = 0;
+        this.hash = (strike.hashCode() * 31) + kind;
+    }
+
+    void add(int value) {
+        if (length == values.length) {
+            values = Arrays.copyOf(values, Math.max(16, length * 2));
+        }
+
+        values[length++] = value;
+        hash = (hash * 31) + value;
+    }
+
+    void add(float value) {
+        add(Float.floatToIntBits(value));
+    }
+
+    CompositeKey copy() {
+        CompositeKey key = new CompositeKey();
+        key.strike = strike.clone();
+        key.kind = kind;
+        key.values = Arrays.copyOf(values, length);
+        key.length = length;
+        key.hash = hash;
+
+        return key;
+    }
+
+    int byteCount() {
+        return length * 4;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || !(obj instanceof CompositeKey)) {
+            return false;
+        }
+
+        CompositeKey other = (CompositeKey) obj;
+        if (hash != other.hash || kind != other.kind || length != other.length
+                || !strike.equals(other.strike)) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (values[i] != other.values[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
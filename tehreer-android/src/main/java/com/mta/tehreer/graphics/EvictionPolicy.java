@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import com.mta.tehreer.internal.util.LruCache;
+
+/**
+ * Specifies the policy used to pick the glyphs to be evicted when the glyph cache is full.
+ */
+public enum EvictionPolicy {
+    /**
+     * Evicts the least recently used glyph.
+     */
+    LRU(LruCache.LRU_POLICY),
+    /**
+     * Evicts, among the least recently used glyphs, the one used least frequently in the recent
+     * past. This keeps the frequently drawn glyphs in the cache while many glyphs are drawn only
+     * once, for example while scrolling through a long text.
+     */
+    TINY_LFU(LruCache.FREQUENCY_POLICY),
+    /**
+     * Evicts, among the least recently used glyphs, the one occupying the most memory. This keeps
+     * more glyphs in the cache at the expense of the large ones.
+     */
+    SIZE_AWARE(LruCache.SIZE_POLICY);
+
+    final int value;
+
+    EvictionPolicy(int value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+/**
+ * Interface for a seekable source of font data, such as a downloaded file or a decrypting stream,
+ * which cannot be mapped into the memory directly. A typeface created with a font source reads
+ * only the parts of the font that it actually uses, and keeps a small bounded cache of them.
+ * <p>
+ * The methods of a font source are called from the threads that use the typeface, one at a time.
+ * They are called while the typeface is locked, so they should return without blocking for long,
+ * and must not use any typeface, renderer or shaping engine. A read made from within another read
+ * of a font source fails, and the font data is treated as missing.
+ */
+public interface FontSource {
+    /**
+     * Returns the total number of bytes of the font data.
+     *
+     * @return The size of the font data.
+     */
+    long size();
+
+    /**
+     * Reads the font data starting at the specified position into the given array.
+     *
+     * @param position The position in the font data from where to start reading.
+     * @param buffer The array into which the data is read.
+     * @param offset The start offset in the array at which the data is written.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes read, or <code>-1</code> if the position is at the end of the
+     *         data.
+     */
+    int read(long position, byte[] buffer, int offset, int length);
+}
@@ -17,7 +17,6 @@
 package com.mta.tehreer.graphics;
 
 import android.graphics.Bitmap;
-import android.graphics.Path;
 
 import com.mta.tehreer.internal.JniBridge;
 import com.mta.tehreer.internal.Sustain;
@@ -35,7 +34,18 @@ class Glyph {
     private int mLeftSideBearing;
     private int mTopSideBearing;
     private Bitmap mBitmap;
-    private Path mPath;
+    private byte[] mMask;
+    private int mMaskWidth;
+    private int mMaskHeight;
+    private GlyphAtlas.Page mAtlasPage;
+    private int mAtlasX;
+    private int mAtlasY;
+    private boolean mAtlasResolved;
+    private GlyphSlabAllocator.Slab mSlab;
+    private int mSlabOffset;
+    private boolean mSlabResolved;
+    private int mSlabPinCount;
+    private boolean mSlabReleasePending;
 
     public Glyph(int glyphId) {
         this.glyphId = glyphId;
@@ -54,19 +64,63 @@ class Glyph {
     }
 
     public int rightSideBearing() {
-        return mLeftSideBearing + (mBitmap != null ? mBitmap.getWidth() : 0);
+        return mLeftSideBearing + (mBitmap != null ? mBitmap.getWidth() : mMaskWidth);
     }
 
     public int bottomSideBearing() {
-        return mTopSideBearing + (mBitmap != null ? mBitmap.getHeight() : 0);
+        return mTopSideBearing + (mBitmap != null ? mBitmap.getHeight() : mMaskHeight);
     }
 
     public Bitmap bitmap() {
         return mBitmap;
     }
 
-    public Path path() {
-        return mPath;
+    public byte[] mask() {
+        return mMask;
+    }
+
+    public int maskWidth() {
+        return mMaskWidth;
+    }
+
+    public int maskHeight() {
+        return mMaskHeight;
+    }
+
+    public GlyphAtlas.Page atlasPage() {
+        return mAtlasPage;
+    }
+
+    public int atlasX() {
+        return mAtlasX;
+    }
+
+    public int atlasY() {
+        return mAtlasY;
+    }
+
+    public boolean containsAtlasRegion() {
+        return mAtlasResolved;
+    }
+
+    public GlyphSlabAllocator.Slab slab() {
+        return mSlab;
+    }
+
+    public int slabOffset() {
+        return mSlabOffset;
+    }
+
+    public boolean containsSlabBlock() {
+        return mSlabResolved;
+    }
+
+    public int slabPinCount() {
+        return mSlabPinCount;
+    }
+
+    public boolean isSlabReleasePending() {
+        return mSlabReleasePending;
     }
 
     public boolean containsOutline() {
@@ -74,7 +128,7 @@ class Glyph {
     }
 
     @Sustain
-    private void ownBitmap(Bitmap bitmap, int left, int top) {
+    void ownBitmap(Bitmap bitmap, int left, int top) {
         if (mBitmap != null && !mBitmap.isRecycled()) {
             mBitmap.recycle();
         }
@@ -85,8 +139,54 @@ class Glyph {
     }
 
     @Sustain
-    private void ownPath(Path path) {
-        mPath = path;
+    void ownMask(byte[] mask, int width, int height, int left, int top) {
+        mMask = mask;
+        mMaskWidth = width;
+        mMaskHeight = height;
+        mLeftSideBearing = left;
+        mTopSideBearing = top;
+    }
+
+    void disownMask() {
+        mMask = null;
+    }
+
+    void ownAtlasRegion(GlyphAtlas.Page page, int x, int y) {
+        mMask = null;
+        mAtlasPage = page;
+        mAtlasX = x;
+        mAtlasY = y;
+        mAtlasResolved = true;
+    }
+
+    void disownAtlasRegion() {
+        mAtlasPage = null;
+        mAtlasResolved = false;
+    }
+
+    void ownSlabBlock(GlyphSlabAllocator.Slab slab, int offset) {
+        mMask = null;
+        mSlab = slab;
+        mSlabOffset = offset;
+        mSlabResolved = true;
+    }
+
+    void disownSlabBlock() {
+        mSlab = null;
+        mSlabResolved = false;
+        mSlabReleasePending = false;
+    }
+
+    void pinSlabBlock() {
+        mSlabPinCount++;
+    }
+
+    void unpinSlabBlock() {
+        mSlabPinCount--;
+    }
+
+    void deferSlabRelease() {
+        mSlabReleasePending = true;
     }
 
     @Sustain
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.graphics.Bitmap;
+
+import com.mta.tehreer.internal.JniBridge;
+
+import java.util.ArrayList;
+
+class GlyphAtlas {
+
+    static {
+        JniBridge.loadLibrary();
+    }
+
+    private static final int MIN_PAGE_SIZE = 256;
+    private static final int MAX_PAGE_SIZE = 1024;
+    private static final int GLYPHS_PER_ROW = 16;
+    private static final int SHELF_ALIGNMENT = 4;
+    private static final int PADDING = 1;
+
+    static final int NO_REGION = -1;
+    static final int REGION_FIELD_COUNT = 4;
+
+    private static class Span {
+
+        int x;
+        int width;
+        boolean free;
+        Span next;
+
+        Span(int x, int width, boolean free) {
+            this.x = x;
+            this.width = width;
+            this.free = free;
+        }
+    }
+
+    private static class Shelf {
+
+        int y;
+        int height;
+        int used;
+        Span spans;
+        Shelf next;
+
+        Shelf(int y, int height, int width) {
+            this.y = y;
+            this.height = height;
+            this.spans = new Span(0, width, true);
+        }
+
+        boolean isEmpty() {
+            return used == 0;
+        }
+
+        int allocate(int width) {
+            for (Span span = spans; span != null; span = span.next) {
+                if (span.free && span.width >= width) {
+                    if (span.width > width) {
+                        Span rest = new Span(span.x + width, span.width - width, true);
+                        rest.next = span.next;
+                        span.next = rest;
+                        span.width = width;
+                    }
+
+                    span.free = false;
+                    used++;
+
+                    return span.x;
+                }
+            }
+
+            return -1;
+        }
+
+        void free(int x) {
+            Span previous = null;
+
+            for (Span span = spans; span != null; span = span.next) {
+                if (span.x == x && !span.free) {
+                    span.free = true;
+                    used--;
+
+                    // Coalesce with the following free span.
+                    Span next = span.next;
+                    if (next != null && next.free) {
+                        span.width += next.width;
+                        span.next = next.next;
+                    }
+
+                    // Coalesce with the preceding free span.
+                    if (previous != null && previous.free) {
+                        previous.width += span.width;
+                        previous.next = span.next;
+                    }
+                    break;
+                }
+
+                previous = span;
+            }
+        }
+    }
+
+    static class Page {
+
+        final Bitmap bitmap;
+        final int size;
+        Shelf shelves;
+        int bottom;
+        int glyphCount;
+        boolean shared;
+        boolean retired;
+
+        Page(int size) {
+            this.bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+            this.size = size;
+        }
+
+        private Shelf selectShelf(int height) {
+            Shelf bestShelf = null;
+
+            // Prefer an existing shelf whose height wastes the least space.
+            for (Shelf shelf = shelves; shelf != null; shelf = shelf.next) {
+                if (shelf.height >= height && shelf.height <= height + (height / 2)) {
+                    if (bestShelf == null || shelf.height < bestShelf.height) {
+                        bestShelf = shelf;
+                    }
+                }
+            }
+
+            return bestShelf;
+        }
+
+        private Shelf appendShelf(int height) {
+            int shelfHeight = (height + SHELF_ALIGNMENT - 1) & ~(SHELF_ALIGNMENT - 1);
+            if (bottom + shelfHeight > size) {
+                return null;
+            }
+
+            Shelf shelf = new Shelf(bottom, shelfHeight, size);
+            bottom += shelfHeight;
+
+            if (shelves == null) {
+                shelves = shelf;
+            } else {
+                Shelf last = shelves;
+                while (last.next != null) {
+                    last = last.next;
+                }
+                last.next = shelf;
+            }
+
+            return shelf;
+        }
+
+        boolean allocate(int width, int height, int[] position) {
+            Shelf shelf = selectShelf(height);
+            if (shelf != null) {
+                int x = shelf.allocate(width);
+                if (x >= 0) {
+                    position[0] = x;
+                    position[1] = shelf.y;
+                    glyphCount++;
+                    return true;
+                }
+            }
+
+            shelf = appendShelf(height);
+            if (shelf == null) {
+                // Fall back to any empty shelf which is tall enough.
+                for (Shelf candidate = shelves; candidate != null; candidate = candidate.next) {
+                    if (candidate.isEmpty() && candidate.height >= height) {
+                        shelf = candidate;
+                        break;
+                    }
+                }
+            }
+
+            if (shelf != null) {
+                int x = shelf.allocate(width);
+                if (x >= 0) {
+                    position[0] = x;
+                    position[1] = shelf.y;
+                    glyphCount++;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        void free(int x, int y) {
+            Shelf previous = null;
+
+            for (Shelf shelf = shelves; shelf != null; shelf = shelf.next) {
+                if (shelf.y == y) {
+                    shelf.free(x);
+                    glyphCount--;
+
+                    // Give the space of a trailing empty shelf back to the page.
+                    if (shelf.isEmpty() && shelf.next == null) {
+                        bottom = shelf.y;
+                        if (previous == null) {
+                            shelves = null;
+                        } else {
+                            previous.next = null;
+                        }
+                    }
+                    break;
+                }
+
+                previous = shelf;
+            }
+        }
+    }
+
+    private final int pageSize;
+    private final int maxRegionSize;
+    private final ArrayList<Page> pages = new ArrayList<>();
+    private final int[] position = new int[2];
+
+    GlyphAtlas(GlyphStrike strike) {
+        int pixelSize = Math.max(strike.pixelWidth, strike.pixelHeight) >> 6;
+        int pageSize = MIN_PAGE_SIZE;
+        while (pageSize < pixelSize * GLYPHS_PER_ROW && pageSize < MAX_PAGE_SIZE) {
+            pageSize <<= 1;
+        }
+
+        this.pageSize = pageSize;
+        this.maxRegionSize = pageSize / 2;
+    }
+
+    // Returns the number of bytes by which the atlas has grown, or NO_REGION if the glyph does not
+    // fit in a page.
+    synchronized int store(Glyph glyph) {
+        byte[] mask = glyph.mask();
+        int width = glyph.maskWidth();
+        int height = glyph.maskHeight();
+
+        if (mask == null || width == 0 || height == 0) {
+            // Nothing to pack, but remember that the glyph has been looked up.
+            glyph.ownAtlasRegion(null, 0, 0);
+            return 0;
+        }
+        if (width > maxRegionSize || height > maxRegionSize) {
+            return NO_REGION;
+        }
+
+        int paddedWidth = width + PADDING;
+        int paddedHeight = height + PADDING;
+        Page target = null;
+        int growth = 0;
+
+        for (Page page : pages) {
+            if (!page.retired && page.allocate(paddedWidth, paddedHeight, position)) {
+                target = page;
+                break;
+            }
+        }
+        if (target == null) {
+            target = new Page(pageSize);
+            target.allocate(paddedWidth, paddedHeight, position);
+            pages.add(target);
+            growth = pageSize * pageSize;
+        }
+
+        nativeCopyMask(target.bitmap, position[0], position[1], mask, width, height);
+        glyph.ownAtlasRegion(target, position[0], position[1]);
+
+        return growth;
+    }
+
+    // Returns the number of bytes given back by the atlas.
+    synchronized int release(Glyph glyph) {
+        Page page = glyph.atlasPage();
+        int shrinkage = 0;
+
+        if (page != null) {
+            page.free(glyph.atlasX(), glyph.atlasY());
+
+            // NOTE:
+            //      A canvas might have recorded a shared page to draw it later, so a freed region of
+            //      it is never overwritten. Such a page is retired rather than copied, so it takes
+            //      no more glyphs and stays charged to the cache until its remaining ones are gone.
+            if (page.shared) {
+                page.retired = true;
+            }
+
+            // NOTE:
+            //      The bitmap is not recycled as it might still be referenced by a display list.
+            if (page.glyphCount == 0 && pages.remove(page)) {
+                shrinkage = page.size * page.size;
+            }
+        }
+
+        glyph.disownAtlasRegion();
+
+        return shrinkage;
+    }
+
+    // Takes the regions of given glyphs at once, so that the bitmap and the position of each one
+    // are read consistently. The pages are marked as shared so that the taken regions stay intact
+    // even if their glyphs are evicted before being drawn. A glyph which has already lost its region
+    // is set to null.
+    synchronized int takeRegions(Glyph[] glyphs, int count, Bitmap[] bitmaps, int[] regions) {
+        int missCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            Glyph glyph = glyphs[i];
+            Page page = glyph.atlasPage();
+            int field = i * REGION_FIELD_COUNT;
+
+            if (page != null) {
+                page.shared = true;
+                bitmaps[i] = page.bitmap;
+                regions[field] = glyph.atlasX();
+                regions[field + 1] = glyph.atlasY();
+                regions[field + 2] = glyph.maskWidth();
+                regions[field + 3] = glyph.maskHeight();
+            } else if (glyph.bitmap() != null || glyph.containsAtlasRegion()) {
+                Bitmap bitmap = glyph.bitmap();
+                bitmaps[i] = bitmap;
+                regions[field] = 0;
+                regions[field + 1] = 0;
+                regions[field + 2] = (bitmap != null ? bitmap.getWidth() : 0);
+                regions[field + 3] = (bitmap != null ? bitmap.getHeight() : 0);
+            } else {
+                glyphs[i] = null;
+                bitmaps[i] = null;
+                missCount++;
+            }
+        }
+
+        return missCount;
+    }
+
+    synchronized void clear() {
+        pages.clear();
+    }
+
+    static Bitmap createBitmap(byte[] mask, int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        nativeCopyMask(bitmap, 0, 0, mask, width, height);
+
+        return bitmap;
+    }
+
+    private static native void nativeCopyMask(Bitmap bitmap, int x, int y,
+                                              byte[] mask, int width, int height);
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.graphics.Bitmap;
+
+import com.mta.tehreer.internal.JniBridge;
+
+//
+// A shadow is the mask of a glyph blurred with three successive box blurs, which closely
+// approximate a gaussian blur. The blur radius is converted into the standard deviation in the
+// same way as the shadow layer of a paint, so the shadows look alike.
+//
+class GlyphBlur {
+
+    static {
+        JniBridge.loadLibrary();
+    }
+
+    private static final int PASS_COUNT = 3;
+    private static final float BLUR_SIGMA_SCALE = 0.57735f;
+
+    private GlyphBlur() {
+    }
+
+    private static int[] boxRadii(float sigma) {
+        // Pick the box widths whose successive passes give the closest standard deviation.
+        double variance = 12.0 * sigma * sigma;
+        int lowerWidth = (int) Math.floor(Math.sqrt((variance / PASS_COUNT) + 1.0));
+        if ((lowerWidth & 1) == 0) {
+            lowerWidth--;
+        }
+
+        int upperWidth = lowerWidth + 2;
+        double idealCount = (variance - (PASS_COUNT * lowerWidth * lowerWidth)
+                             - (4.0 * PASS_COUNT * lowerWidth) - (3.0 * PASS_COUNT))
+                            / ((-4.0 * lowerWidth) - 4.0);
+        long lowerCount = Math.round(idealCount);
+
+        int[] radii = new int[PASS_COUNT];
+        for (int i = 0; i < PASS_COUNT; i++) {
+            int width = (i < lowerCount ? lowerWidth : upperWidth);
+            radii[i] = Math.max(0, (width - 1) / 2);
+        }
+
+        return radii;
+    }
+
+    static Glyph createShadow(Glyph maskGlyph, float blurRadius) {
+        Glyph shadowGlyph = new Glyph(maskGlyph.glyphId());
+        byte[] mask = maskGlyph.mask();
+        if (mask == null) {
+            return shadowGlyph;
+        }
+
+        int[] radii = boxRadii((blurRadius * BLUR_SIGMA_SCALE) + 0.5f);
+        int padding = 0;
+        for (int radius : radii) {
+            padding += radius;
+        }
+
+        int maskWidth = maskGlyph.maskWidth();
+        int maskHeight = maskGlyph.maskHeight();
+        int shadowWidth = maskWidth + (padding * 2);
+        int shadowHeight = maskHeight + (padding * 2);
+        byte[] shadowMask = new byte[shadowWidth * shadowHeight];
+
+        nativeBlur(mask, maskWidth, maskHeight, shadowMask, padding, radii);
+
+        Bitmap shadowBitmap = GlyphAtlas.createBitmap(shadowMask, shadowWidth, shadowHeight);
+        shadowGlyph.ownBitmap(shadowBitmap,
+                              maskGlyph.leftSideBearing() - padding,
+                              maskGlyph.topSideBearing() + padding);
+
+        return shadowGlyph;
+    }
+
+    private static native void nativeBlur(byte[] mask, int width, int height,
+                                          byte[] shadow, int padding, int[] radii);
+}
@@ -16,46 +16,236 @@
 
 package com.mta.tehreer.graphics;
 
+import android.content.ComponentCallbacks2;
 import android.graphics.Bitmap;
-import android.graphics.Path;
+import android.graphics.RectF;
 
 import com.mta.tehreer.internal.util.LruCache;
+import com.mta.tehreer.internal.util.StripedCounters;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 class GlyphCache extends LruCache {
 
-    private static class Segment extends LruCache.Segment<Integer, Glyph> {
+    static final int BITMAP_STORAGE = 0;
+    static final int ATLAS_STORAGE = 1;
+    static final int SLAB_STORAGE = 2;
+
+    private static final int FILL_HITS = 0;
+    private static final int FILL_MISSES = 1;
+    private static final int STROKE_HITS = 2;
+    private static final int STROKE_MISSES = 3;
+    private static final int EVICTIONS = 4;
+    private static final int COUNTER_COUNT = 5;
+
+    private static final int MAX_VARIANT_SEGMENTS = 8;
+
+    private static final Comparator<GlyphStrike> STRIKE_SIZE_ORDER = new Comparator<GlyphStrike>() {
+        @Override
+        public int compare(GlyphStrike first, GlyphStrike second) {
+            if (first.pixelHeight != second.pixelHeight) {
+                return (first.pixelHeight < second.pixelHeight ? -1 : 1);
+            }
+            if (first.pixelWidth != second.pixelWidth) {
+                return (first.pixelWidth < second.pixelWidth ? -1 : 1);
+            }
+            if (first.skewX != second.skewX) {
+                return (first.skewX < second.skewX ? -1 : 1);
+            }
+
+            return 0;
+        }
+    };
+
+    private static abstract class CacheSegment<K, V> extends LruCache.Segment<K, V> {
 
         //
-        // HashMap:
+        // ConcurrentHashMap:
         //  - 1 pointer for map entry
         //  - 3 pointers for key, value and next
         //  - 1 integer for hash code
         //
         // LruCache.Node:
-        //  - 5 pointers for segment, key, value, previous and next
-        //
-        // Glyph:
-        //  - 3 pointers for outline, bitmap and path
-        //  - 3 integers for glyph id, glyph left and glyph top
+        //  - 7 pointers for segment, key, value, previous, next, segment previous and segment next
+        //  - 2 integers for weight and hash
         //
         // Total:
-        //  - 12 pointers
-        //  - 4 integers
+        //  - 11 pointers
+        //  - 3 integers
         //
-        // Size: (12 * 4) + (4 * 4) = 64
+        // Size: (11 * 4) + (3 * 4) = 56
         //
-        private static final int ESTIMATED_OVERHEAD = 64;
+        static final int ESTIMATED_OVERHEAD = 56;
+
+        // The header of an array holds a pointer for class and an integer for length.
+        static final int ARRAY_OVERHEAD = 8;
+
+        CacheSegment(LruCache cache) {
+            super(cache);
+        }
+    }
+
+    private static class Segment extends CacheSegment<Integer, Glyph> {
 
         public final GlyphRasterizer rasterizer;
+        public final GlyphAtlas atlas;
+        public final GlyphSlabAllocator slabs;
+        public final LruCache.Segment<Void, Void> idleSlabs;
+        public final StripedCounters counters = new StripedCounters(COUNTER_COUNT);
+        public final int glyphCount;
+        public volatile boolean indexed;
 
-        public Segment(LruCache cache, GlyphRasterizer rasterizer) {
+        public Segment(LruCache cache, GlyphRasterizer rasterizer, GlyphAtlas atlas,
+                       GlyphSlabAllocator slabs, LruCache.Segment<Void, Void> idleSlabs,
+                       int glyphCount) {
             super(cache);
             this.rasterizer = rasterizer;
+            this.atlas = atlas;
+            this.slabs = slabs;
+            this.idleSlabs = idleSlabs;
+            this.glyphCount = glyphCount;
+        }
+
+        @Override
+        protected int sizeOf(Integer key, Glyph value) {
+            Bitmap maskBitmap = value.bitmap();
+            int innerSize = 0;
+
+            if (maskBitmap != null) {
+                innerSize = maskBitmap.getWidth() * maskBitmap.getHeight();
+            }
+            innerSize += GlyphSlabAllocator.blockSizeOf(value);
+
+            // NOTE:
+            //      The atlas pages are charged to the segment as a whole when they are created, so
+            //      the region of a glyph is not counted here. A slab block is counted exactly, while
+            //      the idle space of the slabs is charged separately.
+            return innerSize + ESTIMATED_OVERHEAD;
+        }
+
+        @Override
+        protected void entryEvicted(Integer key, Glyph value) {
+            int shrinkage = atlas.release(value);
+            if (shrinkage > 0) {
+                adjustSize(-shrinkage);
+            }
+            int idleGrowth = slabs.release(value);
+            if (idleGrowth != 0) {
+                idleSlabs.adjustSize(idleGrowth);
+            }
+            counters.increment(EVICTIONS);
+        }
+
+        public int byteCount() {
+            int byteCount = size();
+            for (VariantSegment strokeSegment : strokeSegments.list()) {
+                byteCount += strokeSegment.size();
+            }
+            for (VariantSegment shadowSegment : shadowSegments.list()) {
+                byteCount += shadowSegment.size();
+            }
+            FieldSegment fieldSegment = this.fieldSegment;
+            if (fieldSegment != null) {
+                byteCount += fieldSegment.size();
+            }
+            BoundsSegment boundsSegment = this.boundsSegment;
+            if (boundsSegment != null) {
+                byteCount += boundsSegment.size();
+            }
+
+            return byteCount;
+        }
+
+        private final VariantSegments<StrokeSegment> strokeSegments = new VariantSegments<>();
+
+        public StrokeSegment getStrokeSegment(int lineRadius, int lineCap, int lineJoin, int miterLimit) {
+            for (VariantSegment segment : strokeSegments.list()) {
+                StrokeSegment strokeSegment = (StrokeSegment) segment;
+                if (strokeSegment.matches(lineRadius, lineCap, lineJoin, miterLimit)) {
+                    strokeSegment.lastUsed = System.nanoTime();
+                    return strokeSegment;
+                }
+            }
+
+            return strokeSegments.add(new StrokeSegment(cache, counters,
+                                                        lineRadius, lineCap, lineJoin, miterLimit));
+        }
+
+        private final VariantSegments<ShadowSegment> shadowSegments = new VariantSegments<>();
+
+        public ShadowSegment getShadowSegment(int blurRadius) {
+            for (VariantSegment segment : shadowSegments.list()) {
+                ShadowSegment shadowSegment = (ShadowSegment) segment;
+                if (shadowSegment.blurRadius == blurRadius) {
+                    shadowSegment.lastUsed = System.nanoTime();
+                    return shadowSegment;
+                }
+            }
+
+            return shadowSegments.add(new ShadowSegment(cache, counters, blurRadius));
         }
 
+        private volatile FieldSegment fieldSegment;
+
+        public FieldSegment getFieldSegment() {
+            FieldSegment fieldSegment = this.fieldSegment;
+            if (fieldSegment == null) {
+                synchronized (this) {
+                    fieldSegment = this.fieldSegment;
+                    if (fieldSegment == null) {
+                        fieldSegment = new FieldSegment(cache, counters);
+                        this.fieldSegment = fieldSegment;
+                    }
+                }
+            }
+
+            return fieldSegment;
+        }
+
+        private volatile BoundsSegment boundsSegment;
+
+        public BoundsSegment getBoundsSegment() {
+            BoundsSegment boundsSegment = this.boundsSegment;
+            if (boundsSegment == null) {
+                synchronized (this) {
+                    boundsSegment = this.boundsSegment;
+                    if (boundsSegment == null) {
+                        boundsSegment = new BoundsSegment(cache);
+                        this.boundsSegment = boundsSegment;
+                    }
+                }
+            }
+
+            return boundsSegment;
+        }
+    }
+
+    //
+    // A segment of a strike keeping the glyphs drawn with a particular style, such as a line style
+    // for strokes or a blur radius for shadows. Such a glyph only owns a bitmap.
+    //
+    private static abstract class VariantSegment extends CacheSegment<Integer, Glyph> {
+
+        public final StripedCounters counters;
+        public volatile long lastUsed = System.nanoTime();
+
+        public VariantSegment(LruCache cache, StripedCounters counters) {
+            super(cache);
+            this.counters = counters;
+        }
+
+        public abstract boolean hasStyleOf(VariantSegment other);
+
         @Override
         protected int sizeOf(Integer key, Glyph value) {
             Bitmap maskBitmap = value.bitmap();
@@ -67,6 +257,175 @@ class GlyphCache extends LruCache {
 
             return innerSize + ESTIMATED_OVERHEAD;
         }
+
+        @Override
+        protected void entryEvicted(Integer key, Glyph value) {
+            counters.increment(EVICTIONS);
+        }
+    }
+
+    //
+    // The variant segments of a strike, looked up without locking. An animated style asks for a new
+    // segment in every frame, so only a few of them are kept. The one used least recently makes
+    // room for the new one.
+    //
+    private static class VariantSegments<S extends VariantSegment> {
+
+        private volatile VariantSegment[] segments = new VariantSegment[0];
+
+        public VariantSegment[] list() {
+            return segments;
+        }
+
+        // Adds the given segment, unless another thread has added one with the same style in the
+        // meantime, which is returned instead.
+        @SuppressWarnings("unchecked")
+        public S add(S newSegment) {
+            VariantSegment staleSegment = null;
+
+            synchronized (this) {
+                VariantSegment[] oldSegments = segments;
+                for (VariantSegment oldSegment : oldSegments) {
+                    if (oldSegment.hasStyleOf(newSegment)) {
+                        return (S) oldSegment;
+                    }
+                }
+
+                VariantSegment[] newSegments;
+
+                if (oldSegments.length < MAX_VARIANT_SEGMENTS) {
+                    newSegments = Arrays.copyOf(oldSegments, oldSegments.length + 1);
+                    newSegments[oldSegments.length] = newSegment;
+                } else {
+                    int staleIndex = 0;
+                    for (int i = 1; i < oldSegments.length; i++) {
+                        if (oldSegments[i].lastUsed - oldSegments[staleIndex].lastUsed < 0) {
+                            staleIndex = i;
+                        }
+                    }
+
+                    newSegments = oldSegments.clone();
+                    staleSegment = newSegments[staleIndex];
+                    newSegments[staleIndex] = newSegment;
+                }
+
+                segments = newSegments;
+            }
+
+            if (staleSegment != null) {
+                staleSegment.evictAll();
+            }
+
+            return newSegment;
+        }
+    }
+
+    private static class StrokeSegment extends VariantSegment {
+
+        public final int lineRadius;
+        public final int lineCap;
+        public final int lineJoin;
+        public final int miterLimit;
+
+        public StrokeSegment(LruCache cache, StripedCounters counters,
+                             int lineRadius, int lineCap, int lineJoin, int miterLimit) {
+            super(cache, counters);
+            this.lineRadius = lineRadius;
+            this.lineCap = lineCap;
+            this.lineJoin = lineJoin;
+            this.miterLimit = miterLimit;
+        }
+
+        public boolean matches(int lineRadius, int lineCap, int lineJoin, int miterLimit) {
+            return this.lineRadius == lineRadius
+                && this.lineCap == lineCap
+                && this.lineJoin == lineJoin
+                && this.miterLimit == miterLimit;
+        }
+
+        @Override
+        public boolean hasStyleOf(VariantSegment other) {
+            StrokeSegment segment = (StrokeSegment) other;
+            return matches(segment.lineRadius, segment.lineCap, segment.lineJoin, segment.miterLimit);
+        }
+    }
+
+    private static class ShadowSegment extends VariantSegment {
+
+        public final int blurRadius;
+
+        public ShadowSegment(LruCache cache, StripedCounters counters, int blurRadius) {
+            super(cache, counters);
+            this.blurRadius = blurRadius;
+        }
+
+        @Override
+        public boolean hasStyleOf(VariantSegment other) {
+            return blurRadius == ((ShadowSegment) other).blurRadius;
+        }
+    }
+
+    private static class FieldSegment extends CacheSegment<Integer, Glyph> {
+
+        public final StripedCounters counters;
+
+        public FieldSegment(LruCache cache, StripedCounters counters) {
+            super(cache);
+            this.counters = counters;
+        }
+
+        @Override
+        protected int sizeOf(Integer key, Glyph value) {
+            byte[] field = value.mask();
+            int innerSize = 0;
+
+            if (field != null) {
+                innerSize = field.length;
+            }
+
+            return innerSize + ESTIMATED_OVERHEAD;
+        }
+
+        @Override
+        protected void entryEvicted(Integer key, Glyph value) {
+            counters.increment(EVICTIONS);
+        }
+    }
+
+    private static class ContourSegment extends CacheSegment<Integer, int[]> {
+
+        public ContourSegment(LruCache cache) {
+            super(cache);
+        }
+
+        @Override
+        protected int sizeOf(Integer key, int[] value) {
+            return (value.length * 4) + ARRAY_OVERHEAD + ESTIMATED_OVERHEAD;
+        }
+    }
+
+    private static class BoundsSegment extends CacheSegment<Integer, int[]> {
+
+        public BoundsSegment(LruCache cache) {
+            super(cache);
+        }
+
+        @Override
+        protected int sizeOf(Integer key, int[] value) {
+            return (value.length * 4) + ARRAY_OVERHEAD + ESTIMATED_OVERHEAD;
+        }
+    }
+
+    private static class CompositeSegment extends CacheSegment<CompositeKey, Bitmap> {
+
+        public CompositeSegment(LruCache cache) {
+            super(cache);
+        }
+
+        @Override
+        protected int sizeOf(CompositeKey key, Bitmap value) {
+            return (value.getWidth() * value.getHeight()) + key.byteCount() + ESTIMATED_OVERHEAD;
+        }
     }
 
     private static class Holder {
@@ -83,7 +442,16 @@ class GlyphCache extends LruCache {
         return Holder.INSTANCE;
     }
 
-    private HashMap<GlyphStrike, Segment> segments = new HashMap<>();
+    private final ConcurrentHashMap<GlyphStrike, Segment> segments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Typeface, ContourSegment> contourSegments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Typeface, ConcurrentSkipListMap<GlyphStrike, Segment>> fillStrikes = new ConcurrentHashMap<>();
+    private final GlyphSlabAllocator slabs = new GlyphSlabAllocator();
+    private final LruCache.Segment<Void, Void> idleSlabs = new LruCache.Segment<>(this);
+    private final CompositeSegment compositeSegment = new CompositeSegment(this);
+    private volatile GlyphDiskCache diskCache;
+    private final AtomicLongArray fillLatencies = new AtomicLongArray(GlyphCacheStatistics.LATENCY_BUCKET_COUNT);
+    private final AtomicLongArray strokeLatencies = new AtomicLongArray(GlyphCacheStatistics.LATENCY_BUCKET_COUNT);
+    private volatile GlyphCacheManager.StatisticsListener statisticsListener;
 
     public GlyphCache(int capacity) {
         super(capacity);
@@ -91,50 +459,462 @@ class GlyphCache extends LruCache {
 
     @Override
     public void clear() {
-        super.clear();
+        synchronized (segments) {
+            super.clear();
+
+            // NOTE:
+            //      The glyph rasterizers dispose themselves once they become unreachable, so that a
+            //      thread still drawing with a removed segment never uses a disposed rasterizer.
+            for (Segment segment : segments.values()) {
+                segment.atlas.clear();
+
+                // Give back whatever the dropped segment has still adjusted for its own memory.
+                int remainingSize = segment.size();
+                if (remainingSize > 0) {
+                    segment.adjustSize(-remainingSize);
+                }
+            }
+            segments.clear();
+            fillStrikes.clear();
+            contourSegments.clear();
+            slabs.clear();
+
+            int idleSize = idleSlabs.size();
+            if (idleSize > 0) {
+                idleSlabs.adjustSize(-idleSize);
+            }
+        }
+    }
+
+    // NOTE:
+    //      The returned count covers the bytes charged to the cache only. The evicted glyphs are
+    //      reported to the statistics listener by the eviction path itself, whereas the caches of the
+    //      typefaces are released without being counted, as their native size is not tracked.
+    public long trimMemory(int level) {
+        int oldSize = size();
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            clear();
+        } else {
+            int maxSize;
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                maxSize = capacity() / 4;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                maxSize = capacity() / 2;
+            } else {
+                maxSize = capacity() / 4 * 3;
+            }
+
+            trimToSize(maxSize);
+            removeIdleSegments();
+
+            int idleShrinkage = slabs.releaseEmptySlabs();
+            if (idleShrinkage > 0) {
+                idleSlabs.adjustSize(-idleShrinkage);
+            }
+        }
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            Typeface.releaseAllCaches();
+        }
+
+        return Math.max(0, oldSize - size());
+    }
+
+    private void removeIdleSegments() {
+        synchronized (segments) {
+            Iterator<Map.Entry<GlyphStrike, Segment>> iterator = segments.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<GlyphStrike, Segment> entry = iterator.next();
+                Segment segment = entry.getValue();
+                if (segment.byteCount() == 0) {
+                    iterator.remove();
+
+                    if (segment.indexed) {
+                        GlyphStrike strike = entry.getKey();
+                        ConcurrentSkipListMap<GlyphStrike, Segment> strikes = fillStrikes.get(strike.typeface);
+                        if (strikes != null) {
+                            strikes.remove(strike);
+                        }
+                    }
+                }
+            }
+
+            Iterator<ContourSegment> contourIterator = contourSegments.values().iterator();
+            while (contourIterator.hasNext()) {
+                if (contourIterator.next().size() == 0) {
+                    contourIterator.remove();
+                }
+            }
+        }
+    }
+
+    public void setDiskCache(GlyphDiskCache diskCache) {
+        GlyphDiskCache oldCache;
+
+        synchronized (segments) {
+            oldCache = this.diskCache;
+            this.diskCache = diskCache;
+        }
+
+        if (oldCache != null) {
+            oldCache.close();
+        }
+    }
+
+    public GlyphDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    public void setStatisticsListener(GlyphCacheManager.StatisticsListener statisticsListener) {
+        this.statisticsListener = statisticsListener;
+    }
+
+    public GlyphCacheStatistics getStatistics() {
+        ArrayList<GlyphCacheStatistics.StrikeStatistics> strikes = new ArrayList<>();
 
-        // Dispose all glyph rasterizers.
         for (Map.Entry<GlyphStrike, Segment> entry : segments.entrySet()) {
-            entry.getValue().rasterizer.dispose();
+            GlyphStrike strike = entry.getKey();
+            Segment segment = entry.getValue();
+            StripedCounters counters = segment.counters;
+
+            strikes.add(new GlyphCacheStatistics.StrikeStatistics(strike.typeface,
+                    strike.pixelWidth / 64.0f, strike.pixelHeight / 64.0f, strike.skewX / 65536.0f,
+                    counters.sum(FILL_HITS), counters.sum(FILL_MISSES),
+                    counters.sum(STROKE_HITS), counters.sum(STROKE_MISSES),
+                    counters.sum(EVICTIONS), segment.byteCount()));
+        }
+
+        return new GlyphCacheStatistics(capacity(), size(), strikes,
+                                        toArray(fillLatencies), toArray(strokeLatencies));
+    }
+
+    private static long[] toArray(AtomicLongArray array) {
+        long[] values = new long[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.get(i);
         }
-        segments.clear();
+
+        return values;
     }
 
-    private Segment unsafeGetSegment(GlyphStrike strike) {
+    private void recordRasterization(boolean stroke, int glyphCount, long startTime) {
+        long duration = System.nanoTime() - startTime;
+        int bucket = GlyphCacheStatistics.latencyBucketOf(duration / glyphCount);
+        AtomicLongArray latencies = (stroke ? strokeLatencies : fillLatencies);
+        latencies.addAndGet(bucket, glyphCount);
+
+        GlyphCacheManager.StatisticsListener listener = statisticsListener;
+        if (listener != null) {
+            listener.onGlyphsRasterized(stroke, glyphCount, duration);
+        }
+    }
+
+    @Override
+    protected void entriesEvicted(int count, int size) {
+        GlyphCacheManager.StatisticsListener listener = statisticsListener;
+        if (listener != null) {
+            listener.onGlyphsEvicted(count, size);
+        }
+    }
+
+    private Segment getSegment(GlyphStrike strike) {
         Segment segment = segments.get(strike);
         if (segment == null) {
-            GlyphRasterizer rasterizer = new GlyphRasterizer(strike);
-            segment = new Segment(this, rasterizer);
-            segments.put(strike.clone(), segment);
+            // NOTE:
+            //      Segments are created rarely, so a lock is used here to avoid creating a
+            //      rasterizer which would immediately be thrown away.
+            synchronized (segments) {
+                segment = segments.get(strike);
+                if (segment == null) {
+                    GlyphRasterizer rasterizer = new GlyphRasterizer(strike);
+                    GlyphAtlas atlas = new GlyphAtlas(strike);
+                    int glyphCount = strike.typeface.getGlyphCount();
+                    segment = new Segment(this, rasterizer, atlas, slabs, idleSlabs, glyphCount);
+                    segments.put(strike.clone(), segment);
+                }
+            }
         }
 
         return segment;
     }
 
-    public Glyph unsafeGetGlyph(Segment segment, int glyphId) {
+    // NOTE:
+    //      A strike is present only if it holds some fill glyphs, so that a segment created for
+    //      bounds, contours or other variants alone does not count.
+    public boolean containsStrike(GlyphStrike strike) {
+        ConcurrentSkipListMap<GlyphStrike, Segment> strikes = fillStrikes.get(strike.typeface);
+        if (strikes == null) {
+            return false;
+        }
+
+        Segment segment = strikes.get(strike);
+        return (segment != null && segment.size() > 0);
+    }
+
+    // NOTE:
+    //      Only the strikes whose fill glyphs have been requested are indexed, so that the reference
+    //      strikes of distance fields, which hold no fill glyph, are never picked as nearest.
+    private void indexFillStrike(Segment segment, GlyphStrike strike) {
+        synchronized (segments) {
+            if (!segment.indexed && segments.get(strike) == segment) {
+                ConcurrentSkipListMap<GlyphStrike, Segment> strikes = fillStrikes.get(strike.typeface);
+                if (strikes == null) {
+                    strikes = new ConcurrentSkipListMap<>(STRIKE_SIZE_ORDER);
+                    fillStrikes.put(strike.typeface, strikes);
+                }
+
+                strikes.put(strike.clone(), segment);
+                segment.indexed = true;
+            }
+        }
+    }
+
+    public boolean findNearestStrike(GlyphStrike strike) {
+        // NOTE:
+        //      The distance between two sizes is measured by their ratio, so that a strike twice as
+        //      big is as far as one half as big. Only the strikes holding some glyphs are taken.
+        //      The indexed strikes are walked outwards from the given size, stopping as soon as the
+        //      heights alone are farther than the nearest strike found so far.
+        ConcurrentSkipListMap<GlyphStrike, Segment> strikes = fillStrikes.get(strike.typeface);
+        if (strikes == null) {
+            return false;
+        }
+
+        GlyphStrike nearestStrike = null;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+
+        for (int pass = 0; pass < 2; pass++) {
+            Map<GlyphStrike, Segment> candidates = (pass == 0
+                                                    ? strikes.tailMap(strike, true)
+                                                    : strikes.headMap(strike, false).descendingMap());
+
+            for (Map.Entry<GlyphStrike, Segment> entry : candidates.entrySet()) {
+                GlyphStrike candidate = entry.getKey();
+                double heightDistance = Math.abs(Math.log((double) candidate.pixelHeight / strike.pixelHeight));
+                if (heightDistance >= nearestDistance) {
+                    break;
+                }
+                if (candidate.skewX != strike.skewX || entry.getValue().size() == 0) {
+                    continue;
+                }
+
+                double distance = Math.abs(Math.log((double) candidate.pixelWidth / strike.pixelWidth))
+                                + heightDistance;
+                if (distance < nearestDistance) {
+                    nearestStrike = candidate;
+                    nearestDistance = distance;
+                }
+            }
+        }
+
+        if (nearestStrike != null) {
+            strike.pixelWidth = nearestStrike.pixelWidth;
+            strike.pixelHeight = nearestStrike.pixelHeight;
+            return true;
+        }
+
+        return false;
+    }
+
+    private Glyph getGlyph(Segment segment, int glyphId) {
         Glyph glyph = segment.get(glyphId);
         if (glyph == null) {
-            glyph = new Glyph(glyphId);
+            Glyph newGlyph = new Glyph(glyphId);
+            glyph = segment.putIfAbsent(glyphId, newGlyph);
+            if (glyph == null) {
+                glyph = newGlyph;
+            }
         }
 
         return glyph;
     }
 
+    private void loadMask(Segment segment, GlyphStrike strike, Glyph glyph) {
+        GlyphDiskCache diskCache = this.diskCache;
+
+        if (diskCache == null || !diskCache.read(strike, glyph)) {
+            long startTime = System.nanoTime();
+            segment.rasterizer.loadMask(glyph);
+            recordRasterization(false, 1, startTime);
+
+            if (diskCache != null) {
+                diskCache.write(strike, glyph);
+            }
+        }
+    }
+
+    private static void convertMask(Glyph glyph) {
+        byte[] mask = glyph.mask();
+        int width = glyph.maskWidth();
+        int height = glyph.maskHeight();
+        Bitmap bitmap = null;
+
+        if (mask != null && width > 0 && height > 0) {
+            bitmap = GlyphAtlas.createBitmap(mask, width, height);
+        }
+
+        glyph.ownBitmap(bitmap, glyph.leftSideBearing(), glyph.topSideBearing());
+        glyph.disownMask();
+    }
+
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     public Glyph getMaskGlyph(GlyphStrike strike, int glyphId) {
-        final Segment segment;
-        final Glyph glyph;
+        Segment segment = getSegment(strike);
+        Glyph glyph = getGlyph(segment, glyphId);
 
-        synchronized (this) {
-            segment = unsafeGetSegment(strike);
-            glyph = unsafeGetGlyph(segment, glyphId);
+        synchronized (glyph) {
+            if (glyph.bitmap() == null) {
+                segment.counters.increment(FILL_MISSES);
+
+                if (diskCache == null) {
+                    long startTime = System.nanoTime();
+                    segment.rasterizer.loadBitmap(glyph);
+                    recordRasterization(false, 1, startTime);
+                } else {
+                    loadMask(segment, strike, glyph);
+                    convertMask(glyph);
+                }
+                segment.put(glyphId, glyph);
+            } else {
+                segment.counters.increment(FILL_HITS);
+            }
         }
 
+        return glyph;
+    }
+
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    public Glyph getAtlasGlyph(GlyphStrike strike, int glyphId) {
+        Segment segment = getSegment(strike);
+        Glyph glyph = getGlyph(segment, glyphId);
+
+        synchronized (glyph) {
+            if (!glyph.containsAtlasRegion() && glyph.bitmap() == null) {
+                segment.counters.increment(FILL_MISSES);
+
+                loadMask(segment, strike, glyph);
+                resolveFill(segment, glyph, ATLAS_STORAGE);
+                segment.put(glyphId, glyph);
+            } else {
+                segment.counters.increment(FILL_HITS);
+            }
+        }
+
+        return glyph;
+    }
+
+    private static boolean isFillLoaded(Glyph glyph, int storage) {
+        if (glyph.bitmap() != null) {
+            return true;
+        }
+
+        switch (storage) {
+        case ATLAS_STORAGE:
+            return glyph.containsAtlasRegion();
+
+        case SLAB_STORAGE:
+            return glyph.containsSlabBlock();
+
+        default:
+            return false;
+        }
+    }
+
+    private static void resolveFill(Segment segment, Glyph glyph, int storage) {
+        switch (storage) {
+        case ATLAS_STORAGE:
+            int growth = segment.atlas.store(glyph);
+            if (growth == GlyphAtlas.NO_REGION) {
+                // Keep the mask in a separate bitmap as it does not fit in the atlas.
+                convertMask(glyph);
+            } else if (growth > 0) {
+                segment.adjustSize(growth);
+            }
+            break;
+
+        case SLAB_STORAGE:
+            int idleGrowth = segment.slabs.store(glyph);
+            if (idleGrowth != 0) {
+                segment.idleSlabs.adjustSize(idleGrowth);
+            }
+            break;
+
+        default:
+            convertMask(glyph);
+            break;
+        }
+    }
+
+    public void getFillGlyphs(GlyphStrike strike, int[] glyphIds, int count,
+                              int storage, Glyph[] glyphs) {
+        getFillGlyphs(getSegment(strike), strike, glyphIds, count, storage, glyphs);
+    }
+
+    public void getAtlasRegions(GlyphStrike strike, int[] glyphIds, int count,
+                                Glyph[] glyphs, Bitmap[] bitmaps, int[] regions) {
+        Segment segment = getSegment(strike);
+        getFillGlyphs(segment, strike, glyphIds, count, ATLAS_STORAGE, glyphs);
+
+        if (segment.atlas.takeRegions(glyphs, count, bitmaps, regions) == 0) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (glyphs[i] == null) {
+                Glyph glyph = getSeparateGlyph(segment, strike, glyphIds[i]);
+                Bitmap bitmap = glyph.bitmap();
+                int field = i * GlyphAtlas.REGION_FIELD_COUNT;
+
+                glyphs[i] = glyph;
+                bitmaps[i] = bitmap;
+                regions[field] = 0;
+                regions[field + 1] = 0;
+                regions[field + 2] = (bitmap != null ? bitmap.getWidth() : 0);
+                regions[field + 3] = (bitmap != null ? bitmap.getHeight() : 0);
+            }
+        }
+    }
+
+    public void getSlabBlocks(GlyphStrike strike, int[] glyphIds, int count,
+                              Glyph[] glyphs, ByteBuffer[] buffers, int[] blocks) {
+        Segment segment = getSegment(strike);
+        getFillGlyphs(segment, strike, glyphIds, count, SLAB_STORAGE, glyphs);
+
+        if (segment.slabs.takeBlocks(glyphs, count, buffers, blocks) == 0) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (glyphs[i] == null) {
+                glyphs[i] = getSeparateGlyph(segment, strike, glyphIds[i]);
+                buffers[i] = null;
+            }
+        }
+    }
+
+    public void releaseSlabBlocks(Glyph[] glyphs, int count, ByteBuffer[] buffers) {
+        int idleGrowth = slabs.untakeBlocks(glyphs, count, buffers);
+        if (idleGrowth != 0) {
+            idleSlabs.adjustSize(idleGrowth);
+        }
+    }
+
+    // NOTE:
+    //      A small cache may evict some glyphs of a run while loading the others. Such glyphs are
+    //      kept in separate bitmaps, which are never released, so that they can be drawn in any
+    //      case.
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    private Glyph getSeparateGlyph(Segment segment, GlyphStrike strike, int glyphId) {
+        Glyph glyph = getGlyph(segment, glyphId);
+
         synchronized (glyph) {
             if (glyph.bitmap() == null) {
-                segment.remove(glyphId);
+                segment.counters.increment(FILL_MISSES);
 
-                segment.rasterizer.loadBitmap(glyph);
+                loadMask(segment, strike, glyph);
+                convertMask(glyph);
                 segment.put(glyphId, glyph);
             }
         }
@@ -142,48 +922,251 @@ class GlyphCache extends LruCache {
         return glyph;
     }
 
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    private void getFillGlyphs(Segment segment, GlyphStrike strike, int[] glyphIds, int count,
+                               int storage, Glyph[] glyphs) {
+        if (!segment.indexed) {
+            indexFillStrike(segment, strike);
+        }
+
+        IdentityHashMap<Glyph, Boolean> missingGlyphs = null;
+        int missCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            Glyph glyph = getGlyph(segment, glyphIds[i]);
+            glyphs[i] = glyph;
+
+            synchronized (glyph) {
+                if (!isFillLoaded(glyph, storage)) {
+                    if (missingGlyphs == null) {
+                        missingGlyphs = new IdentityHashMap<>();
+                    }
+                    missingGlyphs.put(glyph, Boolean.TRUE);
+                    missCount++;
+                }
+            }
+        }
+
+        segment.counters.add(FILL_HITS, count - missCount);
+
+        if (missingGlyphs != null) {
+            segment.counters.add(FILL_MISSES, missCount);
+            loadFillGlyphs(segment, strike, missingGlyphs.keySet().toArray(new Glyph[0]), storage);
+        }
+    }
+
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    private void loadFillGlyphs(Segment segment, GlyphStrike strike, Glyph[] glyphs, int storage) {
+        GlyphDiskCache diskCache = this.diskCache;
+        int[] glyphIds = new int[glyphs.length];
+        int count = 0;
+
+        // Take whatever is available in the disk cache, and rasterize the rest in a single batch.
+        for (Glyph glyph : glyphs) {
+            if (diskCache != null) {
+                synchronized (glyph) {
+                    if (isFillLoaded(glyph, storage)) {
+                        continue;
+                    }
+                    if (diskCache.read(strike, glyph)) {
+                        resolveFill(segment, glyph, storage);
+                        segment.put(glyph.glyphId(), glyph);
+                        continue;
+                    }
+                }
+            }
+
+            glyphs[count] = glyph;
+            glyphIds[count] = glyph.glyphId();
+            count++;
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        int[] metrics = new int[count * 4];
+        long startTime = System.nanoTime();
+        byte[] masks = segment.rasterizer.loadMasks(glyphIds, count, metrics);
+        recordRasterization(false, count, startTime);
+        int offset = 0;
+
+        for (int i = 0; i < count; i++) {
+            Glyph glyph = glyphs[i];
+            int width = metrics[i * 4];
+            int height = metrics[i * 4 + 1];
+            int length = width * height;
+            byte[] mask = (length > 0 ? Arrays.copyOfRange(masks, offset, offset + length) : null);
+            offset += length;
+
+            synchronized (glyph) {
+                if (!isFillLoaded(glyph, storage)) {
+                    glyph.ownMask(mask, width, height, metrics[i * 4 + 2], metrics[i * 4 + 3]);
+                    if (diskCache != null) {
+                        diskCache.write(strike, glyph);
+                    }
+
+                    resolveFill(segment, glyph, storage);
+                    segment.put(glyph.glyphId(), glyph);
+                }
+            }
+        }
+    }
+
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     public Glyph getMaskGlyph(GlyphStrike strike, int glyphId, int lineRadius,
                               int lineCap, int lineJoin, int miterLimit) {
-        final Segment segment;
-        final Glyph glyph;
+        Segment segment = getSegment(strike);
+        StrokeSegment strokeSegment = segment.getStrokeSegment(lineRadius, lineCap, lineJoin, miterLimit);
 
-        synchronized (this) {
-            segment = unsafeGetSegment(strike);
-            glyph = unsafeGetGlyph(segment, glyphId);
+        Glyph strokeGlyph = strokeSegment.get(glyphId);
+        if (strokeGlyph != null) {
+            segment.counters.increment(STROKE_HITS);
+            return strokeGlyph;
         }
 
+        segment.counters.increment(STROKE_MISSES);
+
+        Glyph glyph = getGlyph(segment, glyphId);
+        long startTime = System.nanoTime();
+
         synchronized(glyph) {
             if (!glyph.containsOutline()) {
-                segment.remove(glyphId);
-
                 segment.rasterizer.loadOutline(glyph);
                 segment.put(glyphId, glyph);
             }
+
+            strokeGlyph = segment.rasterizer.strokeGlyph(glyph, lineRadius, lineCap, lineJoin, miterLimit);
+        }
+
+        recordRasterization(true, 1, startTime);
+
+        if (strokeGlyph == null) {
+            // Remember the glyphs which cannot be stroked so that they are not tried again.
+            strokeGlyph = new Glyph(glyphId);
         }
 
-        return segment.rasterizer.strokeGlyph(glyph, lineRadius, lineCap, lineJoin, miterLimit);
+        Glyph existingGlyph = strokeSegment.putIfAbsent(glyphId, strokeGlyph);
+        if (existingGlyph != null) {
+            return existingGlyph;
+        }
+
+        return strokeGlyph;
     }
 
-    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
-    public Path getGlyphPath(GlyphStrike strike, int glyphId) {
-        final Segment segment;
-        final Glyph glyph;
+    public Glyph getShadowGlyph(GlyphStrike strike, int glyphId, int blurRadius) {
+        Segment segment = getSegment(strike);
+        ShadowSegment shadowSegment = segment.getShadowSegment(blurRadius);
 
-        synchronized (this) {
-            segment = unsafeGetSegment(strike);
-            glyph = unsafeGetGlyph(segment, glyphId);
+        Glyph shadowGlyph = shadowSegment.get(glyphId);
+        if (shadowGlyph != null) {
+            return shadowGlyph;
         }
 
-        synchronized (glyph) {
-            if (glyph.path() == null) {
-                segment.remove(glyphId);
+        // Load a separate mask so that the storage of the cached fill glyph is left untouched.
+        Glyph maskGlyph = new Glyph(glyphId);
+        loadMask(segment, strike, maskGlyph);
 
-                segment.rasterizer.loadPath(glyph);
-                segment.put(glyphId, glyph);
+        shadowGlyph = GlyphBlur.createShadow(maskGlyph, blurRadius / 64.0f);
+
+        Glyph existingGlyph = shadowSegment.putIfAbsent(glyphId, shadowGlyph);
+        if (existingGlyph != null) {
+            return existingGlyph;
+        }
+
+        return shadowGlyph;
+    }
+
+    public Glyph getFieldGlyph(GlyphStrike fieldStrike, int glyphId) {
+        Segment segment = getSegment(fieldStrike);
+        FieldSegment fieldSegment = segment.getFieldSegment();
+
+        Glyph fieldGlyph = fieldSegment.get(glyphId);
+        if (fieldGlyph != null) {
+            segment.counters.increment(FILL_HITS);
+            return fieldGlyph;
+        }
+
+        segment.counters.increment(FILL_MISSES);
+
+        // Load a separate mask so that the storage of the cached fill glyph is left untouched.
+        Glyph maskGlyph = new Glyph(glyphId);
+        loadMask(segment, fieldStrike, maskGlyph);
+
+        fieldGlyph = GlyphDistanceField.create(maskGlyph);
+
+        Glyph existingGlyph = fieldSegment.putIfAbsent(glyphId, fieldGlyph);
+        if (existingGlyph != null) {
+            return existingGlyph;
+        }
+
+        return fieldGlyph;
+    }
+
+    // NOTE:
+    //      A composite bitmap drawn on a hardware canvas may still be referred by a recorded display
+    //      list, so it is never modified once stored. Evicting it only drops the reference of the
+    //      cache, leaving the bitmap to the display lists still holding it.
+    public Bitmap getComposite(CompositeKey key) {
+        return compositeSegment.get(key);
+    }
+
+    public Bitmap putComposite(CompositeKey key, Bitmap bitmap) {
+        Bitmap existingBitmap = compositeSegment.putIfAbsent(key.copy(), bitmap);
+        if (existingBitmap != null) {
+            return existingBitmap;
+        }
+
+        return bitmap;
+    }
+
+    public void getGlyphBounds(GlyphStrike strike, int glyphId, RectF bounds) {
+        Segment segment = getSegment(strike);
+        if (glyphId < 0 || glyphId >= segment.glyphCount) {
+            bounds.setEmpty();
+            return;
+        }
+
+        BoundsSegment boundsSegment = segment.getBoundsSegment();
+        int[] metrics = boundsSegment.get(glyphId);
+        if (metrics == null) {
+            // Load the requested glyph alone, as an outline costs as much as the glyph it bounds.
+            int[] newMetrics = new int[4];
+            segment.rasterizer.loadBounds(new int[] { glyphId }, 1, newMetrics);
+
+            metrics = boundsSegment.putIfAbsent(glyphId, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+
+        int width = metrics[0];
+        int height = metrics[1];
+        int left = metrics[2];
+        int top = metrics[3];
+
+        bounds.set(left, top, left + width, top + height);
+    }
+
+    public int[] getGlyphContours(Typeface typeface, int glyphId) {
+        ContourSegment segment = contourSegments.get(typeface);
+        if (segment == null) {
+            ContourSegment newSegment = new ContourSegment(this);
+            segment = contourSegments.putIfAbsent(typeface, newSegment);
+            if (segment == null) {
+                segment = newSegment;
+            }
+        }
+
+        int[] contours = segment.get(glyphId);
+        if (contours == null) {
+            int[] newContours = typeface.loadGlyphContours(glyphId);
+            contours = segment.putIfAbsent(glyphId, newContours);
+            if (contours == null) {
+                contours = newContours;
             }
         }
 
-        return glyph.path();
+        return contours;
     }
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The <code>GlyphCacheManager</code> class provides management activities related to the glyph
+ * cache shared by all renderers.
+ */
+public class GlyphCacheManager {
+
+    /**
+     * Interface definition for callbacks to be invoked as the glyph cache does its work. The
+     * callbacks may be invoked on any thread, including the prefetch threads, so they should
+     * return quickly.
+     */
+    public interface StatisticsListener {
+
+        /**
+         * Called after one or more glyphs have been rasterized or stroked.
+         *
+         * @param stroked Whether the glyphs were stroked rather than filled.
+         * @param glyphCount The number of glyphs rasterized together.
+         * @param durationNanos The time taken to rasterize the glyphs, in nanoseconds.
+         */
+        void onGlyphsRasterized(boolean stroked, int glyphCount, long durationNanos);
+
+        /**
+         * Called after one or more glyphs have been evicted from the cache, either to make room
+         * for the new ones, or because the memory of the cache has been trimmed or the cache has
+         * been cleared.
+         *
+         * @param glyphCount The number of evicted glyphs.
+         * @param byteCount The number of bytes charged to the evicted glyphs.
+         */
+        void onGlyphsEvicted(int glyphCount, int byteCount);
+    }
+
+    private GlyphCacheManager() {
+    }
+
+    /**
+     * Returns the maximum number of bytes that the glyph cache can hold. By default, it is one
+     * eighth of the maximum memory available to the virtual machine.
+     *
+     * @return The capacity of the glyph cache in bytes.
+     */
+    public static int getCapacity() {
+        return GlyphCache.getInstance().capacity();
+    }
+
+    /**
+     * Sets the maximum number of bytes that the glyph cache can hold. If the cache currently holds
+     * more bytes, the glyphs are evicted right away until it fits in the new capacity.
+     *
+     * @param capacity The capacity of the glyph cache in bytes.
+     *
+     * @throws IllegalArgumentException if <code>capacity</code> is not positive.
+     */
+    public static void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        GlyphCache.getInstance().setCapacity(capacity);
+    }
+
+    /**
+     * Returns the maximum number of bytes that the glyphs of a single strike can occupy, or zero
+     * if there is no such limit.
+     *
+     * @return The strike quota in bytes.
+     */
+    public static int getStrikeQuota() {
+        return GlyphCache.getInstance().segmentQuota();
+    }
+
+    /**
+     * Sets the maximum number of bytes that the glyphs of a single strike can occupy. A strike is
+     * a typeface rendered at a particular size and slant. The quota applies separately to the
+     * filled glyphs of a strike and to its glyphs stroked with each line style. When a strike
+     * exceeds its quota, its own least recently used glyphs are evicted, so a single strike cannot
+     * push the glyphs of other strikes out of the cache.
+     *
+     * @param quota The strike quota in bytes, or zero to remove the limit.
+     *
+     * @throws IllegalArgumentException if <code>quota</code> is negative.
+     */
+    public static void setStrikeQuota(int quota) {
+        if (quota < 0) {
+            throw new IllegalArgumentException("Invalid quota: " + quota);
+        }
+
+        GlyphCache.getInstance().setSegmentQuota(quota);
+    }
+
+    /**
+     * Returns the policy used to pick the glyphs to be evicted from the glyph cache.
+     *
+     * @return The current eviction policy.
+     */
+    public static EvictionPolicy getEvictionPolicy() {
+        int value = GlyphCache.getInstance().evictionPolicy();
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            if (policy.value == value) {
+                return policy;
+            }
+        }
+
+        return EvictionPolicy.LRU;
+    }
+
+    /**
+     * Sets the policy used to pick the glyphs to be evicted from the glyph cache. The default
+     * policy is {@link EvictionPolicy#LRU}.
+     *
+     * @param policy The eviction policy to use.
+     *
+     * @throws NullPointerException if <code>policy</code> is null.
+     */
+    public static void setEvictionPolicy(EvictionPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("Policy is null");
+        }
+
+        GlyphCache.getInstance().setEvictionPolicy(policy.value);
+    }
+
+    /**
+     * Releases the memory held by the glyph cache and other cached native state according to the
+     * specified trim level. It is meant to be called from
+     * <code>ComponentCallbacks2.onTrimMemory(int)</code> with the level passed to it, and from
+     * <code>ComponentCallbacks.onLowMemory()</code> with
+     * <code>ComponentCallbacks2.TRIM_MEMORY_COMPLETE</code>.
+     * <p>
+     * The glyph cache is shrunk to three quarters, one half or one quarter of its capacity as the
+     * level becomes more severe, and is emptied completely at
+     * <code>TRIM_MEMORY_COMPLETE</code>. The strikes left without any glyph release their
+     * rasterizers. At <code>TRIM_MEMORY_RUNNING_CRITICAL</code> and above, the shaping patterns
+     * and strokers cached by each typeface are released as well. Everything released is created
+     * again when needed, and the capacity of the glyph cache is left unchanged.
+     *
+     * @param level The trim level, one of the <code>TRIM_MEMORY_*</code> constants of
+     *              <code>ComponentCallbacks2</code>.
+     * @return The number of bytes freed from the glyph cache, as counted against its capacity. It
+     *         includes the atlas pages and slabs given back, but not the memory released by the
+     *         typefaces, which is not accounted by the glyph cache.
+     */
+    public static long trimMemory(int level) {
+        return GlyphCache.getInstance().trimMemory(level);
+    }
+
+    /**
+     * Returns a snapshot of the current statistics of the glyph cache.
+     *
+     * @return A new statistics snapshot.
+     */
+    public static GlyphCacheStatistics getStatistics() {
+        return GlyphCache.getInstance().getStatistics();
+    }
+
+    /**
+     * Sets the listener to be notified about rasterizations and evictions in the glyph cache.
+     *
+     * @param listener The listener to notify, or <code>null</code> to remove the current one.
+     */
+    public static void setStatisticsListener(StatisticsListener listener) {
+        GlyphCache.getInstance().setStatisticsListener(listener);
+    }
+
+    /**
+     * Enables a persistent disk cache for rasterized glyph masks, backed by a memory-mapped file.
+     * Masks found in this cache are not rasterized again, even after the application restarts. If
+     * a disk cache is already enabled, it is replaced with the new one.
+     * <p>
+     * The file is created if it does not exist. If it exists but has an incompatible format or a
+     * different size, its contents are discarded. Once the file is full, the oldest masks are
+     * overwritten by the new ones.
+     *
+     * @param file The file in which the masks will be stored. It is usually placed in the cache
+     *             directory of the application.
+     * @param maxSize The maximum size of the file in bytes.
+     *
+     * @throws NullPointerException if <code>file</code> is null.
+     * @throws IllegalArgumentException if <code>maxSize</code> is not positive.
+     * @throws RuntimeException if the file could not be opened or mapped into memory.
+     */
+    public static void enableDiskCache(File file, int maxSize) {
+        if (file == null) {
+            throw new NullPointerException("File is null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid max size: " + maxSize);
+        }
+
+        GlyphDiskCache diskCache;
+        try {
+            diskCache = new GlyphDiskCache(file, maxSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open the disk cache file", e);
+        }
+
+        GlyphCache.getInstance().setDiskCache(diskCache);
+    }
+
+    /**
+     * Disables the persistent disk cache, if enabled. The cache file is left intact so that it can
+     * be used again later.
+     */
+    public static void disableDiskCache() {
+        GlyphCache.getInstance().setDiskCache(null);
+    }
+
+    /**
+     * Removes all masks from the persistent disk cache, if enabled.
+     */
+    public static void clearDiskCache() {
+        GlyphDiskCache diskCache = GlyphCache.getInstance().getDiskCache();
+        if (diskCache != null) {
+            diskCache.clear();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>GlyphCacheStatistics</code> class represents a snapshot of the statistics of the glyph
+ * cache shared by all renderers. The counters are cumulative since the cache was created, while
+ * the sizes reflect the state of the cache at the time the snapshot was taken.
+ */
+public final class GlyphCacheStatistics {
+
+    /**
+     * The number of buckets in a rasterization latency histogram. The first bucket holds the
+     * latencies below one microsecond, the bucket at index <code>i</code> holds the latencies from
+     * <code>2<sup>i-1</sup></code> up to <code>2<sup>i</sup></code> microseconds, and the last
+     * bucket holds all the remaining latencies.
+     */
+    public static final int LATENCY_BUCKET_COUNT = 21;
+
+    /**
+     * The <code>StrikeStatistics</code> class represents the statistics of the glyphs of a single
+     * typeface rendered at a particular size and slant.
+     */
+    public static final class StrikeStatistics {
+
+        private final Typeface typeface;
+        private final float pixelWidth;
+        private final float pixelHeight;
+        private final float slant;
+        private final long fillHitCount;
+        private final long fillMissCount;
+        private final long strokeHitCount;
+        private final long strokeMissCount;
+        private final long evictionCount;
+        private final int byteCount;
+
+        StrikeStatistics(Typeface typeface, float pixelWidth, float pixelHeight, float slant,
+                         long fillHitCount, long fillMissCount,
+                         long strokeHitCount, long strokeMissCount,
+                         long evictionCount, int byteCount) {
+            this.typeface = typeface;
+            this.pixelWidth = pixelWidth;
+            this.pixelHeight = pixelHeight;
+            this.slant = slant;
+            this.fillHitCount = fillHitCount;
+            this.fillMissCount = fillMissCount;
+            this.strokeHitCount = strokeHitCount;
+            this.strokeMissCount = strokeMissCount;
+            this.evictionCount = evictionCount;
+            this.byteCount = byteCount;
+        }
+
+        /**
+         * Returns the typeface of the strike.
+         *
+         * @return The typeface of the strike.
+         */
+        public Typeface getTypeface() {
+            return typeface;
+        }
+
+        /**
+         * Returns the horizontal size of the strike in pixels.
+         *
+         * @return The horizontal size of the strike in pixels.
+         */
+        public float getPixelWidth() {
+            return pixelWidth;
+        }
+
+        /**
+         * Returns the vertical size of the strike in pixels.
+         *
+         * @return The vertical size of the strike in pixels.
+         */
+        public float getPixelHeight() {
+            return pixelHeight;
+        }
+
+        /**
+         * Returns the horizontal skew factor of the strike.
+         *
+         * @return The horizontal skew factor of the strike.
+         */
+        public float getSlant() {
+            return slant;
+        }
+
+        /**
+         * Returns the number of fill lookups which found an already rasterized glyph.
+         *
+         * @return The number of fill hits.
+         */
+        public long getFillHitCount() {
+            return fillHitCount;
+        }
+
+        /**
+         * Returns the number of fill lookups which required the glyph to be loaded.
+         *
+         * @return The number of fill misses.
+         */
+        public long getFillMissCount() {
+            return fillMissCount;
+        }
+
+        /**
+         * Returns the number of stroke lookups which found an already stroked glyph.
+         *
+         * @return The number of stroke hits.
+         */
+        public long getStrokeHitCount() {
+            return strokeHitCount;
+        }
+
+        /**
+         * Returns the number of stroke lookups which required the glyph to be stroked.
+         *
+         * @return The number of stroke misses.
+         */
+        public long getStrokeMissCount() {
+            return strokeMissCount;
+        }
+
+        /**
+         * Returns the number of glyphs of the strike evicted from the cache.
+         *
+         * @return The number of evicted glyphs.
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * Returns the approximate number of bytes currently occupied by the glyphs of the strike.
+         *
+         * @return The number of bytes occupied by the strike.
+         */
+        public int getByteCount() {
+            return byteCount;
+        }
+    }
+
+    private final int capacity;
+    private final int size;
+    private final List<StrikeStatistics> strikes;
+    private final Map<Typeface, Integer> typefaceByteCounts;
+    private final long[] fillLatencyCounts;
+    private final long[] strokeLatencyCounts;
+    private final long fillHitCount;
+    private final long fillMissCount;
+    private final long strokeHitCount;
+    private final long strokeMissCount;
+    private final long evictionCount;
+
+    GlyphCacheStatistics(int capacity, int size, List<StrikeStatistics> strikes,
+                         long[] fillLatencyCounts, long[] strokeLatencyCounts) {
+        IdentityHashMap<Typeface, Integer> typefaceByteCounts = new IdentityHashMap<>();
+        long fillHitCount = 0;
+        long fillMissCount = 0;
+        long strokeHitCount = 0;
+        long strokeMissCount = 0;
+        long evictionCount = 0;
+
+        for (StrikeStatistics strike : strikes) {
+            Integer byteCount = typefaceByteCounts.get(strike.typeface);
+            typefaceByteCounts.put(strike.typeface, (byteCount != null ? byteCount : 0) + strike.byteCount);
+
+            fillHitCount += strike.fillHitCount;
+            fillMissCount += strike.fillMissCount;
+            strokeHitCount += strike.strokeHitCount;
+            strokeMissCount += strike.strokeMissCount;
+            evictionCount += strike.evictionCount;
+        }
+
+        this.capacity = capacity;
+        this.size = size;
+        this.strikes = Collections.unmodifiableList(strikes);
+        this.typefaceByteCounts = Collections.unmodifiableMap(typefaceByteCounts);
+        this.fillLatencyCounts = fillLatencyCounts;
+        this.strokeLatencyCounts = strokeLatencyCounts;
+        this.fillHitCount = fillHitCount;
+        this.fillMissCount = fillMissCount;
+        this.strokeHitCount = strokeHitCount;
+        this.strokeMissCount = strokeMissCount;
+        this.evictionCount = evictionCount;
+    }
+
+    static int latencyBucketOf(long nanos) {
+        long micros = nanos / 1000;
+        if (micros <= 0) {
+            return 0;
+        }
+
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, LATENCY_BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns the maximum number of bytes that the cache can hold.
+     *
+     * @return The capacity of the cache in bytes.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the cache.
+     *
+     * @return The size of the cache in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the total number of glyph lookups which found an already rasterized or stroked glyph.
+     *
+     * @return The total number of hits.
+     */
+    public long getHitCount() {
+        return fillHitCount + strokeHitCount;
+    }
+
+    /**
+     * Returns the total number of glyph lookups which required the glyph to be rasterized or
+     * stroked.
+     *
+     * @return The total number of misses.
+     */
+    public long getMissCount() {
+        return fillMissCount + strokeMissCount;
+    }
+
+    /**
+     * Returns the number of fill lookups which found an already rasterized glyph.
+     *
+     * @return The number of fill hits.
+     */
+    public long getFillHitCount() {
+        return fillHitCount;
+    }
+
+    /**
+     * Returns the number of fill lookups which required the glyph to be loaded.
+     *
+     * @return The number of fill misses.
+     */
+    public long getFillMissCount() {
+        return fillMissCount;
+    }
+
+    /**
+     * Returns the number of stroke lookups which found an already stroked glyph.
+     *
+     * @return The number of stroke hits.
+     */
+    public long getStrokeHitCount() {
+        return strokeHitCount;
+    }
+
+    /**
+     * Returns the number of stroke lookups which required the glyph to be stroked.
+     *
+     * @return The number of stroke misses.
+     */
+    public long getStrokeMissCount() {
+        return strokeMissCount;
+    }
+
+    /**
+     * Returns the number of glyphs evicted from the cache.
+     *
+     * @return The number of evicted glyphs.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the statistics of each strike currently present in the cache.
+     *
+     * @return An unmodifiable list of strike statistics.
+     */
+    public List<StrikeStatistics> getStrikes() {
+        return strikes;
+    }
+
+    /**
+     * Returns the approximate number of bytes occupied by the glyphs of each typeface, summed over
+     * all of its strikes.
+     *
+     * @return An unmodifiable map from typefaces to their byte counts.
+     */
+    public Map<Typeface, Integer> getTypefaceByteCounts() {
+        return typefaceByteCounts;
+    }
+
+    /**
+     * Returns the upper bound of the specified latency bucket in microseconds. The last bucket has
+     * no upper bound, so <code>Long.MAX_VALUE</code> is returned for it.
+     *
+     * @param bucket The index of the latency bucket.
+     * @return The exclusive upper bound of the bucket in microseconds.
+     *
+     * @throws IndexOutOfBoundsException if <code>bucket</code> is negative, or
+     *         <code>bucket</code> is greater than or equal to <code>LATENCY_BUCKET_COUNT</code>.
+     */
+    public static long getLatencyBucketBound(int bucket) {
+        if (bucket < 0 || bucket >= LATENCY_BUCKET_COUNT) {
+            throw new IndexOutOfBoundsException("Bucket: " + bucket);
+        }
+        if (bucket == LATENCY_BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+
+        return 1L << bucket;
+    }
+
+    /**
+     * Returns the number of glyphs rasterized for filling whose per glyph latency falls in the
+     * specified bucket.
+     *
+     * @param bucket The index of the latency bucket.
+     * @return The number of fill rasterizations in the bucket.
+     *
+     * @throws IndexOutOfBoundsException if <code>bucket</code> is negative, or
+     *         <code>bucket</code> is greater than or equal to <code>LATENCY_BUCKET_COUNT</code>.
+     */
+    public long getFillLatencyCount(int bucket) {
+        return fillLatencyCounts[bucket];
+    }
+
+    /**
+     * Returns the number of glyphs stroked whose latency falls in the specified bucket.
+     *
+     * @param bucket The index of the latency bucket.
+     * @return The number of stroke rasterizations in the bucket.
+     *
+     * @throws IndexOutOfBoundsException if <code>bucket</code> is negative, or
+     *         <code>bucket</code> is greater than or equal to <code>LATENCY_BUCKET_COUNT</code>.
+     */
+    public long getStrokeLatencyCount(int bucket) {
+        return strokeLatencyCounts[bucket];
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.graphics.Path;
+
+//
+// The contours of a glyph are packed in a single integer array in font units. Each command is
+// followed by its points as pairs of x and y coordinates:
+//  - move to: 1 point
+//  - line to: 1 point
+//  - quad to: 2 points
+//  - cubic to: 3 points
+//
+// The commands must match the ones defined in Typeface.cpp.
+//
+class GlyphContours {
+
+    static final int MOVE_TO = 0;
+    static final int LINE_TO = 1;
+    static final int QUAD_TO = 2;
+    static final int CUBIC_TO = 3;
+
+    private GlyphContours() {
+    }
+
+    static void appendTo(Path path, int[] contours,
+                         float scaleX, float scaleY, float skewX, float dx, float dy) {
+        // NOTE:
+        //      A point is scaled first and then skewed, in the same way as the rasterizer applies
+        //      its size and transform to the outline.
+        float xx = scaleX;
+        float xy = -skewX * scaleY;
+        int length = contours.length;
+        int index = 0;
+
+        while (index < length) {
+            int command = contours[index++];
+
+            switch (command) {
+            case MOVE_TO: {
+                int x = contours[index++];
+                int y = contours[index++];
+                path.moveTo((x * xx) + (y * xy) + dx, (y * scaleY) + dy);
+                break;
+            }
+
+            case LINE_TO: {
+                int x = contours[index++];
+                int y = contours[index++];
+                path.lineTo((x * xx) + (y * xy) + dx, (y * scaleY) + dy);
+                break;
+            }
+
+            case QUAD_TO: {
+                int x1 = contours[index++];
+                int y1 = contours[index++];
+                int x2 = contours[index++];
+                int y2 = contours[index++];
+                path.quadTo((x1 * xx) + (y1 * xy) + dx, (y1 * scaleY) + dy,
+                            (x2 * xx) + (y2 * xy) + dx, (y2 * scaleY) + dy);
+                break;
+            }
+
+            case CUBIC_TO: {
+                int x1 = contours[index++];
+                int y1 = contours[index++];
+                int x2 = contours[index++];
+                int y2 = contours[index++];
+                int x3 = contours[index++];
+                int y3 = contours[index++];
+                path.cubicTo((x1 * xx) + (y1 * xy) + dx, (y1 * scaleY) + dy,
+                             (x2 * xx) + (y2 * xy) + dx, (y2 * scaleY) + dy,
+                             (x3 * xx) + (y3 * xy) + dx, (y3 * scaleY) + dy);
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Invalid contour command: " + command);
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import com.mta.tehreer.sfnt.SfntTag;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+//
+// File Layout:
+//  - Header (32 bytes)
+//      magic, version, file size, slot count, data start, write offset, reserved, header crc
+//  - Index (slot count * 16 bytes)
+//      entry hash (8 bytes), entry offset, entry length
+//  - Data (remaining bytes, used as a ring)
+//      entry hash (8 bytes), typeface identity (8 bytes), pixel width, pixel height, skew x,
+//      glyph id, left, top, width, height, crc, mask bytes, padding up to 8 bytes
+//
+// An entry is written completely before its index slot is published, and every entry carries a
+// checksum of its contents. So an interrupted write, or an entry overwritten after the ring has
+// wrapped around, is simply treated as a miss.
+//
+// The slots are probed within aligned groups, and each group is guarded by one of a few striped
+// locks. Space for an entry is reserved in the ring atomically, and the entry is written outside
+// of any lock. So the threads reading or writing different glyphs rarely wait for each other.
+//
+class GlyphDiskCache {
+
+    private static final int MAGIC = 0x54474443;    // 'TGDC'
+    private static final int VERSION = 2;
+
+    private static final int MIN_FILE_SIZE = 64 * 1024;
+    private static final int BYTES_PER_SLOT = 1024;
+    private static final int MAX_PROBES = 8;
+    private static final int LOCK_COUNT = 32;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_CRC_LENGTH = 20;
+    private static final int HEADER_WRITE_OFFSET = 20;
+    private static final int HEADER_CRC = 28;
+
+    private static final int SLOT_SIZE = 16;
+    private static final int SLOT_OFFSET = 8;
+    private static final int SLOT_LENGTH = 12;
+
+    private static final int ENTRY_HEADER_SIZE = 52;
+    private static final int ENTRY_CRC = 48;
+    private static final int ENTRY_ALIGNMENT = 8;
+
+    private static final WeakHashMap<Typeface, Long> identities = new WeakHashMap<>();
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int fileSize;
+    private final int slotCount;
+    private final int dataStart;
+    private final int maxEntryLength;
+    private final Object[] locks;
+    private final AtomicInteger writeOffset = new AtomicInteger();
+
+    GlyphDiskCache(File path, int maxSize) throws IOException {
+        int fileSize = Math.max(maxSize, MIN_FILE_SIZE) & ~(ENTRY_ALIGNMENT - 1);
+        int slotCount = Integer.highestOneBit(fileSize / BYTES_PER_SLOT);
+        int dataStart = HEADER_SIZE + (slotCount * SLOT_SIZE);
+
+        this.file = new RandomAccessFile(path, "rw");
+
+        try {
+            if (file.length() != fileSize) {
+                file.setLength(fileSize);
+            }
+
+            this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        this.fileSize = fileSize;
+        this.slotCount = slotCount;
+        this.dataStart = dataStart;
+        this.maxEntryLength = (fileSize - dataStart) / 4;
+        this.locks = new Object[LOCK_COUNT];
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new Object();
+        }
+
+        if (isHeaderValid()) {
+            int offset = buffer.getInt(HEADER_WRITE_OFFSET);
+            if (offset < dataStart || offset > fileSize || (offset & (ENTRY_ALIGNMENT - 1)) != 0) {
+                offset = dataStart;
+            }
+            writeOffset.set(offset);
+        } else {
+            format();
+        }
+    }
+
+    private boolean isHeaderValid() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != fileSize || buffer.getInt(12) != slotCount
+                || buffer.getInt(16) != dataStart) {
+            return false;
+        }
+
+        return buffer.getInt(HEADER_CRC) == headerCrc();
+    }
+
+    private int headerCrc() {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < HEADER_CRC_LENGTH; i++) {
+            crc.update(buffer.get(i));
+        }
+
+        return (int) crc.getValue();
+    }
+
+    private void format() {
+        // Invalidate the header first so that a partial format is never trusted.
+        buffer.putInt(0, 0);
+
+        int groupSize = MAX_PROBES * SLOT_SIZE;
+        for (int group = HEADER_SIZE; group < dataStart; group += groupSize) {
+            synchronized (lockOf(group)) {
+                for (int i = 0; i < groupSize; i += 4) {
+                    buffer.putInt(group + i, 0);
+                }
+            }
+        }
+
+        writeOffset.set(dataStart);
+
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, fileSize);
+        buffer.putInt(12, slotCount);
+        buffer.putInt(16, dataStart);
+        buffer.putInt(HEADER_WRITE_OFFSET, dataStart);
+        buffer.putInt(24, 0);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(HEADER_CRC, headerCrc());
+    }
+
+    private static long mix(long hash, long value) {
+        // FNV-1a over the eight bytes of the value.
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value & 0xFF);
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+
+        return hash;
+    }
+
+    private static long identityOf(Typeface typeface) {
+        synchronized (identities) {
+            Long identity = identities.get(typeface);
+            if (identity != null) {
+                return identity;
+            }
+        }
+
+        // NOTE:
+        //      The head table contains the checksum of the whole font along with its creation and
+        //      modification dates, so it identifies the font data well enough in practice.
+        long hash = 0xCBF29CE484222325L;
+        byte[] head = typeface.getTableData(SfntTag.make("head"));
+        if (head != null) {
+            for (byte value : head) {
+                hash = mix(hash, value);
+            }
+        }
+        hash = mix(hash, typeface.getGlyphCount());
+        hash = mix(hash, typeface.getUnitsPerEm());
+
+        String fullName = typeface.getFullName();
+        if (fullName != null) {
+            for (int i = 0; i < fullName.length(); i++) {
+                hash = mix(hash, fullName.charAt(i));
+            }
+        }
+
+        synchronized (identities) {
+            identities.put(typeface, hash);
+        }
+
+        return hash;
+    }
+
+    private static long hashOf(long identity, GlyphStrike strike, int glyphId) {
+        long hash = mix(0xCBF29CE484222325L, identity);
+        hash = mix(hash, strike.pixelWidth);
+        hash = mix(hash, strike.pixelHeight);
+        hash = mix(hash, strike.skewX);
+        hash = mix(hash, glyphId);
+
+        // Zero marks an empty slot.
+        return (hash != 0 ? hash : 1);
+    }
+
+    // The probes of a hash never leave its group, so that a single lock guards all of them.
+    private int slotPosition(long hash, int probe) {
+        int start = (int) (hash & (slotCount - 1));
+        int index = (start & ~(MAX_PROBES - 1)) | ((start + probe) & (MAX_PROBES - 1));
+
+        return HEADER_SIZE + (index * SLOT_SIZE);
+    }
+
+    private Object lockOf(int slot) {
+        int group = (slot - HEADER_SIZE) / (MAX_PROBES * SLOT_SIZE);
+        return locks[group & (LOCK_COUNT - 1)];
+    }
+
+    private static int entryCrc(ByteBuffer entry, int offset, byte[] mask, int maskLength) {
+        byte[] entryHeader = new byte[ENTRY_CRC];
+        entry.position(offset);
+        entry.get(entryHeader);
+
+        CRC32 crc = new CRC32();
+        crc.update(entryHeader);
+        if (maskLength > 0) {
+            crc.update(mask, 0, maskLength);
+        }
+
+        return (int) crc.getValue();
+    }
+
+    boolean read(GlyphStrike strike, Glyph glyph) {
+        int glyphId = glyph.glyphId();
+        long identity = identityOf(strike.typeface);
+        long hash = hashOf(identity, strike, glyphId);
+        Object lock = lockOf(slotPosition(hash, 0));
+
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = slotPosition(hash, i);
+            int offset;
+            int length;
+
+            synchronized (lock) {
+                if (buffer.getLong(slot) != hash) {
+                    continue;
+                }
+
+                offset = buffer.getInt(slot + SLOT_OFFSET);
+                length = buffer.getInt(slot + SLOT_LENGTH);
+            }
+
+            // NOTE:
+            //      The entry itself is read without the lock. If another thread overwrites it in
+            //      the meantime, the checksum does not match and it is skipped.
+            if (offset < dataStart || length < ENTRY_HEADER_SIZE || length > fileSize - offset) {
+                continue;
+            }
+            if (buffer.getLong(offset) != hash
+                    || buffer.getLong(offset + 8) != identity
+                    || buffer.getInt(offset + 16) != strike.pixelWidth
+                    || buffer.getInt(offset + 20) != strike.pixelHeight
+                    || buffer.getInt(offset + 24) != strike.skewX
+                    || buffer.getInt(offset + 28) != glyphId) {
+                continue;
+            }
+
+            int left = buffer.getInt(offset + 32);
+            int top = buffer.getInt(offset + 36);
+            int width = buffer.getInt(offset + 40);
+            int height = buffer.getInt(offset + 44);
+            if (width < 0 || height < 0 || (long) width * height > length - ENTRY_HEADER_SIZE) {
+                continue;
+            }
+
+            ByteBuffer entry = buffer.duplicate();
+            int maskLength = width * height;
+            byte[] mask = null;
+            if (maskLength > 0) {
+                mask = new byte[maskLength];
+                entry.position(offset + ENTRY_HEADER_SIZE);
+                entry.get(mask);
+            }
+
+            if (buffer.getInt(offset + ENTRY_CRC) != entryCrc(entry, offset, mask, maskLength)) {
+                continue;
+            }
+
+            glyph.ownMask(mask, width, height, left, top);
+            return true;
+        }
+
+        return false;
+    }
+
+    void write(GlyphStrike strike, Glyph glyph) {
+        byte[] mask = glyph.mask();
+        int width = glyph.maskWidth();
+        int height = glyph.maskHeight();
+        int maskLength = (mask != null ? width * height : 0);
+        if (maskLength == 0) {
+            width = 0;
+            height = 0;
+        }
+
+        int length = (ENTRY_HEADER_SIZE + maskLength + ENTRY_ALIGNMENT - 1) & ~(ENTRY_ALIGNMENT - 1);
+        if (length > maxEntryLength) {
+            return;
+        }
+
+        int glyphId = glyph.glyphId();
+        long identity = identityOf(strike.typeface);
+        long hash = hashOf(identity, strike, glyphId);
+
+        // Reserve the space of the entry in the ring.
+        int oldOffset;
+        int offset;
+        do {
+            oldOffset = writeOffset.get();
+            offset = (oldOffset + length > fileSize ? dataStart : oldOffset);
+        } while (!writeOffset.compareAndSet(oldOffset, offset + length));
+
+        buffer.putLong(offset, hash);
+        buffer.putLong(offset + 8, identity);
+        buffer.putInt(offset + 16, strike.pixelWidth);
+        buffer.putInt(offset + 20, strike.pixelHeight);
+        buffer.putInt(offset + 24, strike.skewX);
+        buffer.putInt(offset + 28, glyphId);
+        buffer.putInt(offset + 32, glyph.leftSideBearing());
+        buffer.putInt(offset + 36, glyph.topSideBearing());
+        buffer.putInt(offset + 40, width);
+        buffer.putInt(offset + 44, height);
+        ByteBuffer entry = buffer.duplicate();
+        if (maskLength > 0) {
+            entry.position(offset + ENTRY_HEADER_SIZE);
+            entry.put(mask, 0, maskLength);
+        }
+        buffer.putInt(offset + ENTRY_CRC, entryCrc(entry, offset, mask, maskLength));
+
+        int endOffset = offset + length;
+        int dataSize = fileSize - dataStart;
+
+        synchronized (lockOf(slotPosition(hash, 0))) {
+            // Pick the slot holding the same key, an empty one, or the one holding the oldest entry.
+            int targetSlot = -1;
+            int maxAge = -1;
+
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int slot = slotPosition(hash, i);
+                long slotHash = buffer.getLong(slot);
+                if (slotHash == hash || slotHash == 0) {
+                    targetSlot = slot;
+                    break;
+                }
+
+                int age = (endOffset - buffer.getInt(slot + SLOT_OFFSET) + dataSize) % dataSize;
+                if (age > maxAge) {
+                    maxAge = age;
+                    targetSlot = slot;
+                }
+            }
+
+            // Unpublish the slot before updating it.
+            buffer.putInt(targetSlot + SLOT_LENGTH, 0);
+            buffer.putLong(targetSlot, hash);
+            buffer.putInt(targetSlot + SLOT_OFFSET, offset);
+            buffer.putInt(targetSlot + SLOT_LENGTH, length);
+        }
+
+        // NOTE:
+        //      The stored offset is only a hint to continue the ring after a restart, so it does
+        //      not matter which one of the concurrent writers stores it last.
+        buffer.putInt(HEADER_WRITE_OFFSET, endOffset);
+    }
+
+    void clear() {
+        format();
+    }
+
+    void close() {
+        buffer.force();
+
+        try {
+            file.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
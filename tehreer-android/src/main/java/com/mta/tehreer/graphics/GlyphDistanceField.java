@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.graphics.Bitmap;
+
+import com.mta.tehreer.internal.JniBridge;
+
+//
+// A distance field holds, for each pixel, the signed distance to the nearest edge of the glyph,
+// positive inside and negative outside. The field is generated once from the mask of a glyph at a
+// reference size and can then be resampled at any size, giving sharp edges without rasterizing the
+// glyph again. The distance is encoded in a byte, where 128 lies on the edge and the spread on
+// either side covers the rest of the range.
+//
+class GlyphDistanceField {
+
+    static {
+        JniBridge.loadLibrary();
+    }
+
+    static final int REFERENCE_SIZE = 64 * 64;  // 26.6 fixed-point value.
+    static final int SPREAD = 8;
+
+    static final int PLACEMENT_FIELD_COUNT = 3;
+
+    private GlyphDistanceField() {
+    }
+
+    static Glyph create(Glyph maskGlyph) {
+        Glyph fieldGlyph = new Glyph(maskGlyph.glyphId());
+        byte[] mask = maskGlyph.mask();
+        if (mask == null) {
+            return fieldGlyph;
+        }
+
+        // Pad the mask so that the field fades out completely around the glyph.
+        int padding = SPREAD;
+        int maskWidth = maskGlyph.maskWidth();
+        int maskHeight = maskGlyph.maskHeight();
+        int fieldWidth = maskWidth + (padding * 2);
+        int fieldHeight = maskHeight + (padding * 2);
+        byte[] field = new byte[fieldWidth * fieldHeight];
+
+        nativeGenerate(mask, maskWidth, maskHeight, field, padding, SPREAD);
+
+        fieldGlyph.ownMask(field, fieldWidth, fieldHeight,
+                           maskGlyph.leftSideBearing() - padding,
+                           maskGlyph.topSideBearing() + padding);
+
+        return fieldGlyph;
+    }
+
+    static void fillPlacement(float[] placements, int index, float left, float top, float scale) {
+        int field = index * PLACEMENT_FIELD_COUNT;
+        placements[field] = left;
+        placements[field + 1] = top;
+        placements[field + 2] = scale;
+    }
+
+    static void render(Bitmap bitmap, byte[][] fields, int[] sizes, float[] placements, int count) {
+        nativeRender(bitmap, fields, sizes, placements, count, SPREAD);
+    }
+
+    private static native void nativeGenerate(byte[] mask, int width, int height,
+                                              byte[] field, int padding, int spread);
+    private static native void nativeRender(Bitmap bitmap, byte[][] fields,
+                                            int[] sizes, float[] placements, int count, int spread);
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class GlyphPrefetcher {
+
+    private static final int MAX_PENDING_TASKS = 64;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    static class Token {
+
+        private volatile boolean mCancelled;
+
+        void cancel() {
+            mCancelled = true;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    static class Target {
+
+        final GlyphStrike strike;
+        final boolean fill;
+        final int storage;
+        final boolean stroke;
+        final int lineRadius;
+        final int lineCap;
+        final int lineJoin;
+        final int miterLimit;
+
+        Target(GlyphStrike strike, boolean fill, int storage, boolean stroke,
+               int lineRadius, int lineCap, int lineJoin, int miterLimit) {
+            this.strike = strike;
+            this.fill = fill;
+            this.storage = storage;
+            this.stroke = stroke;
+            this.lineRadius = lineRadius;
+            this.lineCap = lineCap;
+            this.lineJoin = lineJoin;
+            this.miterLimit = miterLimit;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this != obj) {
+                if (obj == null || !(obj instanceof Target)) {
+                    return false;
+                }
+
+                Target other = (Target) obj;
+                if (!strike.equals(other.strike)
+                        || fill != other.fill || storage != other.storage || stroke != other.stroke
+                        || lineRadius != other.lineRadius || lineCap != other.lineCap
+                        || lineJoin != other.lineJoin || miterLimit != other.miterLimit) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + strike.hashCode();
+            result = prime * result + (fill ? 1 : 0);
+            result = prime * result + storage;
+            result = prime * result + (stroke ? 1 : 0);
+            result = prime * result + lineRadius;
+            result = prime * result + lineCap;
+            result = prime * result + lineJoin;
+            result = prime * result + miterLimit;
+
+            return result;
+        }
+    }
+
+    private static class Request {
+
+        final Target target;
+        final int glyphId;
+
+        Request(Target target, int glyphId) {
+            this.target = target;
+            this.glyphId = glyphId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this != obj) {
+                if (obj == null || !(obj instanceof Request)) {
+                    return false;
+                }
+
+                Request other = (Request) obj;
+                if (glyphId != other.glyphId || !target.equals(other.target)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return target.hashCode() * 31 + glyphId;
+        }
+    }
+
+    private class Task implements Runnable {
+
+        final Token token;
+        final Request[] requests;
+
+        Task(Token token, Request[] requests) {
+            this.token = token;
+            this.requests = requests;
+        }
+
+        @Override
+        public void run() {
+            GlyphCache cache = GlyphCache.getInstance();
+            Target target = requests[0].target;
+            int count = requests.length;
+
+            try {
+                if (target.fill && !token.isCancelled()) {
+                    int[] glyphIds = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        glyphIds[i] = requests[i].glyphId;
+                    }
+
+                    cache.getFillGlyphs(target.strike, glyphIds, count, target.storage, new Glyph[count]);
+                }
+                if (target.stroke) {
+                    for (Request request : requests) {
+                        if (token.isCancelled()) {
+                            break;
+                        }
+
+                        cache.getMaskGlyph(target.strike, request.glyphId, target.lineRadius,
+                                           target.lineCap, target.lineJoin, target.miterLimit);
+                    }
+                }
+            } finally {
+                for (Request request : requests) {
+                    inFlight.remove(request);
+                }
+            }
+        }
+    }
+
+    private static class Holder {
+
+        private static final GlyphPrefetcher INSTANCE = new GlyphPrefetcher();
+    }
+
+    public static GlyphPrefetcher getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private final ConcurrentHashMap<Request, Boolean> inFlight = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+
+    private GlyphPrefetcher() {
+        int threadCount = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+        executor = new ThreadPoolExecutor(threadCount, threadCount,
+                                          KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<Runnable>(MAX_PENDING_TASKS),
+                                          new ThreadFactory() {
+            private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "GlyphPrefetcher #" + mThreadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    void prefetch(Token token, Target target, int[] glyphIds) {
+        Request[] requests = new Request[glyphIds.length];
+        int requestCount = 0;
+
+        // Skip the glyphs which are already being prefetched for the same target.
+        for (int glyphId : glyphIds) {
+            Request request = new Request(target, glyphId);
+            if (inFlight.putIfAbsent(request, Boolean.TRUE) == null) {
+                requests[requestCount++] = request;
+            }
+        }
+
+        if (requestCount == 0) {
+            return;
+        }
+        if (requestCount < requests.length) {
+            Request[] accepted = new Request[requestCount];
+            System.arraycopy(requests, 0, accepted, 0, requestCount);
+            requests = accepted;
+        }
+
+        try {
+            executor.execute(new Task(token, requests));
+        } catch (RejectedExecutionException e) {
+            // The queue is full, so drop this request; the glyphs will be loaded while drawing.
+            for (Request request : requests) {
+                inFlight.remove(request);
+            }
+        }
+    }
+}
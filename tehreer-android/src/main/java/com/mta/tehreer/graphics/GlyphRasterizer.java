@@ -16,15 +16,26 @@
 
 package com.mta.tehreer.graphics;
 
-import com.mta.tehreer.Disposable;
 import com.mta.tehreer.internal.JniBridge;
 
-class GlyphRasterizer implements Disposable {
+class GlyphRasterizer {
 
     static {
         JniBridge.loadLibrary();
     }
 
+    private class Finalizable {
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                dispose();
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+
     public static final int LINECAP_BUTT = 0;
     public static final int LINECAP_ROUND = 1;
     public static final int LINECAP_SQUARE = 2;
@@ -35,6 +46,10 @@ class GlyphRasterizer implements Disposable {
     public static final int LINEJOIN_MITER_FIXED = 3;
     public static final int LINEJOIN_MITER = LINEJOIN_MITER_VARIABLE;
 
+    // NOTE:
+    //      The native rasterizer keeps its own reference to the native typeface, so it can be
+    //      disposed after the typeface without touching a freed face.
+    private final Finalizable finalizable = new Finalizable();
 	long nativeRasterizer;
 
 	GlyphRasterizer(GlyphStrike strike) {
@@ -47,12 +62,23 @@ class GlyphRasterizer implements Disposable {
 	    nativeLoadBitmap(nativeRasterizer, glyph);
 	}
 
-    void loadOutline(Glyph glyph) {
-        nativeLoadOutline(nativeRasterizer, glyph);
+    void loadMask(Glyph glyph) {
+        nativeLoadMask(nativeRasterizer, glyph);
     }
 
-    void loadPath(Glyph glyph) {
-        nativeLoadPath(nativeRasterizer, glyph);
+    // NOTE:
+    //      The masks of all glyphs are returned in a single array one after the other, while the
+    //      metrics are filled as width, height, left and top of each glyph.
+    byte[] loadMasks(int[] glyphIds, int count, int[] metrics) {
+        return nativeLoadMasks(nativeRasterizer, glyphIds, count, metrics);
+    }
+
+    void loadBounds(int[] glyphIds, int count, int[] metrics) {
+        nativeLoadBounds(nativeRasterizer, glyphIds, count, metrics);
+    }
+
+    void loadOutline(Glyph glyph) {
+        nativeLoadOutline(nativeRasterizer, glyph);
     }
 
     Glyph strokeGlyph(Glyph glyph, int lineRadius,
@@ -60,8 +86,7 @@ class GlyphRasterizer implements Disposable {
         return nativeStrokeGlyph(nativeRasterizer, glyph, lineRadius, lineCap, lineJoin, miterLimit);
     }
 
-    @Override
-    public void dispose() {
+    void dispose() {
         nativeDispose(nativeRasterizer);
     }
 
@@ -70,8 +95,10 @@ class GlyphRasterizer implements Disposable {
     private static native void nativeDispose(long nativeRasterizer);
 
     private static native void nativeLoadBitmap(long nativeRasterizer, Glyph glyph);
+    private static native void nativeLoadMask(long nativeRasterizer, Glyph glyph);
+    private static native byte[] nativeLoadMasks(long nativeRasterizer, int[] glyphIds, int count, int[] metrics);
+    private static native void nativeLoadBounds(long nativeRasterizer, int[] glyphIds, int count, int[] metrics);
     private static native void nativeLoadOutline(long nativeRasterizer, Glyph glyph);
-    private static native void nativeLoadPath(long nativeRasterizer, Glyph glyph);
 
     private static native Glyph nativeStrokeGlyph(long nativeRasterizer, Glyph glyph, int lineRadius,
                                                   int lineCap, int lineJoin, int miterLimit);
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import android.graphics.Bitmap;
+
+import com.mta.tehreer.internal.JniBridge;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+//
+// Masks are kept in direct byte buffers called slabs. Each slab is divided into equal blocks of a
+// single size class, and a mask is stored in a block of the smallest class that can hold it. The
+// size classes grow in quarter steps between powers of two, so at most a fifth of a block is lost
+// to rounding. Masks larger than the biggest class get a slab of their own with the exact size.
+//
+// The bytes held by the blocks are charged to their glyphs, whereas the idle bytes, reserved in
+// slabs but not held by any block, are reported back to the caller as they change, so that the
+// whole reservation can be charged to the cache.
+//
+class GlyphSlabAllocator {
+
+    static {
+        JniBridge.loadLibrary();
+    }
+
+    private static final int SLAB_SIZE = 64 * 1024;
+    private static final int MIN_BLOCK_SIZE = 16;
+    private static final int MAX_BLOCK_SIZE = 8 * 1024;
+    private static final int[] SIZE_CLASSES;
+
+    static {
+        ArrayList<Integer> sizeClasses = new ArrayList<>();
+        for (int size = MIN_BLOCK_SIZE; size < MAX_BLOCK_SIZE; size <<= 1) {
+            int step = size / 4;
+            for (int i = 0; i < 4; i++) {
+                sizeClasses.add(size + (step * i));
+            }
+        }
+        sizeClasses.add(MAX_BLOCK_SIZE);
+
+        SIZE_CLASSES = new int[sizeClasses.size()];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            SIZE_CLASSES[i] = sizeClasses.get(i);
+        }
+    }
+
+    static class Slab {
+
+        final ByteBuffer buffer;
+        final int blockSize;
+        final int sizeClass;
+        final int generation;
+        private final int[] freeBlocks;
+        private int freeCount;
+        private boolean released;
+
+        Slab(int blockSize, int blockCount, int sizeClass, int generation) {
+            this.buffer = ByteBuffer.allocateDirect(blockSize * blockCount);
+            this.blockSize = blockSize;
+            this.sizeClass = sizeClass;
+            this.generation = generation;
+            this.freeBlocks = new int[blockCount];
+            this.freeCount = blockCount;
+
+            // Hand out the blocks from the start of the slab.
+            for (int i = 0; i < blockCount; i++) {
+                freeBlocks[i] = blockCount - i - 1;
+            }
+        }
+
+        boolean isFull() {
+            return freeCount == 0;
+        }
+
+        boolean isEmpty() {
+            return freeCount == freeBlocks.length;
+        }
+
+        int allocate() {
+            return freeBlocks[--freeCount] * blockSize;
+        }
+
+        void free(int offset) {
+            freeBlocks[freeCount++] = offset / blockSize;
+        }
+    }
+
+    private final ArrayList<ArrayList<Slab>> partialSlabs;
+    private long reservedBytes;
+    private long usedBytes;
+    private int generation;
+
+    GlyphSlabAllocator() {
+        partialSlabs = new ArrayList<>(SIZE_CLASSES.length);
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            partialSlabs.add(new ArrayList<Slab>());
+        }
+    }
+
+    static int blockSizeOf(Glyph glyph) {
+        Slab slab = glyph.slab();
+        return (slab != null ? slab.blockSize : 0);
+    }
+
+    synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    // Returns the change in the number of idle bytes.
+    synchronized int store(Glyph glyph) {
+        byte[] mask = glyph.mask();
+        int length = glyph.maskWidth() * glyph.maskHeight();
+
+        if (mask == null || length == 0) {
+            // Nothing to store, but remember that the glyph has been looked up.
+            glyph.ownSlabBlock(null, 0);
+            return 0;
+        }
+
+        int idleGrowth = 0;
+        Slab slab;
+        int sizeClass = Arrays.binarySearch(SIZE_CLASSES, length);
+        if (sizeClass < 0) {
+            sizeClass = -(sizeClass + 1);
+        }
+
+        if (sizeClass < SIZE_CLASSES.length) {
+            ArrayList<Slab> slabs = partialSlabs.get(sizeClass);
+            if (slabs.isEmpty()) {
+                int blockSize = SIZE_CLASSES[sizeClass];
+                slab = new Slab(blockSize, SLAB_SIZE / blockSize, sizeClass, generation);
+                slabs.add(slab);
+                reservedBytes += slab.buffer.capacity();
+                idleGrowth += slab.buffer.capacity();
+            } else {
+                slab = slabs.get(slabs.size() - 1);
+            }
+
+            if (slab.freeCount == 1) {
+                slabs.remove(slabs.size() - 1);
+            }
+        } else {
+            slab = new Slab(length, 1, -1, generation);
+            reservedBytes += length;
+            idleGrowth += length;
+        }
+
+        int offset = slab.allocate();
+        usedBytes += slab.blockSize;
+        idleGrowth -= slab.blockSize;
+
+        slab.buffer.position(offset);
+        slab.buffer.put(mask, 0, length);
+
+        glyph.ownSlabBlock(slab, offset);
+
+        return idleGrowth;
+    }
+
+    // Returns the change in the number of idle bytes.
+    synchronized int release(Glyph glyph) {
+        // NOTE:
+        //      A renderer might be compositing the block right now, so it is given back only after
+        //      the renderer is done with it.
+        if (glyph.slabPinCount() > 0) {
+            glyph.deferSlabRelease();
+            return 0;
+        }
+
+        int idleGrowth = 0;
+
+        Slab slab = glyph.slab();
+        if (slab != null && slab.generation == generation && !slab.released) {
+            boolean wasFull = slab.isFull();
+            slab.free(glyph.slabOffset());
+            usedBytes -= slab.blockSize;
+            idleGrowth += slab.blockSize;
+
+            if (slab.sizeClass < 0) {
+                releaseSlab(slab);
+                idleGrowth -= slab.buffer.capacity();
+            } else {
+                ArrayList<Slab> slabs = partialSlabs.get(slab.sizeClass);
+                if (wasFull) {
+                    slabs.add(slab);
+                }
+
+                // NOTE:
+                //      An empty slab is kept for its size class, so that a class whose glyphs come
+                //      and go does not allocate a new direct buffer every time. Any other empty slab
+                //      of the class gives its memory back right away.
+                if (slab.isEmpty() && countEmptySlabs(slabs) > 1) {
+                    slabs.remove(slab);
+                    releaseSlab(slab);
+                    idleGrowth -= slab.buffer.capacity();
+                }
+            }
+        }
+
+        glyph.disownSlabBlock();
+
+        return idleGrowth;
+    }
+
+    private static int countEmptySlabs(ArrayList<Slab> slabs) {
+        int count = 0;
+        for (Slab slab : slabs) {
+            if (slab.isEmpty()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private void releaseSlab(Slab slab) {
+        slab.released = true;
+        reservedBytes -= slab.buffer.capacity();
+    }
+
+    // Gives back the memory of the empty slabs kept for the size classes, returning the number of
+    // idle bytes released.
+    synchronized int releaseEmptySlabs() {
+        int shrinkage = 0;
+
+        for (ArrayList<Slab> slabs : partialSlabs) {
+            Iterator<Slab> iterator = slabs.iterator();
+            while (iterator.hasNext()) {
+                Slab slab = iterator.next();
+                if (slab.isEmpty()) {
+                    iterator.remove();
+                    releaseSlab(slab);
+                    shrinkage += slab.buffer.capacity();
+                }
+            }
+        }
+
+        return shrinkage;
+    }
+
+    // Takes the blocks of given glyphs at once, so that the slab and the offset of each one are
+    // read consistently. The blocks are pinned until they are untaken, and the glyphs evicted in the
+    // meantime give their blocks back only after that. A glyph without a block gets a null buffer,
+    // and the one which has already lost its block is set to null.
+    synchronized int takeBlocks(Glyph[] glyphs, int count, ByteBuffer[] buffers, int[] blocks) {
+        int missCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            Glyph glyph = glyphs[i];
+            Slab slab = glyph.slab();
+
+            if (slab != null) {
+                int field = i * BLOCK_FIELD_COUNT;
+
+                glyph.pinSlabBlock();
+                buffers[i] = slab.buffer;
+                blocks[field] = glyph.slabOffset();
+                blocks[field + 1] = glyph.maskWidth();
+                blocks[field + 2] = glyph.maskHeight();
+            } else {
+                buffers[i] = null;
+
+                if (!glyph.containsSlabBlock() && glyph.bitmap() == null) {
+                    glyphs[i] = null;
+                    missCount++;
+                }
+            }
+        }
+
+        return missCount;
+    }
+
+    // Returns the change in the number of idle bytes caused by the deferred releases.
+    synchronized int untakeBlocks(Glyph[] glyphs, int count, ByteBuffer[] buffers) {
+        int idleGrowth = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (buffers[i] != null) {
+                Glyph glyph = glyphs[i];
+                glyph.unpinSlabBlock();
+
+                if (glyph.slabPinCount() == 0 && glyph.isSlabReleasePending()) {
+                    idleGrowth += release(glyph);
+                }
+            }
+        }
+
+        return idleGrowth;
+    }
+
+    synchronized void clear() {
+        for (ArrayList<Slab> slabs : partialSlabs) {
+            slabs.clear();
+        }
+
+        // NOTE:
+        //      Full slabs are not tracked, so the slabs of previous generation are ignored on
+        //      release instead. Their memory is reclaimed once no glyph refers to them.
+        generation++;
+        reservedBytes = 0;
+        usedBytes = 0;
+    }
+
+    static final int BLOCK_FIELD_COUNT = 5;
+
+    static void blit(Bitmap bitmap, ByteBuffer[] buffers, int[] blocks, int count) {
+        // NOTE:
+        //      All masks of a run are composited in a single native call, so that the bitmap is
+        //      locked only once and no glyph needs its own transition through JNI.
+        nativeBlit(bitmap, buffers, blocks, count);
+    }
+
+    private static native void nativeBlit(Bitmap bitmap,
+                                          ByteBuffer[] buffers, int[] blocks, int count);
+}
@@ -21,14 +21,19 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.Log;
 
 import com.mta.tehreer.collections.FloatList;
 import com.mta.tehreer.collections.IntList;
 import com.mta.tehreer.collections.PointList;
+import com.mta.tehreer.internal.graphics.ImmediateCanvas;
 import com.mta.tehreer.sfnt.WritingDirection;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * The <code>Renderer</code> class represents a generic glyph renderer. It can be used to generate
  * glyph paths, measure their bounding boxes and draw them on a <code>Canvas</code> object.
@@ -38,6 +43,13 @@ public class Renderer {
     private static final String TAG = Renderer.class.getSimpleName();
 
     private GlyphStrike mGlyphStrike;
+    private GlyphStrike mFieldStrike;
+    private GlyphStrike mDrawStrike;
+    private float mDrawFactorX;
+    private float mDrawFactorY;
+    private float mDrawScaleX;
+    private float mDrawScaleY;
+    private int mDrawLineRadius;
     private int mGlyphLineRadius;
     private int mGlyphLineCap;
     private int mGlyphLineJoin;
@@ -47,6 +59,25 @@ public class Renderer {
     private boolean mShouldRender;
     private boolean mShadowLayerSynced;
 
+    private int[] mGlyphIds = new int[0];
+    private Glyph[] mGlyphs = new Glyph[0];
+    private int[] mGlyphLefts = new int[0];
+    private int[] mGlyphTops = new int[0];
+    private Bitmap[] mGlyphBitmaps = new Bitmap[0];
+    private int[] mGlyphRegions = new int[0];
+    private ByteBuffer[] mGlyphBuffers = new ByteBuffer[0];
+    private ByteBuffer[] mSlabBuffers = new ByteBuffer[0];
+    private int[] mSlabBlocks = new int[0];
+    private byte[][] mFieldMasks = new byte[0][];
+    private int[] mFieldSizes = new int[0];
+    private float[] mFieldPlacements = new float[0];
+    private Rect mSourceRect = new Rect();
+    private Rect mTargetRect = new Rect();
+    private Bitmap mScratchBitmap;
+    private final CompositeKey mCompositeKey = new CompositeKey();
+    private GlyphPrefetcher.Token mPrefetchToken;
+    private GlyphPrefetcher.Token mDetachedPrefetchToken;
+
     private int mFillColor;
     private RenderingStyle mRenderingStyle;
     private WritingDirection mWritingDirection;
@@ -64,12 +95,21 @@ public class Renderer {
     private float mShadowDx;
     private float mShadowDy;
     private int mShadowColor;
+    private boolean mGlyphAtlasEnabled;
+    private boolean mOffHeapMasksEnabled;
+    private boolean mCachedShadowsEnabled;
+    private boolean mDistanceFieldEnabled;
+    private StrikeQuantization mStrikeQuantization;
+    private boolean mTransientScaling;
 
     /**
      * Constructs a renderer object.
      */
     public Renderer() {
         mGlyphStrike = new GlyphStrike();
+        mFieldStrike = new GlyphStrike();
+        mDrawStrike = new GlyphStrike();
+        mStrikeQuantization = StrikeQuantization.NONE;
         mPaint = new Paint();
         mShadowRadius = 0.0f;
         mShadowDx = 0.0f;
@@ -94,6 +134,10 @@ public class Renderer {
         int pixelWidth = (int) ((mTypeSize * mScaleX * 64.0f) + 0.5f);
         int pixelHeight = (int) ((mTypeSize * mScaleY * 64.0f) + 0.5f);
 
+        if (pixelWidth != mGlyphStrike.pixelWidth || pixelHeight != mGlyphStrike.pixelHeight) {
+            cancelPrefetch();
+        }
+
         // Minimum size supported by Freetype is 64x64.
         mShouldRender = (pixelWidth >= 64 && pixelHeight >= 64);
         mGlyphStrike.pixelWidth = pixelWidth;
@@ -101,13 +145,29 @@ public class Renderer {
     }
 
     private void updateTransform() {
-        mGlyphStrike.skewX = (int) ((mSlantAngle * 0x10000) + 0.5f);
+        int skewX = (int) ((mSlantAngle * 0x10000) + 0.5f);
+        if (skewX != mGlyphStrike.skewX) {
+            cancelPrefetch();
+        }
+
+        mGlyphStrike.skewX = skewX;
+    }
+
+    private void cancelPrefetch() {
+        if (mPrefetchToken != null) {
+            mPrefetchToken.cancel();
+            mPrefetchToken = null;
+        }
     }
 
     private void syncShadowLayer() {
         if (!mShadowLayerSynced) {
             mShadowLayerSynced = true;
-            mPaint.setShadowLayer(mShadowRadius, mShadowDx, mShadowDy, mShadowColor);
+            if (mCachedShadowsEnabled) {
+                mPaint.clearShadowLayer();
+            } else {
+                mPaint.setShadowLayer(mShadowRadius, mShadowDx, mShadowDy, mShadowColor);
+            }
         }
     }
 
@@ -496,8 +556,321 @@ public class Renderer {
         mShadowLayerSynced = false;
     }
 
-    private Path getGlyphPath(int glyphId) {
-        return GlyphCache.getInstance().getGlyphPath(mGlyphStrike, glyphId);
+    /**
+     * Returns whether this renderer packs filled glyphs into shared atlas pages. The default value
+     * is <code>false</code>.
+     *
+     * @return <code>true</code> if glyph atlas is enabled, <code>false</code> otherwise.
+     */
+    public boolean isGlyphAtlasEnabled() {
+        return mGlyphAtlasEnabled;
+    }
+
+    /**
+     * Sets whether this renderer should pack filled glyphs into shared atlas pages instead of
+     * keeping a separate bitmap for each glyph. The atlas greatly reduces the number of objects
+     * held by the glyph cache and lets the canvas merge the drawing of glyphs lying on the same
+     * page. The default value is <code>false</code>.
+     * <p>
+     * Stroked glyphs, and the glyphs too big to fit in an atlas page, are still drawn from separate
+     * bitmaps.
+     *
+     * @param glyphAtlasEnabled A boolean value indicating whether the glyph atlas is enabled.
+     */
+    public void setGlyphAtlasEnabled(boolean glyphAtlasEnabled) {
+        mGlyphAtlasEnabled = glyphAtlasEnabled;
+    }
+
+    /**
+     * Returns whether this renderer keeps the masks of filled glyphs in native memory. The default
+     * value is <code>false</code>.
+     *
+     * @return <code>true</code> if off-heap masks are enabled, <code>false</code> otherwise.
+     */
+    public boolean isOffHeapMasksEnabled() {
+        return mOffHeapMasksEnabled;
+    }
+
+    /**
+     * Sets whether this renderer should keep the masks of filled glyphs in native memory slabs
+     * instead of separate bitmaps. The glyph cache accounts for the exact number of bytes taken by
+     * such masks and holds far fewer objects. While drawing, the masks of a whole glyph list are
+     * composited natively in a single call into one bitmap, which is then drawn at once. The
+     * bitmap is created on demand for hardware accelerated canvases, and reused otherwise. The
+     * default value is <code>false</code>.
+     * <p>
+     * This setting has no effect if glyph atlas is enabled. Stroked glyphs are always drawn from
+     * separate bitmaps.
+     *
+     * @param offHeapMasksEnabled A boolean value indicating whether off-heap masks are enabled.
+     */
+    public void setOffHeapMasksEnabled(boolean offHeapMasksEnabled) {
+        mOffHeapMasksEnabled = offHeapMasksEnabled;
+    }
+
+    /**
+     * Returns whether this renderer draws shadows from cached blurred glyph masks. The default
+     * value is <code>false</code>.
+     *
+     * @return <code>true</code> if cached shadows are enabled, <code>false</code> otherwise.
+     */
+    public boolean isCachedShadowsEnabled() {
+        return mCachedShadowsEnabled;
+    }
+
+    /**
+     * Sets whether this renderer should draw shadows from blurred glyph masks kept in the glyph
+     * cache instead of a shadow layer of the paint. Each glyph is blurred only once for a given
+     * shadow radius, and the shadows are drawn on hardware accelerated canvases as well. The
+     * default value is <code>false</code>.
+     * <p>
+     * The cached shadows are always cast by the filled shapes of glyphs, even if the rendering
+     * style is stroke.
+     *
+     * @param cachedShadowsEnabled A boolean value indicating whether cached shadows are enabled.
+     */
+    public void setCachedShadowsEnabled(boolean cachedShadowsEnabled) {
+        mCachedShadowsEnabled = cachedShadowsEnabled;
+        mShadowLayerSynced = false;
+    }
+
+    /**
+     * Returns whether this renderer draws filled glyphs from distance fields. The default value is
+     * <code>false</code>.
+     *
+     * @return <code>true</code> if distance field mode is enabled, <code>false</code> otherwise.
+     */
+    public boolean isDistanceFieldEnabled() {
+        return mDistanceFieldEnabled;
+    }
+
+    /**
+     * Sets whether this renderer should draw filled glyphs from signed distance fields. A distance
+     * field is generated only once for each glyph of a typeface at a reference size, and then
+     * resampled in software for any type size and scale. So the glyph cache keeps a single set of
+     * glyphs while the size of text changes continuously, such as during a pinch-zoom or an
+     * animation. The default value is <code>false</code>.
+     * <p>
+     * Distance fields slightly round the sharp corners of glyphs, which becomes visible at large
+     * sizes. Stroked glyphs are always drawn from separate bitmaps of each size.
+     *
+     * @param distanceFieldEnabled A boolean value indicating whether distance field mode is
+     *                             enabled.
+     */
+    public void setDistanceFieldEnabled(boolean distanceFieldEnabled) {
+        mDistanceFieldEnabled = distanceFieldEnabled;
+    }
+
+    /**
+     * Returns this renderer's strike quantization. The default value is
+     * {@link StrikeQuantization#NONE}.
+     *
+     * @return The strike quantization of this renderer.
+     */
+    public StrikeQuantization getStrikeQuantization() {
+        return mStrikeQuantization;
+    }
+
+    /**
+     * Sets this renderer's strike quantization. A quantized pixel size lets the nearby type sizes
+     * and scales share the same rasterized glyphs, which are scaled slightly while drawing. This
+     * bounds the number of glyph sets kept in the glyph cache when text is drawn at many different
+     * sizes. The default value is {@link StrikeQuantization#NONE}.
+     *
+     * @param strikeQuantization A value of {@link StrikeQuantization}.
+     *
+     * @throws NullPointerException if <code>strikeQuantization</code> is null.
+     */
+    public void setStrikeQuantization(StrikeQuantization strikeQuantization) {
+        if (strikeQuantization == null) {
+            throw new NullPointerException("Strike quantization is null");
+        }
+
+        mStrikeQuantization = strikeQuantization;
+    }
+
+    /**
+     * Returns whether the type size or scale of this renderer is currently being animated. The
+     * default value is <code>false</code>.
+     *
+     * @return <code>true</code> if transient scaling is on, <code>false</code> otherwise.
+     */
+    public boolean isTransientScaling() {
+        return mTransientScaling;
+    }
+
+    /**
+     * Sets whether the type size or scale of this renderer is currently being animated, for
+     * example during a pinch-zoom. While it is on, the glyphs of a size which has not been
+     * rasterized yet are drawn by scaling the cached glyphs of the nearest size, so that the
+     * animation neither rasterizes nor caches glyphs of short-lived sizes. The default value is
+     * <code>false</code>.
+     * <p>
+     * Transient scaling should be turned off, and the text drawn again, once the size settles so
+     * that the glyphs of the final size are rasterized.
+     *
+     * @param transientScaling A boolean value indicating whether transient scaling is on.
+     */
+    public void setTransientScaling(boolean transientScaling) {
+        mTransientScaling = transientScaling;
+    }
+
+    private static int quantizePixelSize(int pixelSize, int bucketsPerOctave) {
+        // Snap the size in pixels to the nearest bucket of a geometric progression.
+        double pixels = pixelSize / 64.0;
+        double bucket = Math.rint(Math.log(pixels) / Math.log(2.0) * bucketsPerOctave);
+        int quantizedSize = (int) ((Math.pow(2.0, bucket / bucketsPerOctave) * 64.0) + 0.5);
+
+        // Minimum size supported by Freetype is 64x64.
+        return Math.max(quantizedSize, 64);
+    }
+
+    private void prepareDrawStrike() {
+        GlyphStrike drawStrike = mDrawStrike;
+        drawStrike.typeface = mGlyphStrike.typeface;
+        drawStrike.pixelWidth = mGlyphStrike.pixelWidth;
+        drawStrike.pixelHeight = mGlyphStrike.pixelHeight;
+        drawStrike.skewX = mGlyphStrike.skewX;
+
+        int bucketsPerOctave = mStrikeQuantization.value;
+        if (bucketsPerOctave > 0) {
+            drawStrike.pixelWidth = quantizePixelSize(drawStrike.pixelWidth, bucketsPerOctave);
+            drawStrike.pixelHeight = quantizePixelSize(drawStrike.pixelHeight, bucketsPerOctave);
+        }
+
+        if (mTransientScaling) {
+            GlyphCache cache = GlyphCache.getInstance();
+            if (!cache.containsStrike(drawStrike)) {
+                cache.findNearestStrike(drawStrike);
+            }
+        }
+
+        mDrawFactorX = mGlyphStrike.pixelWidth / (float) drawStrike.pixelWidth;
+        mDrawFactorY = mGlyphStrike.pixelHeight / (float) drawStrike.pixelHeight;
+        mDrawScaleX = mScaleX / mDrawFactorX;
+        mDrawScaleY = mScaleY / mDrawFactorY;
+        mDrawLineRadius = (int) ((mGlyphLineRadius / mDrawFactorY) + 0.5f);
+    }
+
+    private int getFillStorage() {
+        if (mGlyphAtlasEnabled) {
+            return GlyphCache.ATLAS_STORAGE;
+        }
+        if (mOffHeapMasksEnabled) {
+            return GlyphCache.SLAB_STORAGE;
+        }
+
+        return GlyphCache.BITMAP_STORAGE;
+    }
+
+    /**
+     * Loads the specified glyphs into the glyph cache on a background thread, so that they are
+     * found already rasterized when drawn later with the current settings of this renderer. The
+     * glyphs which are already being loaded for the same settings are skipped.
+     * <p>
+     * The pending glyphs are abandoned as soon as the type size, scale or slant angle of this
+     * renderer is changed. A prefetch request may also be dropped silently if too many requests
+     * are already pending, in which case the glyphs are loaded while drawing as usual.
+     *
+     * @param glyphIds The list containing the glyph IDs.
+     *
+     * @throws NullPointerException if <code>glyphIds</code> is null.
+     */
+    public void prefetch(IntList glyphIds) {
+        if (glyphIds == null) {
+            throw new NullPointerException("Glyph ids list is null");
+        }
+
+        if (mShouldRender && mTypeface != null) {
+            if (mPrefetchToken == null) {
+                mPrefetchToken = new GlyphPrefetcher.Token();
+            }
+
+            prefetch(mPrefetchToken, mGlyphStrike.clone(), glyphIds);
+        }
+    }
+
+    /**
+     * Loads the specified glyphs of given typeface and type size into the glyph cache on a
+     * background thread, so that they are found already rasterized when drawn later with the same
+     * typeface and type size. The typeface and type size of this renderer are not changed, and all
+     * other settings are taken from it as they are.
+     * <p>
+     * Unlike the glyphs prefetched with current settings, these glyphs are not abandoned when the
+     * type size of this renderer is changed. A prefetch request may still be dropped silently if
+     * too many requests are already pending.
+     *
+     * @param typeface The typeface of the glyphs.
+     * @param typeSize The type size of the glyphs.
+     * @param glyphIds The list containing the glyph IDs.
+     *
+     * @throws NullPointerException if <code>typeface</code> is null, or <code>glyphIds</code> is
+     *         null.
+     * @throws IllegalArgumentException if <code>typeSize</code> is negative.
+     */
+    public void prefetch(Typeface typeface, float typeSize, IntList glyphIds) {
+        if (typeface == null) {
+            throw new NullPointerException("Typeface is null");
+        }
+        if (typeSize < 0.0f) {
+            throw new IllegalArgumentException("The value of type size is negative");
+        }
+        if (glyphIds == null) {
+            throw new NullPointerException("Glyph ids list is null");
+        }
+
+        GlyphStrike strike = new GlyphStrike();
+        strike.typeface = typeface;
+        strike.pixelWidth = (int) ((typeSize * mScaleX * 64.0f) + 0.5f);
+        strike.pixelHeight = (int) ((typeSize * mScaleY * 64.0f) + 0.5f);
+        strike.skewX = mGlyphStrike.skewX;
+
+        // Minimum size supported by Freetype is 64x64.
+        if (strike.pixelWidth >= 64 && strike.pixelHeight >= 64) {
+            if (mDetachedPrefetchToken == null) {
+                mDetachedPrefetchToken = new GlyphPrefetcher.Token();
+            }
+
+            prefetch(mDetachedPrefetchToken, strike, glyphIds);
+        }
+    }
+
+    private void prefetch(GlyphPrefetcher.Token token, GlyphStrike strike, IntList glyphIds) {
+        if (glyphIds.size() > 0) {
+            // Warm the strike that the glyphs will actually be drawn from.
+            int lineRadius = mGlyphLineRadius;
+            int bucketsPerOctave = mStrikeQuantization.value;
+            if (bucketsPerOctave > 0) {
+                int pixelHeight = strike.pixelHeight;
+                strike.pixelWidth = quantizePixelSize(strike.pixelWidth, bucketsPerOctave);
+                strike.pixelHeight = quantizePixelSize(strike.pixelHeight, bucketsPerOctave);
+                lineRadius = (int) (((float) lineRadius * strike.pixelHeight / pixelHeight) + 0.5f);
+            }
+
+            boolean fill = (mRenderingStyle == RenderingStyle.FILL
+                            || mRenderingStyle == RenderingStyle.FILL_STROKE);
+            boolean stroke = (mRenderingStyle == RenderingStyle.STROKE
+                              || mRenderingStyle == RenderingStyle.FILL_STROKE);
+
+            GlyphPrefetcher.Target target = new GlyphPrefetcher.Target(strike,
+                    fill, getFillStorage(), stroke,
+                    lineRadius, mGlyphLineCap, mGlyphLineJoin, mGlyphMiterLimit);
+            GlyphPrefetcher.getInstance().prefetch(token, target, glyphIds.toArray());
+        }
+    }
+
+    private void appendGlyphPath(Path path, int glyphId, float unitScale, float dx, float dy) {
+        int[] contours = GlyphCache.getInstance().getGlyphContours(mGlyphStrike.typeface, glyphId);
+        float scaleX = mGlyphStrike.pixelWidth * unitScale;
+        float scaleY = mGlyphStrike.pixelHeight * unitScale;
+        float skewX = mGlyphStrike.skewX / 65536.0f;
+
+        GlyphContours.appendTo(path, contours, scaleX, scaleY, skewX, dx, dy);
+    }
+
+    private float getUnitScale() {
+        // Multiplied with a 26.6 fixed-point size, it gives the pixels per font unit.
+        return 1.0f / (mGlyphStrike.typeface.getUnitsPerEm() * 64.0f);
     }
 
     /**
@@ -508,7 +881,7 @@ public class Renderer {
      */
     public Path generatePath(int glyphId) {
         Path glyphPath = new Path();
-        glyphPath.addPath(getGlyphPath(glyphId));
+        appendGlyphPath(glyphPath, glyphId, getUnitScale(), 0.0f, 0.0f);
 
         return glyphPath;
     }
@@ -523,6 +896,7 @@ public class Renderer {
      */
     public Path generatePath(IntList glyphIds, PointList offsets, FloatList advances) {
         Path cumulativePath = new Path();
+        float unitScale = getUnitScale();
         float penX = 0.0f;
 
         int size = glyphIds.size();
@@ -533,8 +907,7 @@ public class Renderer {
             float yOffset = offsets.getY(i) * mScaleY;
             float advance = advances.get(i) * mScaleX;
 
-            Path glyphPath = getGlyphPath(glyphId);
-            cumulativePath.addPath(glyphPath, penX + xOffset, yOffset);
+            appendGlyphPath(cumulativePath, glyphId, unitScale, penX + xOffset, yOffset);
 
             penX += advance;
         }
@@ -543,9 +916,7 @@ public class Renderer {
     }
 
     private void getBoundingBox(int glyphId, RectF boundingBox) {
-        Glyph glyph = GlyphCache.getInstance().getMaskGlyph(mGlyphStrike, glyphId);
-        boundingBox.set(glyph.leftSideBearing(), glyph.topSideBearing(),
-                        glyph.rightSideBearing(), glyph.bottomSideBearing());
+        GlyphCache.getInstance().getGlyphBounds(mGlyphStrike, glyphId, boundingBox);
     }
 
     /**
@@ -584,7 +955,7 @@ public class Renderer {
 
             getBoundingBox(glyphId, glyphBBox);
             glyphBBox.offset(penX + xOffset, yOffset);
-            cumulativeBBox.union(cumulativeBBox);
+            cumulativeBBox.union(glyphBBox);
 
             penX += advance;
         }
@@ -592,27 +963,415 @@ public class Renderer {
         return cumulativeBBox;
     }
 
+    private void ensureGlyphCapacity(int capacity) {
+        if (mGlyphIds.length < capacity) {
+            mGlyphIds = new int[capacity];
+            mGlyphs = new Glyph[capacity];
+            mGlyphLefts = new int[capacity];
+            mGlyphTops = new int[capacity];
+            mGlyphBitmaps = new Bitmap[capacity];
+            mGlyphRegions = new int[capacity * GlyphAtlas.REGION_FIELD_COUNT];
+            mGlyphBuffers = new ByteBuffer[capacity];
+            mSlabBuffers = new ByteBuffer[capacity];
+            mSlabBlocks = new int[capacity * GlyphSlabAllocator.BLOCK_FIELD_COUNT];
+            mFieldMasks = new byte[capacity][];
+            mFieldSizes = new int[capacity * 2];
+            mFieldPlacements = new float[capacity * GlyphDistanceField.PLACEMENT_FIELD_COUNT];
+        }
+    }
+
+    private void drawGlyphRegion(Canvas canvas, int index) {
+        Bitmap bitmap = mGlyphBitmaps[index];
+        if (bitmap != null) {
+            int field = index * GlyphAtlas.REGION_FIELD_COUNT;
+            int x = mGlyphRegions[field];
+            int y = mGlyphRegions[field + 1];
+            int width = mGlyphRegions[field + 2];
+            int height = mGlyphRegions[field + 3];
+            int left = mGlyphLefts[index];
+            int top = mGlyphTops[index];
+
+            mSourceRect.set(x, y, x + width, y + height);
+            mTargetRect.set(left, top, left + width, top + height);
+            canvas.drawBitmap(bitmap, mSourceRect, mTargetRect, mPaint);
+        }
+    }
+
+    private int collectGlyphIds(IntList glyphIds) {
+        boolean reverseMode = (mWritingDirection == WritingDirection.RIGHT_TO_LEFT);
+        int size = glyphIds.size();
+        ensureGlyphCapacity(size);
+
+        for (int i = 0; i < size; i++) {
+            int pos = (!reverseMode ? i : (size - i) - 1);
+            mGlyphIds[i] = glyphIds.get(pos);
+        }
+
+        return size;
+    }
+
+    private void resolveFillGlyphs(IntList glyphIds, int storage) {
+        int size = collectGlyphIds(glyphIds);
+
+        // Resolve all glyphs at once so that the missing ones are rasterized in a single batch.
+        GlyphCache.getInstance().getFillGlyphs(mDrawStrike, mGlyphIds, size, storage, mGlyphs);
+    }
+
+    private void drawAtlasGlyphs(Canvas canvas,
+                                 IntList glyphIds, PointList offsets, FloatList advances) {
+        boolean reverseMode = (mWritingDirection == WritingDirection.RIGHT_TO_LEFT);
+        float penX = 0.0f;
+
+        // NOTE:
+        //      The regions are taken along with the glyphs, so that each one keeps referring to the
+        //      same pixels even if its glyph is evicted by another thread during the draw.
+        int size = collectGlyphIds(glyphIds);
+        GlyphCache.getInstance().getAtlasRegions(mDrawStrike, mGlyphIds, size,
+                                                 mGlyphs, mGlyphBitmaps, mGlyphRegions);
+
+        for (int i = 0; i < size; i++) {
+            int pos = (!reverseMode ? i : (size - i) - 1);
+
+            float xOffset = offsets.getX(pos) * mDrawScaleX;
+            float yOffset = offsets.getY(pos) * mDrawScaleY;
+            float advance = advances.get(pos) * mDrawScaleX;
+
+            Glyph atlasGlyph = mGlyphs[i];
+            mGlyphLefts[i] = (int) (penX + xOffset + atlasGlyph.leftSideBearing() + 0.5f);
+            mGlyphTops[i] = (int) (-yOffset - atlasGlyph.topSideBearing() + 0.5f);
+            mGlyphs[i] = null;
+
+            penX += advance;
+        }
+
+        // NOTE:
+        //      Glyphs of same color can be composited in any order, so the glyphs of a page are
+        //      drawn consecutively allowing the canvas to batch them. It is not done with shadows
+        //      as the shadow of a glyph must not be drawn over its preceding glyphs.
+        boolean batchMode = (mShadowRadius == 0.0f || mCachedShadowsEnabled);
+
+        for (int i = 0; i < size; i++) {
+            Bitmap bitmap = mGlyphBitmaps[i];
+            if (bitmap == null) {
+                continue;
+            }
+
+            drawGlyphRegion(canvas, i);
+            mGlyphBitmaps[i] = null;
+
+            if (batchMode) {
+                for (int j = i + 1; j < size; j++) {
+                    if (mGlyphBitmaps[j] == bitmap) {
+                        drawGlyphRegion(canvas, j);
+                        mGlyphBitmaps[j] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    private Bitmap obtainCompositeBitmap(Canvas canvas, int width, int height) {
+        // NOTE:
+        //      A hardware canvas or a picture only records the bitmap to draw it later, so it must
+        //      not be modified afterwards. Only the canvases known to draw right away share the
+        //      scratch bitmap, whereas any other one gets a bitmap which is kept in the glyph cache
+        //      by its contents instead.
+        if (!(canvas instanceof ImmediateCanvas)) {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        }
+
+        if (mScratchBitmap == null
+                || mScratchBitmap.getWidth() < width || mScratchBitmap.getHeight() < height) {
+            int scratchWidth = width;
+            int scratchHeight = height;
+            if (mScratchBitmap != null) {
+                scratchWidth = Math.max(scratchWidth, mScratchBitmap.getWidth());
+                scratchHeight = Math.max(scratchHeight, mScratchBitmap.getHeight());
+                mScratchBitmap.recycle();
+            }
+
+            mScratchBitmap = Bitmap.createBitmap(scratchWidth, scratchHeight, Bitmap.Config.ALPHA_8);
+        } else {
+            mScratchBitmap.eraseColor(Color.TRANSPARENT);
+        }
+
+        return mScratchBitmap;
+    }
+
+    // NOTE:
+    //      The composites are shared on every canvas which might record them, where redrawing a view
+    //      records the same runs again and would otherwise allocate a new bitmap for each of them in
+    //      every frame. An immediate canvas keeps compositing into the scratch bitmap.
+    private Bitmap findComposite(Canvas canvas) {
+        if (!(canvas instanceof ImmediateCanvas)) {
+            return GlyphCache.getInstance().getComposite(mCompositeKey);
+        }
+
+        return null;
+    }
+
+    private Bitmap storeComposite(Canvas canvas, Bitmap compositeBitmap) {
+        if (!(canvas instanceof ImmediateCanvas)) {
+            return GlyphCache.getInstance().putComposite(mCompositeKey, compositeBitmap);
+        }
+
+        return compositeBitmap;
+    }
+
+    private void drawSlabGlyphs(Canvas canvas,
+                                IntList glyphIds, PointList offsets, FloatList advances) {
+        GlyphCache cache = GlyphCache.getInstance();
+        boolean reverseMode = (mWritingDirection == WritingDirection.RIGHT_TO_LEFT);
+        float penX = 0.0f;
+        int minLeft = Integer.MAX_VALUE;
+        int minTop = Integer.MAX_VALUE;
+        int maxRight = Integer.MIN_VALUE;
+        int maxBottom = Integer.MIN_VALUE;
+
+        // NOTE:
+        //      The blocks are taken along with the glyphs and stay pinned until the run has been
+        //      composited, so that a glyph evicted by another thread meanwhile cannot have its
+        //      block handed to a different glyph.
+        int size = collectGlyphIds(glyphIds);
+        cache.getSlabBlocks(mDrawStrike, mGlyphIds, size, mGlyphs, mGlyphBuffers, mSlabBlocks);
+
+        for (int i = 0; i < size; i++) {
+            int pos = (!reverseMode ? i : (size - i) - 1);
+
+            float xOffset = offsets.getX(pos) * mDrawScaleX;
+            float yOffset = offsets.getY(pos) * mDrawScaleY;
+            float advance = advances.get(pos) * mDrawScaleX;
+
+            Glyph slabGlyph = mGlyphs[i];
+            int left = (int) (penX + xOffset + slabGlyph.leftSideBearing() + 0.5f);
+            int top = (int) (-yOffset - slabGlyph.topSideBearing() + 0.5f);
+            mGlyphLefts[i] = left;
+            mGlyphTops[i] = top;
+
+            if (mGlyphBuffers[i] != null) {
+                int field = i * GlyphSlabAllocator.BLOCK_FIELD_COUNT;
+                minLeft = Math.min(minLeft, left);
+                minTop = Math.min(minTop, top);
+                maxRight = Math.max(maxRight, left + mSlabBlocks[field + 1]);
+                maxBottom = Math.max(maxBottom, top + mSlabBlocks[field + 2]);
+            }
+
+            penX += advance;
+        }
+
+        try {
+            if (minLeft < maxRight && minTop < maxBottom) {
+                int width = maxRight - minLeft;
+                int height = maxBottom - minTop;
+
+                // Pack the blocks of the run together, placing them relative to the bitmap.
+                int blockCount = 0;
+                mCompositeKey.reset(mDrawStrike, CompositeKey.MASK_KIND);
+                mCompositeKey.add(width);
+                mCompositeKey.add(height);
+
+                for (int i = 0; i < size; i++) {
+                    ByteBuffer buffer = mGlyphBuffers[i];
+                    if (buffer != null) {
+                        int source = i * GlyphSlabAllocator.BLOCK_FIELD_COUNT;
+                        int target = blockCount * GlyphSlabAllocator.BLOCK_FIELD_COUNT;
+                        int x = mGlyphLefts[i] - minLeft;
+                        int y = mGlyphTops[i] - minTop;
+
+                        mSlabBuffers[blockCount] = buffer;
+                        mSlabBlocks[target] = mSlabBlocks[source];
+                        mSlabBlocks[target + 1] = mSlabBlocks[source + 1];
+                        mSlabBlocks[target + 2] = mSlabBlocks[source + 2];
+                        mSlabBlocks[target + 3] = x;
+                        mSlabBlocks[target + 4] = y;
+                        blockCount++;
+
+                        mCompositeKey.add(mGlyphIds[i]);
+                        mCompositeKey.add(x);
+                        mCompositeKey.add(y);
+                    }
+                }
+
+                Bitmap compositeBitmap = findComposite(canvas);
+                if (compositeBitmap == null) {
+                    compositeBitmap = obtainCompositeBitmap(canvas, width, height);
+                    GlyphSlabAllocator.blit(compositeBitmap, mSlabBuffers, mSlabBlocks, blockCount);
+                    compositeBitmap = storeComposite(canvas, compositeBitmap);
+                }
+                Arrays.fill(mSlabBuffers, 0, blockCount, null);
+
+                mSourceRect.set(0, 0, width, height);
+                mTargetRect.set(minLeft, minTop, maxRight, maxBottom);
+                canvas.drawBitmap(compositeBitmap, mSourceRect, mTargetRect, mPaint);
+            }
+        } finally {
+            cache.releaseSlabBlocks(mGlyphs, size, mGlyphBuffers);
+        }
+
+        // Draw the glyphs which are kept as separate bitmaps.
+        for (int i = 0; i < size; i++) {
+            if (mGlyphBuffers[i] == null) {
+                Bitmap maskBitmap = mGlyphs[i].bitmap();
+                if (maskBitmap != null) {
+                    canvas.drawBitmap(maskBitmap, mGlyphLefts[i], mGlyphTops[i], mPaint);
+                }
+            }
+
+            mGlyphs[i] = null;
+            mGlyphBuffers[i] = null;
+        }
+    }
+
+    private void updateFieldStrike() {
+        // NOTE:
+        //      The reference strike keeps the aspect ratio of the actual one, so that a field is
+        //      always resampled uniformly and the slant remains exact.
+        GlyphStrike glyphStrike = mDrawStrike;
+        int referenceSize = GlyphDistanceField.REFERENCE_SIZE;
+
+        mFieldStrike.typeface = glyphStrike.typeface;
+        mFieldStrike.pixelWidth = (int) (((long) referenceSize * glyphStrike.pixelWidth
+                                          + (glyphStrike.pixelHeight / 2)) / glyphStrike.pixelHeight);
+        mFieldStrike.pixelHeight = referenceSize;
+        mFieldStrike.skewX = glyphStrike.skewX;
+    }
+
+    private void drawFieldGlyphs(Canvas canvas,
+                                 IntList glyphIds, PointList offsets, FloatList advances) {
+        GlyphCache cache = GlyphCache.getInstance();
+        boolean reverseMode = (mWritingDirection == WritingDirection.RIGHT_TO_LEFT);
+        float fieldScale = mDrawStrike.pixelHeight / (float) GlyphDistanceField.REFERENCE_SIZE;
+        float penX = 0.0f;
+        float minLeft = Float.POSITIVE_INFINITY;
+        float minTop = Float.POSITIVE_INFINITY;
+        float maxRight = Float.NEGATIVE_INFINITY;
+        float maxBottom = Float.NEGATIVE_INFINITY;
+        int fieldCount = 0;
+
+        int size = glyphIds.size();
+        ensureGlyphCapacity(size);
+        updateFieldStrike();
+
+        for (int i = 0; i < size; i++) {
+            int pos = (!reverseMode ? i : (size - i) - 1);
+
+            int glyphId = glyphIds.get(pos);
+            float xOffset = offsets.getX(pos) * mDrawScaleX;
+            float yOffset = offsets.getY(pos) * mDrawScaleY;
+            float advance = advances.get(pos) * mDrawScaleX;
+
+            Glyph fieldGlyph = cache.getFieldGlyph(mFieldStrike, glyphId);
+            byte[] field = fieldGlyph.mask();
+            if (field != null) {
+                int fieldWidth = fieldGlyph.maskWidth();
+                int fieldHeight = fieldGlyph.maskHeight();
+                float left = penX + xOffset + (fieldGlyph.leftSideBearing() * fieldScale);
+                float top = -yOffset - (fieldGlyph.topSideBearing() * fieldScale);
+
+                mGlyphIds[fieldCount] = glyphId;
+                mFieldMasks[fieldCount] = field;
+                mFieldSizes[fieldCount * 2] = fieldWidth;
+                mFieldSizes[(fieldCount * 2) + 1] = fieldHeight;
+                GlyphDistanceField.fillPlacement(mFieldPlacements, fieldCount, left, top, fieldScale);
+                fieldCount++;
+
+                minLeft = Math.min(minLeft, left);
+                minTop = Math.min(minTop, top);
+                maxRight = Math.max(maxRight, left + (fieldWidth * fieldScale));
+                maxBottom = Math.max(maxBottom, top + (fieldHeight * fieldScale));
+            }
+
+            penX += advance;
+        }
+
+        if (fieldCount > 0) {
+            int compositeLeft = (int) Math.floor(minLeft);
+            int compositeTop = (int) Math.floor(minTop);
+            int compositeRight = (int) Math.ceil(maxRight);
+            int compositeBottom = (int) Math.ceil(maxBottom);
+            int width = compositeRight - compositeLeft;
+            int height = compositeBottom - compositeTop;
+
+            // Make the placements relative to the composite bitmap.
+            mCompositeKey.reset(mFieldStrike, CompositeKey.FIELD_KIND);
+            mCompositeKey.add(width);
+            mCompositeKey.add(height);
+
+            for (int i = 0; i < fieldCount; i++) {
+                int field = i * GlyphDistanceField.PLACEMENT_FIELD_COUNT;
+                mFieldPlacements[field] -= compositeLeft;
+                mFieldPlacements[field + 1] -= compositeTop;
+
+                mCompositeKey.add(mGlyphIds[i]);
+                mCompositeKey.add(mFieldPlacements[field]);
+                mCompositeKey.add(mFieldPlacements[field + 1]);
+                mCompositeKey.add(mFieldPlacements[field + 2]);
+            }
+
+            if (width > 0 && height > 0) {
+                Bitmap compositeBitmap = findComposite(canvas);
+                if (compositeBitmap == null) {
+                    compositeBitmap = obtainCompositeBitmap(canvas, width, height);
+                    GlyphDistanceField.render(compositeBitmap, mFieldMasks, mFieldSizes,
+                                              mFieldPlacements, fieldCount);
+                    compositeBitmap = storeComposite(canvas, compositeBitmap);
+                }
+
+                mSourceRect.set(0, 0, width, height);
+                mTargetRect.set(compositeLeft, compositeTop, compositeRight, compositeBottom);
+                canvas.drawBitmap(compositeBitmap, mSourceRect, mTargetRect, mPaint);
+            }
+
+            Arrays.fill(mFieldMasks, 0, fieldCount, null);
+        }
+    }
+
     private void drawGlyphs(Canvas canvas,
                             IntList glyphIds, PointList offsets, FloatList advances,
                             boolean strokeMode) {
+        if (!strokeMode) {
+            if (mDistanceFieldEnabled) {
+                drawFieldGlyphs(canvas, glyphIds, offsets, advances);
+                return;
+            }
+
+            int storage = getFillStorage();
+            if (storage == GlyphCache.ATLAS_STORAGE) {
+                drawAtlasGlyphs(canvas, glyphIds, offsets, advances);
+                return;
+            }
+            if (storage == GlyphCache.SLAB_STORAGE) {
+                drawSlabGlyphs(canvas, glyphIds, offsets, advances);
+                return;
+            }
+        }
+
         GlyphCache cache = GlyphCache.getInstance();
         boolean reverseMode = (mWritingDirection == WritingDirection.RIGHT_TO_LEFT);
         float penX = 0.0f;
 
         int size = glyphIds.size();
+        if (!strokeMode) {
+            resolveFillGlyphs(glyphIds, GlyphCache.BITMAP_STORAGE);
+        }
 
         for (int i = 0; i < size; i++) {
             int pos = (!reverseMode ? i : (size - i) - 1);
 
             int glyphId = glyphIds.get(pos);
-            float xOffset = offsets.getX(pos) * mScaleX;
-            float yOffset = offsets.getY(pos) * mScaleY;
-            float advance = advances.get(pos) * mScaleX;
-
-            Glyph maskGlyph = (!strokeMode
-                               ? cache.getMaskGlyph(mGlyphStrike, glyphId)
-                               : cache.getMaskGlyph(mGlyphStrike, glyphId, mGlyphLineRadius,
-                                                    mGlyphLineCap, mGlyphLineJoin, mGlyphMiterLimit));
+            float xOffset = offsets.getX(pos) * mDrawScaleX;
+            float yOffset = offsets.getY(pos) * mDrawScaleY;
+            float advance = advances.get(pos) * mDrawScaleX;
+
+            Glyph maskGlyph;
+            if (!strokeMode) {
+                maskGlyph = mGlyphs[i];
+                mGlyphs[i] = null;
+            } else {
+                maskGlyph = cache.getMaskGlyph(mDrawStrike, glyphId, mDrawLineRadius,
+                                               mGlyphLineCap, mGlyphLineJoin, mGlyphMiterLimit);
+            }
+
             Bitmap maskBitmap = maskGlyph.bitmap();
             if (maskBitmap != null) {
                 int left = (int) (penX + xOffset + maskGlyph.leftSideBearing() + 0.5f);
@@ -625,9 +1384,40 @@ public class Renderer {
         }
     }
 
+    private void drawShadows(Canvas canvas,
+                             IntList glyphIds, PointList offsets, FloatList advances) {
+        GlyphCache cache = GlyphCache.getInstance();
+        boolean reverseMode = (mWritingDirection == WritingDirection.RIGHT_TO_LEFT);
+        int blurRadius = (int) ((mShadowRadius * 64.0f / mDrawFactorY) + 0.5f);
+        float shadowDx = mShadowDx / mDrawFactorX;
+        float shadowDy = mShadowDy / mDrawFactorY;
+        float penX = 0.0f;
+
+        int size = glyphIds.size();
+        for (int i = 0; i < size; i++) {
+            int pos = (!reverseMode ? i : (size - i) - 1);
+
+            int glyphId = glyphIds.get(pos);
+            float xOffset = offsets.getX(pos) * mDrawScaleX;
+            float yOffset = offsets.getY(pos) * mDrawScaleY;
+            float advance = advances.get(pos) * mDrawScaleX;
+
+            Glyph shadowGlyph = cache.getShadowGlyph(mDrawStrike, glyphId, blurRadius);
+            Bitmap shadowBitmap = shadowGlyph.bitmap();
+            if (shadowBitmap != null) {
+                int left = (int) (penX + xOffset + shadowGlyph.leftSideBearing() + shadowDx + 0.5f);
+                int top = (int) (-yOffset - shadowGlyph.topSideBearing() + shadowDy + 0.5f);
+
+                canvas.drawBitmap(shadowBitmap, left, top, mPaint);
+            }
+
+            penX += advance;
+        }
+    }
+
     /**
      * Draws specified glyphs onto the given canvas. The shadow will not be drawn if the canvas is
-     * hardware accelerated.
+     * hardware accelerated, unless cached shadows are enabled.
      *
      * @param canvas The canvas onto which to draw the glyphs.
      * @param glyphIds The list containing the glyph IDs.
@@ -638,8 +1428,23 @@ public class Renderer {
                            IntList glyphIds, PointList offsets, FloatList advances) {
         if (mShouldRender) {
             syncShadowLayer();
+            prepareDrawStrike();
+
+            // NOTE:
+            //      The glyphs of a different strike are drawn on a scaled canvas, so that they take
+            //      the size of the actual strike.
+            boolean scaledMode = (mDrawFactorX != 1.0f || mDrawFactorY != 1.0f);
+            if (scaledMode) {
+                canvas.save();
+                canvas.scale(mDrawFactorX, mDrawFactorY);
+            }
 
-            if (mShadowRadius > 0.0f && canvas.isHardwareAccelerated()) {
+            if (mCachedShadowsEnabled) {
+                if (mShadowRadius > 0.0f && Color.alpha(mShadowColor) != 0) {
+                    mPaint.setColor(mShadowColor);
+                    drawShadows(canvas, glyphIds, offsets, advances);
+                }
+            } else if (mShadowRadius > 0.0f && canvas.isHardwareAccelerated()) {
                 Log.e(TAG, "Canvas is hardware accelerated, shadow will not be rendered");
             }
 
@@ -652,6 +1457,10 @@ public class Renderer {
                 mPaint.setColor(mStrokeColor);
                 drawGlyphs(canvas, glyphIds, offsets, advances, true);
             }
+
+            if (scaledMode) {
+                canvas.restore();
+            }
         }
     }
 }
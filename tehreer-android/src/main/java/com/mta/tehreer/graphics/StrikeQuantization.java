@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+/**
+ * Specifies how a renderer snaps the pixel sizes of glyphs to a limited set of sizes, so that
+ * nearby sizes share the same rasterized glyphs. The glyphs of a snapped size are scaled to the
+ * actual size while drawing.
+ */
+public enum StrikeQuantization {
+    /**
+     * Rasterizes the glyphs at the exact pixel size.
+     */
+    NONE(0),
+    /**
+     * Snaps the pixel size to one of sixteen sizes per doubling, so that the glyphs are scaled by
+     * at most about two percent.
+     */
+    FINE(16),
+    /**
+     * Snaps the pixel size to one of eight sizes per doubling, so that the glyphs are scaled by at
+     * most about four and a half percent.
+     */
+    COARSE(8);
+
+    final int value;
+
+    StrikeQuantization(int value) {
+        this.value = value;
+    }
+}
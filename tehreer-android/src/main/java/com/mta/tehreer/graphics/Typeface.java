@@ -26,7 +26,12 @@ import com.mta.tehreer.internal.Sustain;
 import com.mta.tehreer.sfnt.SfntTag;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
 
 /**
  * The <code>Typeface</code> class specifies the typeface and intrinsic style of a font. This is
@@ -51,10 +56,38 @@ public class Typeface {
         }
     }
 
+    private static final WeakHashMap<Typeface, Boolean> instances = new WeakHashMap<>();
+
+    // NOTE: The indexes must match the ones defined in Typeface.cpp.
+    private static final int UNITS_PER_EM = 0;
+    private static final int ASCENT = 1;
+    private static final int DESCENT = 2;
+    private static final int LEADING = 3;
+    private static final int GLYPH_COUNT = 4;
+    private static final int BBOX_LEFT = 5;
+    private static final int BBOX_TOP = 6;
+    private static final int BBOX_RIGHT = 7;
+    private static final int BBOX_BOTTOM = 8;
+    private static final int UNDERLINE_POSITION = 9;
+    private static final int UNDERLINE_THICKNESS = 10;
+    private static final int METRIC_COUNT = 11;
+
     @Sustain
     long nativeTypeface;
     private final Finalizable finalizable = new Finalizable();
-    private TypefaceDescription description;
+    private ByteBuffer buffer;
+    private volatile TypefaceDescription description;
+    private int unitsPerEm;
+    private int ascent;
+    private int descent;
+    private int leading;
+    private int glyphCount;
+    private int bboxLeft;
+    private int bboxTop;
+    private int bboxRight;
+    private int bboxBottom;
+    private int underlinePosition;
+    private int underlineThickness;
     Object tag;
 
     /**
@@ -128,18 +161,156 @@ public class Typeface {
         init(nativeTypeface);
     }
 
+    /**
+     * Constructs a typeface over the remaining bytes of the specified direct buffer. The data of
+     * the buffer is not copied. Rather, the typeface reads it in place, so its contents must not
+     * be modified while the typeface is in use. The buffer is retained by the typeface.
+     *
+     * @param buffer The direct buffer that contains the data of the font.
+     *
+     * @throws NullPointerException if <code>buffer</code> is null.
+     * @throws IllegalArgumentException if <code>buffer</code> is not direct.
+     * @throws RuntimeException if an error occurred while initialization.
+     */
+    public Typeface(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("Buffer is null");
+        }
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer is not direct");
+        }
+
+        long nativeTypeface = nativeCreateWithBuffer(buffer, buffer.position(), buffer.remaining());
+        if (nativeTypeface == 0) {
+            throw new RuntimeException("Could not create typeface from specified buffer");
+        }
+
+        // Keep the buffer reachable so that its memory outlives the native typeface.
+        this.buffer = buffer;
+        init(nativeTypeface);
+    }
+
+    /**
+     * Constructs a typeface by mapping the whole file of the specified channel into the memory.
+     * The data of the font is neither read nor copied upfront. Rather, its pages are loaded by the
+     * system when needed and are shared with the other processes mapping the same file. The
+     * channel may be closed after the typeface is constructed.
+     *
+     * @param channel The file channel of the font.
+     *
+     * @throws NullPointerException if <code>channel</code> is null.
+     * @throws RuntimeException if an error occurred while mapping the file or initialization.
+     */
+    public Typeface(FileChannel channel) {
+        this(mapChannel(channel));
+    }
+
+    private static ByteBuffer mapChannel(FileChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException("Channel is null");
+        }
+
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not map specified channel", e);
+        }
+    }
+
+    /**
+     * Constructs a typeface that reads the data of the font from the specified source when needed.
+     * Unlike the typefaces created from an input stream, the data is not buffered as a whole.
+     * Rather, only the pages of the font being used are kept in a small native cache. So it is
+     * suitable for large fonts which cannot be mapped directly, though the performance of the
+     * resulting typeface might be slower.
+     *
+     * @param source The source that contains the data of the font.
+     *
+     * @throws NullPointerException if <code>source</code> is null.
+     * @throws RuntimeException if an error occurred while initialization.
+     */
+    public Typeface(FontSource source) {
+        if (source == null) {
+            throw new NullPointerException("Source is null");
+        }
+
+        long nativeTypeface = nativeCreateWithSource(source);
+        if (nativeTypeface == 0) {
+            throw new RuntimeException("Could not create typeface from specified source");
+        }
+
+        init(nativeTypeface);
+    }
+
 	private void init(long nativeTypeface) {
 	    this.nativeTypeface = nativeTypeface;
-        this.description = TypefaceDescription.deduce(this);
+
+        // Take a snapshot of the metrics in a single call as they never change. The description is
+        // deduced on first use as it requires parsing several tables. Registering the typeface
+        // does not use it, though looking up typefaces by name or family does.
+        int[] metrics = new int[METRIC_COUNT];
+        nativeGetMetrics(nativeTypeface, metrics);
+
+        this.unitsPerEm = metrics[UNITS_PER_EM];
+        this.ascent = metrics[ASCENT];
+        this.descent = metrics[DESCENT];
+        this.leading = metrics[LEADING];
+        this.glyphCount = metrics[GLYPH_COUNT];
+        this.bboxLeft = metrics[BBOX_LEFT];
+        this.bboxTop = metrics[BBOX_TOP];
+        this.bboxRight = metrics[BBOX_RIGHT];
+        this.bboxBottom = metrics[BBOX_BOTTOM];
+        this.underlinePosition = metrics[UNDERLINE_POSITION];
+        this.underlineThickness = metrics[UNDERLINE_THICKNESS];
+
+        synchronized (instances) {
+            instances.put(this, Boolean.TRUE);
+        }
 	}
 
+    TypefaceDescription getDescription() {
+        // NOTE:
+        //      The deduction is pure, so a race may only deduce the same description twice.
+        TypefaceDescription description = this.description;
+        if (description == null) {
+            description = TypefaceDescription.deduce(this);
+            this.description = description;
+        }
+
+        return description;
+    }
+
+    void seedDescription(TypefaceDescription description) {
+        // A description read from an index of fonts spares the deduction.
+        if (this.description == null) {
+            this.description = description;
+        }
+    }
+
+    int[] loadGlyphContours(int glyphId) {
+        return nativeLoadGlyphContours(nativeTypeface, glyphId);
+    }
+
+    static void releaseAllCaches() {
+        ArrayList<Typeface> typefaces;
+        synchronized (instances) {
+            typefaces = new ArrayList<>(instances.keySet());
+        }
+
+        // Release the shaping patterns and the stroker of every live typeface. They are created
+        // again whenever needed.
+        for (Typeface typeface : typefaces) {
+            nativeReleaseCaches(typeface.nativeTypeface);
+        }
+    }
+
     /**
      * Returns the family name of this typeface.
      *
      * @return The family name of this typeface.
      */
     public String getFamilyName() {
-        return description.familyName;
+        return getDescription().familyName;
     }
 
     /**
@@ -148,7 +319,7 @@ public class Typeface {
      * @return The style name of this typeface.
      */
     public String getStyleName() {
-        return description.styleName;
+        return getDescription().styleName;
     }
 
     /**
@@ -157,7 +328,7 @@ public class Typeface {
      * @return The full name of this typeface.
      */
     public String getFullName() {
-        return description.fullName;
+        return getDescription().fullName;
     }
 
     /**
@@ -167,7 +338,7 @@ public class Typeface {
      * @return The typographic weight of this typeface.
      */
     public TypeWeight getWeight() {
-        return description.weight;
+        return getDescription().weight;
     }
 
     /**
@@ -177,7 +348,7 @@ public class Typeface {
      * @return The typographic width of this typeface.
      */
     public TypeWidth getWidth() {
-        return description.width;
+        return getDescription().width;
     }
 
     /**
@@ -187,7 +358,7 @@ public class Typeface {
      * @return The typographic slope of this typeface.
      */
     public TypeSlope getSlope() {
-        return description.slope;
+        return getDescription().slope;
     }
 
     /**
@@ -208,7 +379,7 @@ public class Typeface {
      * @return The number of font units per EM square for this typeface.
      */
 	public int getUnitsPerEm() {
-		return nativeGetUnitsPerEm(nativeTypeface);
+		return unitsPerEm;
 	}
 
     /**
@@ -217,7 +388,7 @@ public class Typeface {
      * @return The typographic ascender of this typeface expressed in font units.
      */
 	public int getAscent() {
-		return nativeGetAscent(nativeTypeface);
+		return ascent;
 	}
 
     /**
@@ -226,7 +397,7 @@ public class Typeface {
      * @return The typographic descender of this typeface expressed in font units.
      */
 	public int getDescent() {
-		return nativeGetDescent(nativeTypeface);
+		return descent;
 	}
 
     /**
@@ -235,7 +406,7 @@ public class Typeface {
      * @return The typographic leading of this typeface expressed in font units.
      */
     public int getLeading() {
-        return nativeGetLeading(nativeTypeface);
+        return leading;
     }
 
     /**
@@ -244,7 +415,7 @@ public class Typeface {
      * @return The number of glyphs in this typeface.
      */
 	public int getGlyphCount() {
-        return nativeGetGlyphCount(nativeTypeface);
+        return glyphCount;
     }
 
     /**
@@ -257,6 +428,68 @@ public class Typeface {
         return nativeGetGlyphId(nativeTypeface, codePoint);
     }
 
+    /**
+     * Retrieves the glyph ids for the code points in the specified range of text. The glyph ids
+     * are written consecutively, one for each code point, so a surrogate pair yields a single
+     * glyph id. A code point not supported by this typeface yields zero.
+     * <p>
+     * All the glyph ids are obtained in a single call, which makes it suitable for checking the
+     * coverage of a typeface.
+     *
+     * @param text The text whose code points are mapped.
+     * @param start The index of the first character in the text.
+     * @param end The index after the last character in the text.
+     * @param glyphIds The array into which the glyph ids are written. It must be able to hold a
+     *                 glyph id for every code point of the range.
+     * @return The number of glyph ids written into the array.
+     *
+     * @throws NullPointerException if <code>text</code> or <code>glyphIds</code> is null.
+     * @throws IllegalArgumentException if <code>start</code> is negative, or <code>end</code> is
+     *         greater than the length of <code>text</code>, or <code>start</code> is greater than
+     *         <code>end</code>.
+     * @throws ArrayIndexOutOfBoundsException if <code>glyphIds</code> cannot hold the glyph ids of
+     *         all code points.
+     */
+    public int getGlyphIds(CharSequence text, int start, int end, int[] glyphIds) {
+        if (text == null) {
+            throw new NullPointerException("Text is null");
+        }
+        if (glyphIds == null) {
+            throw new NullPointerException("Glyph ids array is null");
+        }
+        if (start < 0) {
+            throw new IllegalArgumentException("Start: " + start);
+        }
+        if (end > text.length()) {
+            throw new IllegalArgumentException("End: " + end + ", Text Length: " + text.length());
+        }
+        if (start > end) {
+            throw new IllegalArgumentException("Bad Range: [" + start + ".." + end + ")");
+        }
+
+        // Collect the code points in the array, which are then replaced with glyph ids natively.
+        int count = 0;
+        int index = start;
+        while (index < end) {
+            int codePoint = text.charAt(index++);
+            if (Character.isHighSurrogate((char) codePoint) && index < end) {
+                char low = text.charAt(index);
+                if (Character.isLowSurrogate(low)) {
+                    codePoint = Character.toCodePoint((char) codePoint, low);
+                    index++;
+                }
+            }
+
+            glyphIds[count++] = codePoint;
+        }
+
+        if (count > 0) {
+            nativeGetGlyphIds(nativeTypeface, glyphIds, count);
+        }
+
+        return count;
+    }
+
     /**
      * Retrieves the advance for the specified glyph.
      *
@@ -269,6 +502,37 @@ public class Typeface {
         return nativeGetGlyphAdvance(nativeTypeface, glyphId, typeSize, vertical);
     }
 
+    /**
+     * Retrieves the linear advances for the specified glyphs in a single call. The advances are
+     * scaled linearly from font units without any hinting, in the same way as the shaping engine
+     * does, so they match the advances of shaped text. They may differ from the hinted advances
+     * returned by {@link #getGlyphAdvance(int, float, boolean)}. An invalid glyph id yields zero
+     * advance.
+     *
+     * @param glyphIds The glyph ids for which to retrieve the advances.
+     * @param typeSize The size for which the advances are retrieved.
+     * @param vertical The flag which indicates the type of advances, either horizontal or vertical.
+     * @param advances The array into which the advances are written, one for each glyph id.
+     *
+     * @throws NullPointerException if <code>glyphIds</code> or <code>advances</code> is null.
+     * @throws IllegalArgumentException if <code>advances</code> is shorter than
+     *         <code>glyphIds</code>.
+     */
+    public void getLinearGlyphAdvances(int[] glyphIds, float typeSize, boolean vertical, float[] advances) {
+        if (glyphIds == null) {
+            throw new NullPointerException("Glyph ids array is null");
+        }
+        if (advances == null) {
+            throw new NullPointerException("Advances array is null");
+        }
+        if (advances.length < glyphIds.length) {
+            throw new IllegalArgumentException("Advances Length: " + advances.length
+                                               + ", Glyph Ids Length: " + glyphIds.length);
+        }
+
+        nativeGetLinearGlyphAdvances(nativeTypeface, glyphIds, typeSize, vertical, advances);
+    }
+
     /**
      * Generates the path for the specified glyph.
      *
@@ -295,10 +559,7 @@ public class Typeface {
      * @return The font bounding box expressed in font units.
      */
 	public Rect getBoundingBox() {
-	    Rect boundingBox = new Rect();
-	    nativeGetBoundingBox(nativeTypeface, boundingBox);
-
-	    return boundingBox;
+	    return new Rect(bboxLeft, bboxTop, bboxRight, bboxBottom);
 	}
 
     /**
@@ -307,7 +568,7 @@ public class Typeface {
      * @return The position, in font units, of the underline for this typeface.
      */
 	public int getUnderlinePosition() {
-	    return nativeGetUnderlinePosition(nativeTypeface);
+	    return underlinePosition;
 	}
 
     /**
@@ -316,7 +577,7 @@ public class Typeface {
      * @return The thickness, in font units, of the underline for this typeface.
      */
 	public int getUnderlineThickness() {
-	    return nativeGetUnderlineThickness(nativeTypeface);
+	    return underlineThickness;
 	}
 
     void dispose() {
@@ -345,22 +606,18 @@ public class Typeface {
     private static native long nativeCreateWithAsset(AssetManager assetManager, String path);
     private static native long nativeCreateWithFile(String path);
     private static native long nativeCreateFromStream(InputStream stream);
+    private static native long nativeCreateWithBuffer(ByteBuffer buffer, int offset, int length);
+    private static native long nativeCreateWithSource(FontSource source);
 	private static native void nativeDispose(long nativeTypeface);
+    private static native void nativeReleaseCaches(long nativeTypeface);
+    private static native int[] nativeLoadGlyphContours(long nativeTypeface, int glyphId);
 
     private static native byte[] nativeGetTableData(long nativeTypeface, int tableTag);
+    private static native void nativeGetMetrics(long nativeTypeface, int[] metrics);
 
-	private static native int nativeGetUnitsPerEm(long nativeTypeface);
-	private static native int nativeGetAscent(long nativeTypeface);
-	private static native int nativeGetDescent(long nativeTypeface);
-    private static native int nativeGetLeading(long nativeTypeface);
-
-	private static native int nativeGetGlyphCount(long nativeTypeface);
     private static native int nativeGetGlyphId(long nativeTypeface, int codePoint);
+    private static native void nativeGetGlyphIds(long nativeTypeface, int[] glyphIds, int count);
     private static native float nativeGetGlyphAdvance(long nativeTypeface, int glyphId, float typeSize, boolean vertical);
+    private static native void nativeGetLinearGlyphAdvances(long nativeTypeface, int[] glyphIds, float typeSize, boolean vertical, float[] advances);
     private static native Path nativeGetGlyphPath(long nativeTypeface, int glyphId, float typeSize, float[] matrix);
-
-	private static native void nativeGetBoundingBox(long nativeTypeface, Rect boundingBox);
-
-	private static native int nativeGetUnderlinePosition(long nativeTypeface);
-	private static native int nativeGetUnderlineThickness(long nativeTypeface);
 }
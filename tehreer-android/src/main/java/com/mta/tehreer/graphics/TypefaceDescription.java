@@ -183,7 +183,7 @@ class TypefaceDescription {
                                        weight, width, slope);
     }
 
-    private TypefaceDescription(String familyName, String styleName, String fullName,
+    TypefaceDescription(String familyName, String styleName, String fullName,
                         TypeWeight weight, TypeWidth width, TypeSlope slope) {
         this.familyName = familyName;
         this.styleName = styleName;
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.graphics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+//
+// File Layout:
+//  - Header
+//      magic, version, entry count
+//  - Entries
+//      path, length, last modified, family name, style name, full name, weight, width, slope
+//
+// An entry is valid only as long as the length and the modification time of its file remain the
+// same. A missing, damaged or outdated index file is treated as an empty index.
+//
+class TypefaceIndex {
+
+    private static final int MAGIC = 0x54544649;    // 'TTFI'
+    private static final int VERSION = 1;
+
+    private static class Entry {
+        final long length;
+        final long lastModified;
+        final TypefaceDescription description;
+
+        Entry(long length, long lastModified, TypefaceDescription description) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.description = description;
+        }
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+
+    TypefaceIndex() {
+    }
+
+    static TypefaceIndex read(File file) {
+        TypefaceIndex index = new TypefaceIndex();
+        if (file == null || !file.isFile()) {
+            return index;
+        }
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return index;
+            }
+
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                long length = input.readLong();
+                long lastModified = input.readLong();
+                String familyName = readName(input);
+                String styleName = readName(input);
+                String fullName = readName(input);
+                TypeWeight weight = TypeWeight.valueOf(input.readInt());
+                TypeWidth width = TypeWidth.valueOf(input.readInt());
+                int slopeIndex = input.readInt();
+                TypeSlope slope = null;
+                if (slopeIndex >= 0 && slopeIndex < TypeSlope.values().length) {
+                    slope = TypeSlope.values()[slopeIndex];
+                }
+
+                TypefaceDescription description = new TypefaceDescription(familyName, styleName,
+                                                                          fullName, weight, width,
+                                                                          slope);
+                index.entries.put(path, new Entry(length, lastModified, description));
+            }
+        } catch (IOException e) {
+            index.entries.clear();
+        } finally {
+            closeQuietly(input);
+        }
+
+        return index;
+    }
+
+    private static String readName(DataInputStream input) throws IOException {
+        return (input.readBoolean() ? input.readUTF() : null);
+    }
+
+    private static void writeName(DataOutputStream output, String name) throws IOException {
+        output.writeBoolean(name != null);
+        if (name != null) {
+            output.writeUTF(name);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    TypefaceDescription get(File fontFile) {
+        Entry entry = entries.get(fontFile.getAbsolutePath());
+        if (entry != null
+                && entry.length == fontFile.length()
+                && entry.lastModified == fontFile.lastModified()) {
+            return entry.description;
+        }
+
+        return null;
+    }
+
+    void put(File fontFile, TypefaceDescription description) {
+        entries.put(fontFile.getAbsolutePath(),
+                    new Entry(fontFile.length(), fontFile.lastModified(), description));
+    }
+
+    boolean write(File file) {
+        // Write into a temporary file first so that a reader never sees a partial index.
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream output = null;
+        boolean written = false;
+
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(entries.size());
+
+            for (Map.Entry<String, Entry> mapping : entries.entrySet()) {
+                Entry entry = mapping.getValue();
+                TypefaceDescription description = entry.description;
+
+                output.writeUTF(mapping.getKey());
+                output.writeLong(entry.length);
+                output.writeLong(entry.lastModified);
+                writeName(output, description.familyName);
+                writeName(output, description.styleName);
+                writeName(output, description.fullName);
+                output.writeInt(description.weight.value);
+                output.writeInt(description.width.value);
+                output.writeInt(description.slope.ordinal());
+            }
+
+            output.close();
+            output = null;
+
+            written = tempFile.renameTo(file);
+        } catch (IOException e) {
+            written = false;
+        } finally {
+            closeQuietly(output);
+            if (!written) {
+                tempFile.delete();
+            }
+        }
+
+        return written;
+    }
+}
@@ -16,19 +16,36 @@
 
 package com.mta.tehreer.graphics;
 
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The <code>TypefaceManager</code> class provides management activities related to typefaces.
  */
 public class TypefaceManager {
 
+    private static final String TAG = TypefaceManager.class.getSimpleName();
+
     private static class TypefaceComparator implements Comparator<Typeface> {
         @Override
         public int compare(Typeface obj1, Typeface obj2) {
@@ -41,13 +58,97 @@ public class TypefaceManager {
         }
     }
 
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+
+    //
+    // A snapshot is an immutable view of the registered typefaces along with the indexes for
+    // looking them up by name. The readers use the current snapshot without any locking. A
+    // registration only discards it, so that a new one is built once by the next reader, no
+    // matter how many typefaces are registered in between.
+    //
+    private static class Snapshot {
+        final List<Typeface> typefaces;
+        final List<TypeFamily> families;
+        final HashMap<String, Typeface> fullNames = new HashMap<>();
+        final HashMap<String, TypeFamily> familyNames = new HashMap<>();
+
+        Snapshot(ArrayList<Typeface> registered) {
+            // A full name shared by several typefaces refers to the one registered first.
+            for (Typeface typeface : registered) {
+                String fullKey = makeKey(typeface.getFullName());
+                if (!fullNames.containsKey(fullKey)) {
+                    fullNames.put(fullKey, typeface);
+                }
+            }
+
+            ArrayList<Typeface> sortedList = new ArrayList<>(registered);
+            Collections.sort(sortedList, new TypefaceComparator());
+
+            ArrayList<TypeFamily> familyList = new ArrayList<>();
+            ArrayList<Typeface> members = null;
+            String familyKey = null;
+
+            for (Typeface typeface : sortedList) {
+                // The typefaces of a family are adjacent as the list is sorted by family names.
+                String key = makeKey(typeface.getFamilyName());
+                if (!key.equals(familyKey)) {
+                    members = new ArrayList<>();
+                    familyKey = key;
+
+                    TypeFamily family = new TypeFamily(typeface.getFamilyName(),
+                                                       Collections.unmodifiableList(members));
+                    familyList.add(family);
+                    familyNames.put(key, family);
+                }
+
+                members.add(typeface);
+            }
+
+            this.typefaces = Collections.unmodifiableList(sortedList);
+            this.families = Collections.unmodifiableList(familyList);
+        }
+    }
+
+    private static final String[] FONT_EXTENSIONS = { ".ttf", ".otf" };
+
     private static final HashMap<Object, Typeface> tags = new HashMap<>();
+    private static final HashSet<Typeface> members = new HashSet<>();
     private static final ArrayList<Typeface> typefaces = new ArrayList<>();
-    private static boolean sorted;
+    private static volatile Snapshot snapshot;
+    private static ExecutorService executor;
 
     private TypefaceManager() {
     }
 
+    private static String makeKey(String name) {
+        return (name != null ? name.toLowerCase(Locale.ROOT) : "");
+    }
+
+    private static Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (TypefaceManager.class) {
+                current = snapshot;
+                if (current == null) {
+                    current = new Snapshot(typefaces);
+                    snapshot = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
     /**
      * Registers a typeface in <code>TypefaceManager</code>.
      *
@@ -64,7 +165,7 @@ public class TypefaceManager {
         }
 
         synchronized (TypefaceManager.class) {
-            if (typefaces.contains(typeface)) {
+            if (members.contains(typeface)) {
                 throw new IllegalArgumentException("This typeface is already registered");
             }
             if (tag != null) {
@@ -76,9 +177,327 @@ public class TypefaceManager {
                 typeface.tag = tag;
             }
 
-            sorted = false;
+            members.add(typeface);
             typefaces.add(typeface);
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Registers all the font files of the specified directory in <code>TypefaceManager</code>. The
+     * fonts are opened in parallel on a bounded number of threads. The files which could not be
+     * opened as fonts are skipped and logged. If the calling thread is interrupted while waiting
+     * for the fonts, nothing is registered, an empty list is returned and the interrupted status
+     * of the thread is kept set.
+     * <p>
+     * If an index file is given, the names and styles of the fonts are saved in it, and are read
+     * back from it by later registrations of the same directory, as long as the font files remain
+     * unchanged. This spares parsing the naming tables of each font, usually on every launch of
+     * the application. Each font is still opened while registering, since its metrics are read
+     * right away. The index may also be prepared ahead by {@link #indexDirectory(File, File)}.
+     *
+     * @param directory The directory containing the font files.
+     * @param indexFile An optional file for keeping the index of fonts. It may be
+     *                  <code>null</code>.
+     * @return A list of the registered typefaces in the order of their file names.
+     *
+     * @throws NullPointerException if <code>directory</code> is null.
+     * @throws IllegalArgumentException if <code>directory</code> cannot be listed.
+     */
+    public static List<Typeface> registerDirectory(File directory, File indexFile) {
+        List<File> fontFiles = listFontFiles(directory);
+        final TypefaceIndex index = TypefaceIndex.read(indexFile);
+        ArrayList<String> fontPaths = new ArrayList<>();
+        ArrayList<Callable<Typeface>> tasks = new ArrayList<>();
+
+        for (final File file : fontFiles) {
+            fontPaths.add(file.getPath());
+            tasks.add(new Callable<Typeface>() {
+                @Override
+                public Typeface call() {
+                    Typeface typeface = new Typeface(file);
+                    TypefaceDescription description = index.get(file);
+                    if (description != null) {
+                        typeface.seedDescription(description);
+                    } else {
+                        typeface.getDescription();
+                    }
+
+                    return typeface;
+                }
+            });
+        }
+
+        List<Typeface> results = openInParallel(tasks, fontPaths);
+        if (results == null) {
+            // Leave the index untouched as the fonts were not opened completely.
+            return Collections.emptyList();
+        }
+
+        if (indexFile != null) {
+            ArrayList<TypefaceDescription> descriptions = new ArrayList<>(results.size());
+            for (Typeface typeface : results) {
+                descriptions.add(typeface != null ? typeface.getDescription() : null);
+            }
+
+            updateIndex(index, fontFiles, descriptions, indexFile);
         }
+
+        return registerAll(results);
+    }
+
+    /**
+     * Brings the index file of the specified directory up to date without registering any font.
+     * Only the fonts which are missing from the index, or have changed since it was written, are
+     * opened, in parallel on a bounded number of threads, and are released afterwards. The files
+     * which could not be opened as fonts are skipped and logged. If the calling thread is
+     * interrupted while waiting for the fonts, the index is left untouched, zero is returned and
+     * the interrupted status of the thread is kept set.
+     * <p>
+     * This may be called once the fonts of a directory are installed, for example on a background
+     * thread, so that the later calls to {@link #registerDirectory(File, File)} find every font in
+     * the index.
+     *
+     * @param directory The directory containing the font files.
+     * @param indexFile The file for keeping the index of fonts.
+     * @return The number of fonts in the index.
+     *
+     * @throws NullPointerException if <code>directory</code> or <code>indexFile</code> is null.
+     * @throws IllegalArgumentException if <code>directory</code> cannot be listed.
+     */
+    public static int indexDirectory(File directory, File indexFile) {
+        List<File> fontFiles = listFontFiles(directory);
+        if (indexFile == null) {
+            throw new NullPointerException("Index file is null");
+        }
+
+        TypefaceIndex index = TypefaceIndex.read(indexFile);
+        ArrayList<TypefaceDescription> descriptions = new ArrayList<>(fontFiles.size());
+        ArrayList<Integer> staleIndexes = new ArrayList<>();
+        ArrayList<String> stalePaths = new ArrayList<>();
+        ArrayList<Callable<TypefaceDescription>> tasks = new ArrayList<>();
+
+        for (final File file : fontFiles) {
+            TypefaceDescription description = index.get(file);
+            descriptions.add(description);
+
+            if (description == null) {
+                staleIndexes.add(descriptions.size() - 1);
+                stalePaths.add(file.getPath());
+                tasks.add(new Callable<TypefaceDescription>() {
+                    @Override
+                    public TypefaceDescription call() {
+                        return new Typeface(file).getDescription();
+                    }
+                });
+            }
+        }
+
+        List<TypefaceDescription> results = openInParallel(tasks, stalePaths);
+        if (results == null) {
+            return 0;
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            descriptions.set(staleIndexes.get(i), results.get(i));
+        }
+
+        return updateIndex(index, fontFiles, descriptions, indexFile);
+    }
+
+    private static List<File> listFontFiles(File directory) {
+        if (directory == null) {
+            throw new NullPointerException("Directory is null");
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IllegalArgumentException("The directory cannot be listed");
+        }
+
+        Arrays.sort(files);
+
+        ArrayList<File> fontFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile() && isFontFile(file.getName())) {
+                fontFiles.add(file);
+            }
+        }
+
+        return fontFiles;
+    }
+
+    private static int updateIndex(TypefaceIndex index, List<File> fontFiles,
+                                   List<TypefaceDescription> descriptions, File indexFile) {
+        TypefaceIndex updatedIndex = new TypefaceIndex();
+        int reusedCount = 0;
+
+        for (int i = 0; i < fontFiles.size(); i++) {
+            TypefaceDescription description = descriptions.get(i);
+            if (description != null) {
+                File file = fontFiles.get(i);
+                if (description == index.get(file)) {
+                    reusedCount++;
+                }
+
+                updatedIndex.put(file, description);
+            }
+        }
+
+        // Rewrite the index only if the fonts have changed since it was written.
+        if (reusedCount != updatedIndex.size() || reusedCount != index.size()) {
+            updatedIndex.write(indexFile);
+        }
+
+        return updatedIndex.size();
+    }
+
+    /**
+     * Registers all the font files of the specified assets directory in
+     * <code>TypefaceManager</code>. The fonts are opened in parallel on a bounded number of
+     * threads. The files which could not be opened as fonts are skipped and logged. If the calling
+     * thread is interrupted while waiting for the fonts, nothing is registered, an empty list is
+     * returned and the interrupted status of the thread is kept set.
+     *
+     * @param assetManager The application's asset manager.
+     * @param directory The path of the directory in the assets.
+     * @return A list of the registered typefaces in the order of their file names.
+     *
+     * @throws NullPointerException if <code>assetManager</code> or <code>directory</code> is null.
+     * @throws RuntimeException if the assets directory cannot be listed.
+     */
+    public static List<Typeface> registerAssets(final AssetManager assetManager, String directory) {
+        if (assetManager == null) {
+            throw new NullPointerException("Asset manager is null");
+        }
+        if (directory == null) {
+            throw new NullPointerException("Directory is null");
+        }
+
+        String[] names;
+        try {
+            names = assetManager.list(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not list specified assets directory", e);
+        }
+        if (names == null) {
+            names = new String[0];
+        }
+
+        Arrays.sort(names);
+
+        ArrayList<String> fontPaths = new ArrayList<>();
+        ArrayList<Callable<Typeface>> tasks = new ArrayList<>();
+
+        for (String name : names) {
+            if (!isFontFile(name)) {
+                continue;
+            }
+
+            final String path = (directory.isEmpty() ? name : directory + "/" + name);
+            fontPaths.add(path);
+            tasks.add(new Callable<Typeface>() {
+                @Override
+                public Typeface call() {
+                    Typeface typeface = new Typeface(assetManager, path);
+                    typeface.getDescription();
+
+                    return typeface;
+                }
+            });
+        }
+
+        List<Typeface> results = openInParallel(tasks, fontPaths);
+        if (results == null) {
+            return Collections.emptyList();
+        }
+
+        return registerAll(results);
+    }
+
+    private static boolean isFontFile(String name) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (String extension : FONT_EXTENSIONS) {
+            if (lowerName.endsWith(extension)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            // NOTE:
+            //      A single pool bounded by the processor count is shared by all registrations.
+            //      Its threads are daemons and time out when idle, so the pool neither keeps the
+            //      process alive nor holds threads once the fonts are opened.
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threadCount, threadCount,
+                                                             1, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<Runnable>(),
+                                                             new DaemonThreadFactory());
+            pool.allowCoreThreadTimeOut(true);
+
+            executor = pool;
+        }
+
+        return executor;
+    }
+
+    private static <T> List<T> openInParallel(List<Callable<T>> tasks, List<String> paths) {
+        ArrayList<T> results = new ArrayList<>(tasks.size());
+        if (tasks.isEmpty()) {
+            return results;
+        }
+
+        // NOTE:
+        //      The result of a font which could not be opened is kept as null, so that the results
+        //      remain parallel to the tasks. If the waiting thread is interrupted, the pending
+        //      tasks are cancelled and null is returned in place of partial results.
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(getExecutor().submit(task));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                T result = null;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Could not open font: " + paths.get(i), e.getCause());
+                }
+
+                results.add(result);
+            }
+        } catch (InterruptedException e) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+
+            return null;
+        }
+
+        return results;
+    }
+
+    private static List<Typeface> registerAll(List<Typeface> results) {
+        ArrayList<Typeface> registered = new ArrayList<>(results.size());
+
+        synchronized (TypefaceManager.class) {
+            for (Typeface typeface : results) {
+                if (typeface != null && members.add(typeface)) {
+                    typefaces.add(typeface);
+                    registered.add(typeface);
+                }
+            }
+
+            snapshot = null;
+        }
+
+        return Collections.unmodifiableList(registered);
     }
 
     /**
@@ -95,14 +514,14 @@ public class TypefaceManager {
         }
 
         synchronized (TypefaceManager.class) {
-            int index = typefaces.indexOf(typeface);
-            if (index < 0) {
+            if (!members.remove(typeface)) {
                 throw new IllegalArgumentException("This typeface is not registered");
             }
 
-            typefaces.remove(index);
+            typefaces.remove(typeface);
             tags.remove(typeface.tag);
             typeface.tag = null;
+            snapshot = null;
         }
     }
 
@@ -120,6 +539,8 @@ public class TypefaceManager {
             throw new NullPointerException("Tag is null");
         }
 
+        // The tags are looked up directly, so that registering a typeface does not make the next
+        // lookup rebuild the whole snapshot.
         synchronized (TypefaceManager.class) {
             return tags.get(tag);
         }
@@ -141,7 +562,7 @@ public class TypefaceManager {
         }
 
         synchronized (TypefaceManager.class) {
-            if (!typefaces.contains(typeface)) {
+            if (!members.contains(typeface)) {
                 throw new IllegalArgumentException("This typeface is not registered");
             }
 
@@ -157,49 +578,124 @@ public class TypefaceManager {
      *         registered.
      */
     public static Typeface getTypefaceByName(String fullName) {
-        synchronized (TypefaceManager.class) {
-            for (Typeface typeface : typefaces) {
-                if (typeface.getFullName().equalsIgnoreCase(fullName)) {
-                    return typeface;
-                }
-            }
+        if (fullName == null) {
+            return null;
         }
 
-        return null;
+        return getSnapshot().fullNames.get(makeKey(fullName));
     }
 
     /**
-     * Returns a list of available type families sorted by their names in ascending order.
+     * Looks for a registered type family having specified name.
      *
-     * @return A list of available type families.
+     * @param familyName The name of the family.
+     * @return The type family having specified name, or <code>null</code> if no typeface of such
+     *         family is registered.
      */
-    public static List<TypeFamily> getAvailableFamilies() {
-        Map<String, List<Typeface>> familyMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    public static TypeFamily getFamilyByName(String familyName) {
+        if (familyName == null) {
+            return null;
+        }
 
-        synchronized (TypefaceManager.class) {
-            sortTypefaces();
+        return getSnapshot().familyNames.get(makeKey(familyName));
+    }
 
-            for (Typeface typeface : typefaces) {
-                List<Typeface> entryList = familyMap.get(typeface.getFamilyName());
-                if (entryList == null) {
-                    entryList = new ArrayList<>();
-                    familyMap.put(typeface.getFamilyName(), entryList);
-                }
+    /**
+     * Looks for the registered typeface of specified family which best matches the given style.
+     * The width is matched first, then the slope and then the weight, in the same order as the
+     * font matching of CSS.
+     *
+     * @param familyName The name of the family.
+     * @param weight The desired weight of the typeface.
+     * @param width The desired width of the typeface.
+     * @param slope The desired slope of the typeface.
+     * @return The typeface of specified family which is closest to the given style, or
+     *         <code>null</code> if no typeface of such family is registered.
+     *
+     * @throws NullPointerException if <code>weight</code>, <code>width</code> or
+     *         <code>slope</code> is null.
+     */
+    public static Typeface getTypefaceByStyle(String familyName,
+                                              TypeWeight weight, TypeWidth width, TypeSlope slope) {
+        if (weight == null) {
+            throw new NullPointerException("Weight is null");
+        }
+        if (width == null) {
+            throw new NullPointerException("Width is null");
+        }
+        if (slope == null) {
+            throw new NullPointerException("Slope is null");
+        }
+
+        TypeFamily family = getFamilyByName(familyName);
+        if (family == null) {
+            return null;
+        }
+
+        Typeface bestTypeface = null;
+        int bestRank = Integer.MAX_VALUE;
 
-                entryList.add(typeface);
+        for (Typeface typeface : family.getTypefaces()) {
+            int rank = (widthRank(width.value, typeface.getWidth().value) * 100
+                        + slopeRank(slope, typeface.getSlope())) * 10000
+                       + weightRank(weight.value, typeface.getWeight().value);
+            if (rank < bestRank) {
+                bestTypeface = typeface;
+                bestRank = rank;
             }
         }
 
-        List<TypeFamily> familyList = new ArrayList<>(familyMap.size());
+        return bestTypeface;
+    }
 
-        for (Map.Entry<String, List<Typeface>> entry : familyMap.entrySet()) {
-            String familyName = entry.getKey();
-            List<Typeface> typefaces = entry.getValue();
+    private static int widthRank(int desired, int actual) {
+        // Narrower widths are preferred for a normal or condensed width, wider ones otherwise.
+        if (desired <= TypeWidth.NORMAL.value) {
+            return (actual <= desired ? desired - actual : 10 + actual - desired);
+        }
 
-            familyList.add(new TypeFamily(familyName, typefaces));
+        return (actual >= desired ? actual - desired : 10 + desired - actual);
+    }
+
+    private static int slopeRank(TypeSlope desired, TypeSlope actual) {
+        if (actual == desired) {
+            return 0;
+        }
+        if (desired != TypeSlope.PLAIN && actual != TypeSlope.PLAIN) {
+            return 1;
         }
 
-        return Collections.unmodifiableList(familyList);
+        return 2;
+    }
+
+    private static int weightRank(int desired, int actual) {
+        // The weights between regular and medium look for the heavier ones up to medium first,
+        // then for the lighter ones and then for the rest. A lighter weight looks for the lighter
+        // ones first, and a heavier weight for the heavier ones first.
+        if (desired >= TypeWeight.REGULAR.value && desired <= TypeWeight.MEDIUM.value) {
+            if (actual >= desired && actual <= TypeWeight.MEDIUM.value) {
+                return actual - desired;
+            }
+            if (actual < desired) {
+                return 1000 + desired - actual;
+            }
+
+            return 2000 + actual - desired;
+        }
+        if (desired < TypeWeight.REGULAR.value) {
+            return (actual <= desired ? desired - actual : 1000 + actual - desired);
+        }
+
+        return (actual >= desired ? actual - desired : 1000 + desired - actual);
+    }
+
+    /**
+     * Returns a list of available type families sorted by their names in ascending order.
+     *
+     * @return A list of available type families.
+     */
+    public static List<TypeFamily> getAvailableFamilies() {
+        return getSnapshot().families;
     }
 
     /**
@@ -209,17 +705,6 @@ public class TypefaceManager {
      * @return A list of available typefaces.
      */
     public static List<Typeface> getAvailableTypefaces() {
-        synchronized (TypefaceManager.class) {
-            sortTypefaces();
-
-            return Collections.unmodifiableList(new ArrayList<>(typefaces));
-        }
-    }
-
-    private static void sortTypefaces() {
-        if (!sorted) {
-            Collections.sort(typefaces, new TypefaceComparator());
-            sorted = true;
-        }
+        return getSnapshot().typefaces;
     }
 }
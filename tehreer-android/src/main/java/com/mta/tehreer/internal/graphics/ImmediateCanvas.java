@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.internal.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+//
+// A canvas which draws into its bitmap right away instead of recording the draw calls, so that a
+// bitmap drawn on it can be modified again as soon as the call returns.
+//
+public class ImmediateCanvas extends Canvas {
+
+    public ImmediateCanvas(Bitmap bitmap) {
+        super(bitmap);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.internal.util;
+
+//
+// A count-min sketch estimating how often each item has been seen recently, in the manner of
+// TinyLFU. Every long of the table holds sixteen 4-bit counters, and an item is counted in four of
+// them picked by independent hashes. Once enough items have been added, all counters are halved so
+// that the old popularity fades away. The sketch is not thread safe.
+//
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+        0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_TABLE_LENGTH = 1 << 22;
+
+    private long[] table = new long[0];
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+
+    void ensureCapacity(int itemCount) {
+        int length = 16;
+        while (length < itemCount && length < MAX_TABLE_LENGTH) {
+            length <<= 1;
+        }
+
+        if (length > table.length) {
+            long[] oldTable = table;
+            long[] newTable = new long[length];
+
+            // NOTE:
+            //      An index is taken from the low bits of a hash, so a counter of the old table
+            //      covers the items of all new counters sharing those bits. It is copied into each
+            //      of them, halved like on a reset, so that the popularity seen so far is kept
+            //      without being overstated.
+            if (oldTable.length > 0) {
+                int oldMask = oldTable.length - 1;
+                for (int i = 0; i < length; i++) {
+                    newTable[i] = (oldTable[i & oldMask] >>> 1) & RESET_MASK;
+                }
+            }
+
+            table = newTable;
+            tableMask = length - 1;
+            sampleSize = length * 10;
+            additions >>>= 1;
+        }
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45D9F3B;
+        hash = ((hash >>> 16) ^ hash) * 0x45D9F3B;
+        return (hash >>> 16) ^ hash;
+    }
+
+    private int indexOf(int hash, int depth) {
+        long value = (hash + SEEDS[depth]) * SEEDS[depth];
+        value += (value >>> 32);
+        return ((int) value) & tableMask;
+    }
+
+    int frequency(int hash) {
+        if (table.length == 0) {
+            return 0;
+        }
+
+        hash = spread(hash);
+
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+
+        for (int i = 0; i < 4; i++) {
+            int shift = (start + i) << 2;
+            int count = (int) ((table[indexOf(hash, i)] >>> shift) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    void increment(int hash) {
+        if (table.length == 0) {
+            return;
+        }
+
+        hash = spread(hash);
+
+        int start = (hash & 3) << 2;
+        boolean added = false;
+
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int shift = (start + i) << 2;
+            long mask = 0xFL << shift;
+
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        int oddCount = 0;
+        for (int i = 0; i < table.length; i++) {
+            oddCount += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+
+        additions = (additions >>> 1) - (oddCount >>> 2);
+    }
+}
@@ -16,23 +16,69 @@
 
 package com.mta.tehreer.internal.util;
 
-import java.util.HashMap;
-
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+//
+// Lookups never block. A hit only records the accessed node in a small lossy buffer picked by the
+// calling thread, and the recorded accesses are replayed on the shared LRU list later while holding
+// the eviction lock. Insertions, removals and evictions are serialized by the same lock.
+//
+// Every node is also linked in a list of its own segment kept in the same order, so that a segment
+// going over its quota can be trimmed from its cold end directly.
+//
+// The victim is normally the least recently used entry. Other policies look at a few entries from
+// the cold end of the list and pick the one seen least often according to a frequency sketch, or
+// the largest one. Either way, the entries used recently are never evicted before the cold ones.
+//
 @SuppressWarnings({ "rawtypes", "unchecked" })
 public abstract class LruCache {
 
+    private static final int BUFFER_COUNT;
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+    private static final int VICTIM_SAMPLE_SIZE = 8;
+
+    public static final int LRU_POLICY = 0;
+    public static final int FREQUENCY_POLICY = 1;
+    public static final int SIZE_POLICY = 2;
+
+    static {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int bufferCount = 1;
+        while (bufferCount < processors * 2) {
+            bufferCount <<= 1;
+        }
+
+        BUFFER_COUNT = bufferCount;
+    }
+
     private static class Node<K, V> {
 
         public final Segment<K, V> segment;
         public final K key;
-        public V value;
+        public final V value;
+        public final int weight;
+        public final int hash;
         public Node<K, V> previous;
         public Node<K, V> next;
+        public Node<K, V> segmentPrevious;
+        public Node<K, V> segmentNext;
 
-        public Node(Segment<K, V> segment, K key, V value) {
+        public Node(Segment<K, V> segment, K key, V value, int weight) {
             this.segment = segment;
             this.key = key;
             this.value = value;
+            this.weight = weight;
+            this.hash = (segment != null ? segment.hashCode() * 31 + key.hashCode() : 0);
+        }
+
+        public boolean isLinked() {
+            return next != null;
         }
     }
 
@@ -41,7 +87,7 @@ public abstract class LruCache {
         Node header;
 
         public List() {
-            header = new Node(null, null, null);
+            header = new Node(null, null, null, 0);
             header.previous = header.next = header;
         }
 
@@ -66,16 +112,61 @@ public abstract class LruCache {
             node.next.previous = node.previous;
             node.next = node.previous = null;
         }
+    }
 
-        public void clear() {
-            header.previous = header.next = header;
+    private static class ReadBuffer {
+
+        final AtomicLong readCounter = new AtomicLong();
+        final AtomicLong writeCounter = new AtomicLong();
+        final AtomicReferenceArray<Node> nodes = new AtomicReferenceArray<>(BUFFER_SIZE);
+
+        // Returns the number of pending accesses, or zero if the access was dropped.
+        int offer(Node node) {
+            long head = readCounter.get();
+            long tail = writeCounter.get();
+            long pending = tail - head;
+
+            if (pending >= BUFFER_SIZE) {
+                return 0;
+            }
+            if (!writeCounter.compareAndSet(tail, tail + 1)) {
+                return 0;
+            }
+
+            nodes.lazySet((int) (tail & BUFFER_MASK), node);
+            return (int) (pending + 1);
+        }
+
+        void drainTo(LruCache cache) {
+            long head = readCounter.get();
+            long tail = writeCounter.get();
+
+            for (; head != tail; head++) {
+                int index = (int) (head & BUFFER_MASK);
+                Node node = nodes.get(index);
+                if (node == null) {
+                    // The writer has not published the node yet.
+                    break;
+                }
+
+                nodes.lazySet(index, null);
+                if (node.isLinked()) {
+                    cache.list.makeFirst(node);
+                    node.segment.makeFirst(node);
+                    cache.recordFrequency(node);
+                }
+            }
+
+            readCounter.lazySet(head);
         }
     }
 
     protected static class Segment<K, V> {
 
         protected final LruCache cache;
-        private HashMap<K, Node<K, V>> map;
+        private final ConcurrentHashMap<K, Node<K, V>> map;
+        private final Node<K, V> header;
+        private volatile int size;
 
         public Segment(LruCache cache) {
             if (cache == null) {
@@ -83,93 +174,405 @@ public abstract class LruCache {
             }
 
             this.cache = cache;
-            this.map = new HashMap<>();
+            this.map = new ConcurrentHashMap<>();
+            this.header = new Node<>(null, null, null, 0);
+            this.header.segmentPrevious = this.header.segmentNext = this.header;
+        }
+
+        // The segment list is guarded by the eviction lock, just like the shared one.
+
+        private void addFirst(Node<K, V> node) {
+            node.segmentPrevious = header;
+            node.segmentNext = header.segmentNext;
+            header.segmentNext.segmentPrevious = node;
+            header.segmentNext = node;
+        }
+
+        private void removeNode(Node<K, V> node) {
+            node.segmentPrevious.segmentNext = node.segmentNext;
+            node.segmentNext.segmentPrevious = node.segmentPrevious;
+            node.segmentNext = node.segmentPrevious = null;
+        }
+
+        private void makeFirst(Node<K, V> node) {
+            removeNode(node);
+            addFirst(node);
         }
 
         protected int sizeOf(K key, V value) {
             return 1;
         }
 
+        protected void entryEvicted(K key, V value) {
+        }
+
+        public final int size() {
+            return size;
+        }
+
+        // Accounts for the memory which is held by the segment itself rather than by its entries.
+        public final void adjustSize(int delta) {
+            cache.evictionLock.lock();
+            try {
+                size += delta;
+                cache.size += delta;
+            } finally {
+                cache.evictionLock.unlock();
+            }
+
+            if (delta > 0) {
+                cache.trimSegment(this);
+                cache.trimToSize(cache.capacity);
+            }
+        }
+
         public final V get(K key) {
-            synchronized (cache) {
-                Node<K, V> node = map.get(key);
-                if (node != null) {
-                    cache.list.makeFirst(node);
-                    return node.value;
-                }
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                cache.recordAccess(node);
+                return node.value;
             }
 
             return null;
         }
 
-        public final void put(K key, V value) {
-            synchronized (cache) {
-                Node<K, V> newNode = new Node<>(this, key, value);
-                Node<K, V> oldNode = map.put(key, newNode);
+        public final V put(K key, V value) {
+            Node<K, V> newNode = new Node<>(this, key, value, sizeOf(key, value));
+            Node<K, V> oldNode;
+
+            cache.evictionLock.lock();
+            try {
+                oldNode = map.put(key, newNode);
                 if (oldNode != null) {
-                    throw new IllegalArgumentException("An entry with same key has already been added");
+                    cache.unlink(oldNode);
+                } else {
+                    cache.recordFrequency(newNode);
+                }
+                cache.link(newNode);
+            } finally {
+                cache.evictionLock.unlock();
+            }
+
+            // NOTE:
+            //      A different value might have been put by another thread since this one was
+            //      looked up. It is no longer reachable from the cache, so it is treated as evicted.
+            if (oldNode != null && oldNode.value != value) {
+                cache.notifyEvicted(oldNode);
+            }
+
+            cache.trimSegment(this);
+            cache.trimToSize(cache.capacity);
+
+            return (oldNode != null ? oldNode.value : null);
+        }
+
+        public final V putIfAbsent(K key, V value) {
+            Node<K, V> newNode = new Node<>(this, key, value, sizeOf(key, value));
+            Node<K, V> oldNode;
+
+            cache.evictionLock.lock();
+            try {
+                oldNode = map.putIfAbsent(key, newNode);
+                if (oldNode == null) {
+                    cache.recordFrequency(newNode);
+                    cache.link(newNode);
                 }
+            } finally {
+                cache.evictionLock.unlock();
+            }
 
-                cache.size += sizeOf(key, value);
-                cache.list.addFirst(newNode);
+            if (oldNode != null) {
+                return oldNode.value;
             }
 
+            cache.trimSegment(this);
             cache.trimToSize(cache.capacity);
+
+            return null;
         }
 
         public final void remove(K key) {
-            synchronized (cache) {
+            cache.evictionLock.lock();
+            try {
                 Node<K, V> node = map.remove(key);
                 if (node != null) {
-                    cache.size -= sizeOf(key, node.value);
-                    cache.list.remove(node);
+                    cache.unlink(node);
+                }
+            } finally {
+                cache.evictionLock.unlock();
+            }
+        }
+
+        public final void evictAll() {
+            ArrayList<Node> evictedNodes = new ArrayList<>();
+
+            cache.evictionLock.lock();
+            try {
+                for (Node<K, V> node : map.values()) {
+                    if (map.remove(node.key, node)) {
+                        cache.unlink(node);
+                        evictedNodes.add(node);
+                    }
                 }
+            } finally {
+                cache.evictionLock.unlock();
             }
+
+            cache.notifyEvicted(evictedNodes);
         }
     }
 
-    private List list;
-    private int capacity;
-    private int size;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ReadBuffer[] readBuffers;
+    private final List list;
+    private final FrequencySketch sketch;
+    private volatile int capacity;
+    private volatile int segmentQuota;
+    private volatile int evictionPolicy;
+    private volatile int size;
+    private int count;
 
     public LruCache(int capacity) {
         if (capacity <= 0) {
             throw new IllegalArgumentException("Invalid Capacity: " + capacity);
         }
 
+        this.readBuffers = new ReadBuffer[BUFFER_COUNT];
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+
         this.list = new List();
+        this.sketch = new FrequencySketch();
         this.capacity = capacity;
+        this.segmentQuota = 0;
+        this.evictionPolicy = LRU_POLICY;
         this.size = 0;
     }
 
-    public synchronized final int capacity() {
+    public final int capacity() {
         return capacity;
     }
 
-    public synchronized final int size() {
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid Capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+        trimToSize(capacity);
+    }
+
+    public final int segmentQuota() {
+        return segmentQuota;
+    }
+
+    public void setSegmentQuota(int segmentQuota) {
+        if (segmentQuota < 0) {
+            throw new IllegalArgumentException("Invalid Segment Quota: " + segmentQuota);
+        }
+
+        this.segmentQuota = segmentQuota;
+    }
+
+    public final int evictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public void setEvictionPolicy(int evictionPolicy) {
+        if (evictionPolicy < LRU_POLICY || evictionPolicy > SIZE_POLICY) {
+            throw new IllegalArgumentException("Invalid Eviction Policy: " + evictionPolicy);
+        }
+
+        evictionLock.lock();
+        try {
+            this.evictionPolicy = evictionPolicy;
+            if (evictionPolicy == FREQUENCY_POLICY) {
+                sketch.ensureCapacity(count);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public final int size() {
         return size;
     }
 
-    public synchronized void clear() {
-        list.clear();
+    public void clear() {
+        ArrayList<Node> evictedNodes = new ArrayList<>();
+
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+
+            // NOTE:
+            //      The entries are evicted just like trimming does, so that the segments are told
+            //      about them and keep the size they have adjusted for memory of their own.
+            Node node = list.last();
+            while (node != list.header) {
+                Node previous = node.previous;
+                node.segment.map.remove(node.key, node);
+                unlink(node);
+                evictedNodes.add(node);
+                node = previous;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        notifyEvicted(evictedNodes);
     }
 
     public void trimToSize(int maxSize) {
-        while (true) {
-            synchronized (this) {
-                if (size <= maxSize) {
-                    break;
-                }
+        if (size <= maxSize) {
+            return;
+        }
+
+        ArrayList<Node> evictedNodes = new ArrayList<>();
 
-                Node toEvict = list.last();
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+
+            while (size > maxSize) {
+                Node toEvict = selectVictim();
                 if (toEvict == list.header) {
                     break;
                 }
 
-                Segment segment = toEvict.segment;
-                Object key = toEvict.key;
-                segment.remove(key);
+                toEvict.segment.map.remove(toEvict.key, toEvict);
+                unlink(toEvict);
+                evictedNodes.add(toEvict);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        notifyEvicted(evictedNodes);
+    }
+
+    private void trimSegment(Segment segment) {
+        int quota = segmentQuota;
+        if (quota == 0 || segment.size <= quota) {
+            return;
+        }
+
+        ArrayList<Node> evictedNodes = new ArrayList<>();
+
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+
+            Node node = segment.header.segmentPrevious;
+            while (segment.size > quota && node != segment.header) {
+                Node previous = node.segmentPrevious;
+                segment.map.remove(node.key, node);
+                unlink(node);
+                evictedNodes.add(node);
+                node = previous;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        notifyEvicted(evictedNodes);
+    }
+
+    private void notifyEvicted(ArrayList<Node> evictedNodes) {
+        int evictedSize = 0;
+        for (Node node : evictedNodes) {
+            evictedSize += node.weight;
+            node.segment.entryEvicted(node.key, node.value);
+        }
+
+        if (!evictedNodes.isEmpty()) {
+            entriesEvicted(evictedNodes.size(), evictedSize);
+        }
+    }
+
+    private void notifyEvicted(Node node) {
+        node.segment.entryEvicted(node.key, node.value);
+        entriesEvicted(1, node.weight);
+    }
+
+    protected void entriesEvicted(int count, int size) {
+    }
+
+    private Node selectVictim() {
+        Node victim = list.last();
+        int policy = evictionPolicy;
+        if (policy == LRU_POLICY || victim == list.header) {
+            return victim;
+        }
+
+        int victimFrequency = (policy == FREQUENCY_POLICY ? sketch.frequency(victim.hash) : 0);
+        Node node = victim;
+
+        for (int i = 1; i < VICTIM_SAMPLE_SIZE; i++) {
+            node = node.previous;
+            if (node == list.header) {
+                break;
+            }
+
+            if (policy == FREQUENCY_POLICY) {
+                int frequency = sketch.frequency(node.hash);
+                if (frequency < victimFrequency) {
+                    victim = node;
+                    victimFrequency = frequency;
+                }
+            } else if (node.weight > victim.weight) {
+                victim = node;
+            }
+        }
+
+        return victim;
+    }
+
+    private void recordFrequency(Node node) {
+        if (evictionPolicy == FREQUENCY_POLICY) {
+            sketch.increment(node.hash);
+        }
+    }
+
+    private void link(Node node) {
+        size += node.weight;
+        node.segment.size += node.weight;
+        list.addFirst(node);
+        node.segment.addFirst(node);
+
+        count++;
+        if (evictionPolicy == FREQUENCY_POLICY) {
+            sketch.ensureCapacity(count);
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.isLinked()) {
+            size -= node.weight;
+            node.segment.size -= node.weight;
+            list.remove(node);
+            node.segment.removeNode(node);
+            count--;
+        }
+    }
+
+    private void recordAccess(Node node) {
+        int index = (int) (Thread.currentThread().getId() & (BUFFER_COUNT - 1));
+        int pending = readBuffers[index].offer(node);
+
+        if (pending >= DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
             }
         }
     }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+    }
 }
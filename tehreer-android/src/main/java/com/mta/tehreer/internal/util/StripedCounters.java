@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.internal.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//
+// A group of counters spread over a few stripes so that threads updating them at the same time
+// rarely touch the same cache line. Each stripe keeps all counters of the group together and is
+// padded to a multiple of 64 bytes. The value of a counter is the sum of its cells in all stripes.
+//
+public class StripedCounters {
+
+    private static final int STRIPE_COUNT;
+    private static final int CELLS_PER_LINE = 8;
+
+    static {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripeCount = 1;
+        while (stripeCount < processors && stripeCount < 16) {
+            stripeCount <<= 1;
+        }
+
+        STRIPE_COUNT = stripeCount;
+    }
+
+    private final int counterCount;
+    private final int stride;
+    private final AtomicLongArray cells;
+
+    public StripedCounters(int counterCount) {
+        if (counterCount <= 0) {
+            throw new IllegalArgumentException("Invalid counter count: " + counterCount);
+        }
+
+        this.counterCount = counterCount;
+        this.stride = (counterCount + CELLS_PER_LINE - 1) & ~(CELLS_PER_LINE - 1);
+        this.cells = new AtomicLongArray(stride * STRIPE_COUNT);
+    }
+
+    public int counterCount() {
+        return counterCount;
+    }
+
+    public void add(int counter, long delta) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPE_COUNT - 1));
+        cells.getAndAdd((stripe * stride) + counter, delta);
+    }
+
+    public void increment(int counter) {
+        add(counter, 1);
+    }
+
+    public long sum(int counter) {
+        long sum = 0;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            sum += cells.get((i * stride) + counter);
+        }
+
+        return sum;
+    }
+}
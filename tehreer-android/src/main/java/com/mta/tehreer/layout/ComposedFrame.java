@@ -17,6 +17,7 @@
 package com.mta.tehreer.layout;
 
 import android.graphics.Canvas;
+import android.graphics.RectF;
 
 import com.mta.tehreer.graphics.Renderer;
 import com.mta.tehreer.internal.Description;
@@ -33,6 +34,7 @@ public class ComposedFrame {
     private int mCharStart;
     private int mCharEnd;
     private List<ComposedLine> mLineList;
+    private RenderCache mRenderCache;
 
     ComposedFrame(int charStart, int charEnd, List<ComposedLine> lineList) {
         mCharStart = charStart;
@@ -67,6 +69,62 @@ public class ComposedFrame {
         return mLineList;
     }
 
+    /**
+     * Returns whether this frame is drawn from a cached bitmap. The default value is
+     * <code>false</code>.
+     *
+     * @return <code>true</code> if render cache is enabled, <code>false</code> otherwise.
+     */
+    public boolean isRenderCacheEnabled() {
+        return (mRenderCache != null);
+    }
+
+    /**
+     * Sets whether this frame should be rendered once into a bitmap which is then drawn for as long
+     * as the colors, style, stroke, shadow, slant and scale of the renderer remain the same. Any
+     * change in these properties renders the frame again. The default value is
+     * <code>false</code>.
+     * <p>
+     * A single bitmap covers all the lines of the frame, so the cache is best suited to small
+     * frames of static text. Large frames may rather enable the cache of individual lines.
+     * Disabling the cache releases the bitmap.
+     *
+     * @param renderCacheEnabled A boolean value indicating whether render cache is enabled.
+     *
+     * @see ComposedLine#setRenderCacheEnabled(boolean)
+     */
+    public void setRenderCacheEnabled(boolean renderCacheEnabled) {
+        if (!renderCacheEnabled) {
+            mRenderCache = null;
+        } else if (mRenderCache == null) {
+            mRenderCache = new RenderCache() {
+                @Override
+                void computeBounds(Renderer renderer, RectF bounds) {
+                    computeDrawingBounds(renderer, bounds);
+                }
+
+                @Override
+                void render(Renderer renderer, Canvas canvas) {
+                    drawLines(renderer, canvas, 0.0f, 0.0f);
+                }
+            };
+        }
+    }
+
+    private void computeDrawingBounds(Renderer renderer, RectF bounds) {
+        RectF lineBounds = new RectF();
+
+        bounds.setEmpty();
+
+        for (ComposedLine composedLine : mLineList) {
+            composedLine.computeDrawingBounds(renderer, lineBounds);
+            if (!lineBounds.isEmpty()) {
+                lineBounds.offset(composedLine.getOriginX(), composedLine.getOriginY());
+                bounds.union(lineBounds);
+            }
+        }
+    }
+
     /**
      * Draws this frame onto the given <code>canvas</code> using the given <code>renderer</code>.
      *
@@ -74,8 +132,18 @@ public class ComposedFrame {
      * @param canvas The canvas onto which to draw this frame.
      * @param x The x- position at which to draw this frame.
      * @param y The y- position at which to draw this frame.
+     *
+     * @see #setRenderCacheEnabled(boolean)
      */
     public void draw(Renderer renderer, Canvas canvas, float x, float y) {
+        if (mRenderCache != null) {
+            mRenderCache.draw(renderer, canvas, x, y);
+        } else {
+            drawLines(renderer, canvas, x, y);
+        }
+    }
+
+    private void drawLines(Renderer renderer, Canvas canvas, float x, float y) {
         for (ComposedLine composedLine : mLineList) {
             canvas.translate(x, y);
             composedLine.draw(renderer, canvas, composedLine.getOriginX(), composedLine.getOriginY());
@@ -17,6 +17,7 @@
 package com.mta.tehreer.layout;
 
 import android.graphics.Canvas;
+import android.graphics.RectF;
 
 import com.mta.tehreer.graphics.Renderer;
 import com.mta.tehreer.internal.Description;
@@ -41,6 +42,7 @@ public class ComposedLine {
     private float mWidth;
     private float mTrailingWhitespaceExtent;
 	private List<GlyphRun> mRunList;
+    private RenderCache mRenderCache;
 
 	ComposedLine(String text, int charStart, int charEnd, List<GlyphRun> runList, byte paragraphLevel) {
 		mCharStart = charStart;
@@ -214,6 +216,60 @@ public class ComposedLine {
         return penOffset;
     }
 
+    /**
+     * Returns whether this line is drawn from a cached bitmap. The default value is
+     * <code>false</code>.
+     *
+     * @return <code>true</code> if render cache is enabled, <code>false</code> otherwise.
+     */
+    public boolean isRenderCacheEnabled() {
+        return (mRenderCache != null);
+    }
+
+    /**
+     * Sets whether this line should be rendered once into a bitmap which is then drawn for as long
+     * as the colors, style, stroke, shadow, slant and scale of the renderer remain the same. Any
+     * change in these properties renders the line again. The default value is <code>false</code>.
+     * <p>
+     * The bitmap covers the whole line, so the cache is suitable for static text which is drawn
+     * repeatedly, such as in a scrolling list. Disabling the cache releases the bitmap.
+     *
+     * @param renderCacheEnabled A boolean value indicating whether render cache is enabled.
+     */
+    public void setRenderCacheEnabled(boolean renderCacheEnabled) {
+        if (!renderCacheEnabled) {
+            mRenderCache = null;
+        } else if (mRenderCache == null) {
+            mRenderCache = new RenderCache() {
+                @Override
+                void computeBounds(Renderer renderer, RectF bounds) {
+                    computeDrawingBounds(renderer, bounds);
+                }
+
+                @Override
+                void render(Renderer renderer, Canvas canvas) {
+                    drawRuns(renderer, canvas, 0.0f, 0.0f);
+                }
+            };
+        }
+    }
+
+    void computeDrawingBounds(Renderer renderer, RectF bounds) {
+        RectF runBounds = new RectF();
+        float scaleX = renderer.getScaleX();
+        float scaleY = renderer.getScaleY();
+
+        bounds.setEmpty();
+
+        for (GlyphRun glyphRun : mRunList) {
+            glyphRun.computeDrawingBounds(renderer, runBounds);
+            if (!runBounds.isEmpty()) {
+                runBounds.offset(glyphRun.getOriginX() * scaleX, glyphRun.getOriginY() * scaleY);
+                bounds.union(runBounds);
+            }
+        }
+    }
+
     /**
      * Draws this line onto the given <code>canvas</code> using the given <code>renderer</code>.
      *
@@ -221,8 +277,18 @@ public class ComposedLine {
      * @param canvas The canvas onto which to draw this line.
      * @param x The x- position at which to draw this line.
      * @param y The y- position at which to draw this line.
+     *
+     * @see #setRenderCacheEnabled(boolean)
      */
     public void draw(Renderer renderer, Canvas canvas, float x, float y) {
+        if (mRenderCache != null) {
+            mRenderCache.draw(renderer, canvas, x, y);
+        } else {
+            drawRuns(renderer, canvas, x, y);
+        }
+    }
+
+    private void drawRuns(Renderer renderer, Canvas canvas, float x, float y) {
         for (GlyphRun glyphRun : mRunList) {
             float translateX = x + (glyphRun.getOriginX() * renderer.getScaleX());
             float translateY = y + (glyphRun.getOriginY() * renderer.getScaleY());
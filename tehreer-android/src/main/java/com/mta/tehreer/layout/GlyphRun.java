@@ -367,6 +367,18 @@ public class GlyphRun {
                                            getGlyphAdvances().subList(glyphStart, glyphEnd));
 	}
 
+    /**
+     * Loads the glyphs of this run into the glyph cache on a background thread, so that drawing
+     * this run later with the given <code>renderer</code> does not have to rasterize them.
+     *
+     * @param renderer The renderer that will be used for drawing this run.
+     *
+     * @see Renderer#prefetch(Typeface, float, IntList)
+     */
+    public void prefetch(Renderer renderer) {
+        renderer.prefetch(mIntrinsicRun.typeface, mIntrinsicRun.typeSize, getGlyphIds());
+    }
+
     /**
      * Draws this run completely onto the given <code>canvas</code> using the given
      * <code>renderer</code>.
@@ -407,6 +419,41 @@ public class GlyphRun {
                             getGlyphAdvances().subList(glyphStart, glyphEnd));
 	}
 
+    void computeDrawingBounds(Renderer renderer, RectF bounds) {
+        renderer.setTypeface(mIntrinsicRun.typeface);
+        renderer.setTypeSize(mIntrinsicRun.typeSize);
+        renderer.setWritingDirection(mIntrinsicRun.writingDirection());
+
+        IntList glyphIds = getGlyphIds();
+        PointList offsets = getGlyphOffsets();
+        FloatList advances = getGlyphAdvances();
+        boolean reverseMode = (mIntrinsicRun.writingDirection() == WritingDirection.RIGHT_TO_LEFT);
+        float scaleX = renderer.getScaleX();
+        float scaleY = renderer.getScaleY();
+        float penX = 0.0f;
+
+        bounds.setEmpty();
+
+        // NOTE:
+        //      The glyphs are visited in the same order as they are drawn by the renderer. The
+        //      top of a glyph box is measured upwards from the baseline.
+        for (int i = 0; i < mGlyphCount; i++) {
+            int pos = (!reverseMode ? i : (mGlyphCount - i) - 1);
+            float xOffset = offsets.getX(pos) * scaleX;
+            float yOffset = offsets.getY(pos) * scaleY;
+
+            RectF glyphBox = renderer.computeBoundingBox(glyphIds.get(pos));
+            if (!glyphBox.isEmpty()) {
+                float left = penX + xOffset + glyphBox.left;
+                float top = -yOffset - glyphBox.top;
+
+                bounds.union(left, top, left + glyphBox.width(), top + glyphBox.height());
+            }
+
+            penX += advances.get(pos) * scaleX;
+        }
+    }
+
     @Override
     public String toString() {
         return "GlyphRun{charStart=" + getCharStart()
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mta.tehreer.layout;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+
+import com.mta.tehreer.graphics.Renderer;
+import com.mta.tehreer.graphics.RenderingStyle;
+import com.mta.tehreer.graphics.StrikeQuantization;
+import com.mta.tehreer.graphics.StrokeCap;
+import com.mta.tehreer.graphics.StrokeJoin;
+import com.mta.tehreer.internal.graphics.ImmediateCanvas;
+
+//
+// A render cache keeps the drawing of a line or a frame in a bitmap, along with the renderer state
+// it was drawn with. The runs set the typeface, type size and writing direction of the renderer by
+// themselves, so these are not a part of the state. The bitmap is drawn again as long as the state
+// of the renderer remains the same.
+//
+abstract class RenderCache {
+
+    // NOTE: The scale must match the one used by the glyph blur and the shadow layer of a paint.
+    private static final float BLUR_SIGMA_SCALE = 0.57735f;
+
+    private Bitmap mBitmap;
+    private int mLeft;
+    private int mTop;
+    private boolean mValid;
+
+    private int mFillColor;
+    private RenderingStyle mRenderingStyle;
+    private float mSlantAngle;
+    private float mScaleX;
+    private float mScaleY;
+    private int mStrokeColor;
+    private float mStrokeWidth;
+    private StrokeCap mStrokeCap;
+    private StrokeJoin mStrokeJoin;
+    private float mStrokeMiter;
+    private float mShadowRadius;
+    private float mShadowDx;
+    private float mShadowDy;
+    private int mShadowColor;
+    private boolean mCachedShadowsEnabled;
+    private boolean mDistanceFieldEnabled;
+    private StrikeQuantization mStrikeQuantization;
+    private boolean mTransientScaling;
+
+    abstract void computeBounds(Renderer renderer, RectF bounds);
+    abstract void render(Renderer renderer, Canvas canvas);
+
+    private boolean matches(Renderer renderer) {
+        return mValid
+                && mFillColor == renderer.getFillColor()
+                && mRenderingStyle == renderer.getRenderingStyle()
+                && mSlantAngle == renderer.getSlantAngle()
+                && mScaleX == renderer.getScaleX()
+                && mScaleY == renderer.getScaleY()
+                && mStrokeColor == renderer.getStrokeColor()
+                && mStrokeWidth == renderer.getStrokeWidth()
+                && mStrokeCap == renderer.getStrokeCap()
+                && mStrokeJoin == renderer.getStrokeJoin()
+                && mStrokeMiter == renderer.getStrokeMiter()
+                && mShadowRadius == renderer.getShadowRadius()
+                && mShadowDx == renderer.getShadowDx()
+                && mShadowDy == renderer.getShadowDy()
+                && mShadowColor == renderer.getShadowColor()
+                && mCachedShadowsEnabled == renderer.isCachedShadowsEnabled()
+                && mDistanceFieldEnabled == renderer.isDistanceFieldEnabled()
+                && mStrikeQuantization == renderer.getStrikeQuantization()
+                && mTransientScaling == renderer.isTransientScaling();
+    }
+
+    private void capture(Renderer renderer) {
+        mFillColor = renderer.getFillColor();
+        mRenderingStyle = renderer.getRenderingStyle();
+        mSlantAngle = renderer.getSlantAngle();
+        mScaleX = renderer.getScaleX();
+        mScaleY = renderer.getScaleY();
+        mStrokeColor = renderer.getStrokeColor();
+        mStrokeWidth = renderer.getStrokeWidth();
+        mStrokeCap = renderer.getStrokeCap();
+        mStrokeJoin = renderer.getStrokeJoin();
+        mStrokeMiter = renderer.getStrokeMiter();
+        mShadowRadius = renderer.getShadowRadius();
+        mShadowDx = renderer.getShadowDx();
+        mShadowDy = renderer.getShadowDy();
+        mShadowColor = renderer.getShadowColor();
+        mCachedShadowsEnabled = renderer.isCachedShadowsEnabled();
+        mDistanceFieldEnabled = renderer.isDistanceFieldEnabled();
+        mStrikeQuantization = renderer.getStrikeQuantization();
+        mTransientScaling = renderer.isTransientScaling();
+        mValid = true;
+    }
+
+    private void expandBounds(RectF bounds) {
+        // Make room for the stroke and the shadow which lie outside the glyph boxes.
+        float padding = 1.0f;
+        if (mRenderingStyle != RenderingStyle.FILL) {
+            float strokeExtent = mStrokeWidth / 2.0f;
+            if (mStrokeJoin == StrokeJoin.MITER) {
+                strokeExtent *= Math.max(1.0f, mStrokeMiter);
+            }
+
+            padding += strokeExtent;
+        }
+
+        bounds.set(bounds.left - padding, bounds.top - padding,
+                   bounds.right + padding, bounds.bottom + padding);
+
+        if (mShadowRadius > 0.0f && Color.alpha(mShadowColor) != 0) {
+            // NOTE:
+            //      The blur of a shadow fades out within three standard deviations of the gaussian
+            //      that its radius is converted to.
+            float blurSigma = (mShadowRadius * BLUR_SIGMA_SCALE) + 0.5f;
+            float blurExtent = (float) Math.ceil(blurSigma * 3.0f);
+
+            bounds.union(bounds.left + mShadowDx - blurExtent,
+                         bounds.top + mShadowDy - blurExtent,
+                         bounds.right + mShadowDx + blurExtent,
+                         bounds.bottom + mShadowDy + blurExtent);
+        }
+    }
+
+    private Bitmap obtainBitmap(int width, int height) {
+        Bitmap bitmap = mBitmap;
+
+        // NOTE:
+        //      The bitmap is reused as long as the new drawing fits in it without wasting more than
+        //      half of it, so that scaling a line back and forth does not allocate in every frame.
+        //      The cache is only rebuilt when the state of the renderer changes, which invalidates
+        //      any display list still recording the old drawing anyway.
+        if (bitmap != null) {
+            int bitmapWidth = bitmap.getWidth();
+            int bitmapHeight = bitmap.getHeight();
+
+            if (width <= bitmapWidth && height <= bitmapHeight
+                    && (width * height) * 2 >= bitmapWidth * bitmapHeight) {
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            }
+        }
+
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private void rebuild(Renderer renderer) {
+        RectF bounds = new RectF();
+        computeBounds(renderer, bounds);
+
+        Bitmap bitmap = null;
+
+        if (!bounds.isEmpty()) {
+            expandBounds(bounds);
+
+            mLeft = (int) Math.floor(bounds.left);
+            mTop = (int) Math.floor(bounds.top);
+            int width = (int) Math.ceil(bounds.right) - mLeft;
+            int height = (int) Math.ceil(bounds.bottom) - mTop;
+
+            if (width > 0 && height > 0) {
+                bitmap = obtainBitmap(width, height);
+
+                // The area left over in a reused bitmap is transparent, so the bitmap is always
+                // drawn as a whole.
+                Canvas canvas = new ImmediateCanvas(bitmap);
+                canvas.translate(-mLeft, -mTop);
+                render(renderer, canvas);
+            }
+        }
+
+        mBitmap = bitmap;
+    }
+
+    void draw(Renderer renderer, Canvas canvas, float x, float y) {
+        if (!matches(renderer)) {
+            capture(renderer);
+            rebuild(renderer);
+        }
+
+        if (mBitmap != null) {
+            canvas.drawBitmap(mBitmap, x + mLeft, y + mTop, null);
+        }
+    }
+}
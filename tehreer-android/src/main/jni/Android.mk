@@ -166,9 +166,15 @@ FILE_LIST := \
     BidiLine.cpp \
     BidiMirrorLocator.cpp \
     BidiParagraph.cpp \
+    CharacterMap.cpp \
+    FontStream.cpp \
     FreeType.cpp \
     Glyph.cpp \
+    GlyphAtlas.cpp \
+    GlyphBlur.cpp \
+    GlyphDistanceField.cpp \
     GlyphRasterizer.cpp \
+    GlyphSlabAllocator.cpp \
     JavaBridge.cpp \
     PatternCache.cpp \
     Raw.cpp \
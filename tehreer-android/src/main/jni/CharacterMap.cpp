@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+extern "C" {
+#include <ft2build.h>
+#include FT_FREETYPE_H
+}
+
+#include <algorithm>
+#include <cstdint>
+#include <cstdlib>
+#include <vector>
+
+#include "CharacterMap.h"
+
+using namespace Tehreer;
+
+static const FT_ULong BMP_PAGE_SIZE = 256;
+static const FT_ULong BMP_PAGE_COUNT = 256;
+static const FT_ULong BMP_LIMIT = BMP_PAGE_SIZE * BMP_PAGE_COUNT;
+
+static bool compareCodePoint(const std::pair<FT_ULong, FT_UInt> &mapping, FT_ULong codePoint)
+{
+    return mapping.first < codePoint;
+}
+
+CharacterMap::CharacterMap(FT_Face ftFace)
+    : m_bmpPages(BMP_PAGE_COUNT, nullptr)
+{
+    FT_UInt glyphID = 0;
+    FT_ULong codePoint = FT_Get_First_Char(ftFace, &glyphID);
+
+    /* The code points are enumerated in increasing order, so the supplementary ones stay sorted. */
+    while (glyphID != 0) {
+        if (codePoint < BMP_LIMIT) {
+            uint16_t *&page = m_bmpPages[codePoint / BMP_PAGE_SIZE];
+            if (!page) {
+                page = static_cast<uint16_t *>(calloc(BMP_PAGE_SIZE, sizeof(uint16_t)));
+            }
+
+            page[codePoint % BMP_PAGE_SIZE] = static_cast<uint16_t>(glyphID);
+        } else {
+            m_supplementaryMappings.push_back(Mapping(codePoint, glyphID));
+        }
+
+        codePoint = FT_Get_Next_Char(ftFace, codePoint, &glyphID);
+    }
+
+    m_supplementaryMappings.shrink_to_fit();
+}
+
+CharacterMap::~CharacterMap()
+{
+    for (uint16_t *page : m_bmpPages) {
+        free(page);
+    }
+}
+
+FT_UInt CharacterMap::getGlyphID(FT_ULong codePoint) const
+{
+    if (codePoint < BMP_LIMIT) {
+        const uint16_t *page = m_bmpPages[codePoint / BMP_PAGE_SIZE];
+        return (page ? page[codePoint % BMP_PAGE_SIZE] : 0);
+    }
+
+    auto begin = m_supplementaryMappings.begin();
+    auto end = m_supplementaryMappings.end();
+    auto match = std::lower_bound(begin, end, codePoint, compareCodePoint);
+    if (match != end && match->first == codePoint) {
+        return match->second;
+    }
+
+    return 0;
+}
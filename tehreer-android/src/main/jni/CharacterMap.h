@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef _TEHREER__CHARACTER_MAP_H
+#define _TEHREER__CHARACTER_MAP_H
+
+extern "C" {
+#include <ft2build.h>
+#include FT_FREETYPE_H
+}
+
+#include <cstdint>
+#include <utility>
+#include <vector>
+
+namespace Tehreer {
+
+/*
+ * NOTE:
+ *      A character map is an immutable copy of the active cmap of a face. It can be read from any
+ *      thread without locking the face.
+ */
+class CharacterMap {
+public:
+    CharacterMap(FT_Face ftFace);
+    ~CharacterMap();
+
+    FT_UInt getGlyphID(FT_ULong codePoint) const;
+
+private:
+    typedef std::pair<FT_ULong, FT_UInt> Mapping;
+
+    std::vector<uint16_t *> m_bmpPages;
+    std::vector<Mapping> m_supplementaryMappings;
+};
+
+}
+
+#endif
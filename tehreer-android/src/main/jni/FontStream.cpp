@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <algorithm>
+#include <cstdlib>
+#include <cstring>
+#include <jni.h>
+#include <mutex>
+#include <vector>
+
+#include "FontStream.h"
+#include "JavaBridge.h"
+#include "Miscellaneous.h"
+
+using namespace Tehreer;
+
+/*
+ * NOTE:
+ *      The pages are large enough to hold the small tables in one read, while the cache is bounded
+ *      so that a large font never ends up being buffered as a whole.
+ */
+static const unsigned long PAGE_SIZE = 16 * 1024;
+static const size_t MAX_PAGE_COUNT = 16;
+
+/* The offset table of an sfnt font followed by the records of its table directory. */
+static const unsigned long OFFSET_TABLE_SIZE = 12;
+static const unsigned long TABLE_RECORD_SIZE = 16;
+
+/*
+ * NOTE:
+ *      A font source is read while the typeface using it is locked, so it must not use any font
+ *      source itself. Such a nested read is refused rather than risking a deadlock.
+ */
+static thread_local bool s_isReadingSource = false;
+
+struct FontPage {
+    unsigned long index;
+    unsigned long length;
+    unsigned long lastUse;
+    unsigned char *data;
+};
+
+struct FontSourceContext {
+    std::mutex mutex;
+    JavaVM *javaVM;
+    jobject fontSource;
+    jbyteArray pageArray;
+    std::vector<FontPage> pages;
+    unsigned long useCount;
+};
+
+static FontPage *loadPage(FontSourceContext *context, JNIEnv *env, unsigned long size, unsigned long index)
+{
+    std::vector<FontPage> &pages = context->pages;
+    size_t pageCount = pages.size();
+
+    for (size_t i = 0; i < pageCount; i++) {
+        if (pages[i].index == index) {
+            pages[i].lastUse = ++context->useCount;
+            return &pages[i];
+        }
+    }
+
+    FontPage *page;
+    if (pageCount < MAX_PAGE_COUNT) {
+        FontPage newPage;
+        newPage.data = static_cast<unsigned char *>(malloc(PAGE_SIZE));
+        pages.push_back(newPage);
+
+        page = &pages.back();
+    } else {
+        /* Reuse the least recently used page. */
+        page = &pages[0];
+        for (size_t i = 1; i < pageCount; i++) {
+            if (pages[i].lastUse < page->lastUse) {
+                page = &pages[i];
+            }
+        }
+    }
+
+    unsigned long start = index * PAGE_SIZE;
+    unsigned long length = std::min(PAGE_SIZE, size - start);
+    unsigned long filled = 0;
+
+    JavaBridge bridge(env);
+    while (filled < length) {
+        s_isReadingSource = true;
+        jint bytesRead = bridge.FontSource_read(context->fontSource, static_cast<jlong>(start + filled),
+                                                context->pageArray, 0, static_cast<jint>(length - filled));
+        s_isReadingSource = false;
+        if (env->ExceptionCheck()) {
+            LOGW("Could not read font source at offset: %lu", start + filled);
+            env->ExceptionClear();
+            break;
+        }
+        if (bytesRead <= 0) {
+            break;
+        }
+
+        env->GetByteArrayRegion(context->pageArray, 0, bytesRead,
+                                reinterpret_cast<jbyte *>(page->data + filled));
+        filled += static_cast<unsigned long>(bytesRead);
+    }
+
+    page->index = index;
+    page->length = filled;
+    page->lastUse = ++context->useCount;
+
+    /* Do not keep a partial page as the missing bytes might be readable later on. */
+    if (filled < length) {
+        page->index = static_cast<unsigned long>(-1);
+        page->lastUse = 0;
+    }
+
+    return page;
+}
+
+static unsigned long fontStreamRead(FT_Stream fontStream,
+    unsigned long offset, unsigned char *buffer, unsigned long count)
+{
+    FontSourceContext *context = static_cast<FontSourceContext *>(fontStream->descriptor.pointer);
+    unsigned long size = fontStream->size;
+
+    /* A read of zero bytes is a seek, which fails only beyond the end of the stream. */
+    if (!count) {
+        return (offset > size ? 1 : 0);
+    }
+    if (offset >= size) {
+        return 0;
+    }
+
+    JNIEnv *env = nullptr;
+    if (context->javaVM->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) != JNI_OK) {
+        LOGW("Font source is read on a thread not attached to the virtual machine");
+        return 0;
+    }
+    if (s_isReadingSource) {
+        LOGE("Font source is read again from within a font source");
+        return 0;
+    }
+
+    count = std::min(count, size - offset);
+    unsigned long bytesCopied = 0;
+
+    context->mutex.lock();
+
+    while (bytesCopied < count) {
+        unsigned long position = offset + bytesCopied;
+        FontPage *page = loadPage(context, env, size, position / PAGE_SIZE);
+        unsigned long pageOffset = position % PAGE_SIZE;
+        if (pageOffset >= page->length) {
+            break;
+        }
+
+        unsigned long chunk = std::min(page->length - pageOffset, count - bytesCopied);
+        memcpy(buffer + bytesCopied, page->data + pageOffset, chunk);
+        bytesCopied += chunk;
+    }
+
+    context->mutex.unlock();
+
+    return bytesCopied;
+}
+
+static void fontStreamClose(FT_Stream fontStream)
+{
+    FontSourceContext *context = static_cast<FontSourceContext *>(fontStream->descriptor.pointer);
+
+    JNIEnv *env = nullptr;
+    if (context->javaVM->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) == JNI_OK) {
+        env->DeleteGlobalRef(context->pageArray);
+        env->DeleteGlobalRef(context->fontSource);
+    }
+
+    for (FontPage &page : context->pages) {
+        free(page.data);
+    }
+    delete context;
+
+    fontStream->descriptor.pointer = nullptr;
+    fontStream->size = 0;
+    fontStream->base = 0;
+}
+
+static void preloadDirectory(FontSourceContext *context, JNIEnv *env, unsigned long size)
+{
+    /*
+     * NOTE:
+     *      The offset table and the table directory are the first things read while opening a
+     *      face, so they are buffered before the face is opened, without holding any lock.
+     */
+    FontPage *page = loadPage(context, env, size, 0);
+    if (page->length < OFFSET_TABLE_SIZE) {
+        return;
+    }
+
+    unsigned long numTables = (static_cast<unsigned long>(page->data[4]) << 8) | page->data[5];
+    unsigned long directoryEnd = std::min(OFFSET_TABLE_SIZE + (numTables * TABLE_RECORD_SIZE), size);
+    unsigned long lastIndex = (directoryEnd - 1) / PAGE_SIZE;
+
+    for (unsigned long index = 1; index <= lastIndex && index < MAX_PAGE_COUNT; index++) {
+        loadPage(context, env, size, index);
+    }
+}
+
+FT_Stream FontStream::create(const JavaBridge &bridge, jobject fontSource)
+{
+    JNIEnv *env = bridge.env();
+
+    jlong size = bridge.FontSource_size(fontSource);
+    if (env->ExceptionCheck() || size <= 0) {
+        return nullptr;
+    }
+
+    jbyteArray pageArray = env->NewByteArray(static_cast<jsize>(PAGE_SIZE));
+    if (!pageArray) {
+        return nullptr;
+    }
+
+    FontSourceContext *context = new FontSourceContext();
+    env->GetJavaVM(&context->javaVM);
+    context->fontSource = env->NewGlobalRef(fontSource);
+    context->pageArray = static_cast<jbyteArray>(env->NewGlobalRef(pageArray));
+    context->useCount = 0;
+
+    env->DeleteLocalRef(pageArray);
+
+    preloadDirectory(context, env, static_cast<unsigned long>(size));
+
+    FT_Stream fontStream;
+    fontStream = (FT_Stream)malloc(sizeof(*fontStream));
+    fontStream->base = nullptr;
+    fontStream->size = static_cast<unsigned long>(size);
+    fontStream->pos = 0;
+    fontStream->descriptor.pointer = context;
+    fontStream->pathname.pointer = nullptr;
+    fontStream->read = fontStreamRead;
+    fontStream->close = fontStreamClose;
+
+    return fontStream;
+}
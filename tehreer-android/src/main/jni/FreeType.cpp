@@ -37,8 +37,7 @@ void FreeType::load(JNIEnv *env)
 }
 
 FreeType::FreeType()
-    : m_mutex()
-    , m_library(nullptr)
+    : m_library(nullptr)
 {
 }
 
@@ -23,7 +23,6 @@ extern "C" {
 }
 
 #include <jni.h>
-#include <mutex>
 
 namespace Tehreer {
 
@@ -31,12 +30,10 @@ class FreeType {
 public:
     static void load(JNIEnv *env);
 
-    static std::mutex &mutex() { return s_instance->m_mutex; }
     static FT_Library library() { return s_instance->m_library; }
 
 private:
     static FreeType *s_instance;
-    std::mutex m_mutex;
     FT_Library m_library;
 
     FreeType();
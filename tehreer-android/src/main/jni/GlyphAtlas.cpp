@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <android/bitmap.h>
+#include <cstdint>
+#include <cstring>
+#include <jni.h>
+
+#include "JavaBridge.h"
+#include "Miscellaneous.h"
+#include "GlyphAtlas.h"
+
+using namespace Tehreer;
+
+static void copyMask(JNIEnv *env, jobject obj, jobject bitmap, jint x, jint y,
+    jbyteArray mask, jint width, jint height)
+{
+    AndroidBitmapInfo bitmapInfo;
+    if (AndroidBitmap_getInfo(env, bitmap, &bitmapInfo) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        LOGE("Could not get the info of atlas bitmap");
+        return;
+    }
+
+    void *pixels = nullptr;
+    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        LOGE("Could not lock the pixels of atlas bitmap");
+        return;
+    }
+
+    /*
+     * NOTE:
+     *      The pixels must be locked before entering the critical region as no other JNI function
+     *      can be called inside it.
+     */
+    void *maskBuffer = env->GetPrimitiveArrayCritical(mask, nullptr);
+    const uint8_t *source = static_cast<const uint8_t *>(maskBuffer);
+    uint8_t *target = static_cast<uint8_t *>(pixels) + (y * bitmapInfo.stride) + x;
+
+    for (jint i = 0; i < height; i++) {
+        memcpy(target, source, static_cast<size_t>(width));
+        source += width;
+        target += bitmapInfo.stride;
+    }
+
+    env->ReleasePrimitiveArrayCritical(mask, maskBuffer, JNI_ABORT);
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
+
+static JNINativeMethod JNI_METHODS[] = {
+    { "nativeCopyMask", "(Landroid/graphics/Bitmap;II[BII)V", (void *)copyMask },
+};
+
+jint register_com_mta_tehreer_graphics_GlyphAtlas(JNIEnv *env)
+{
+    return JavaBridge::registerClass(env, "com/mta/tehreer/graphics/GlyphAtlas", JNI_METHODS, sizeof(JNI_METHODS) / sizeof(JNI_METHODS[0]));
+}
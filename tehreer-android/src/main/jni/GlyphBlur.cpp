@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <cstdint>
+#include <jni.h>
+#include <vector>
+
+#include "JavaBridge.h"
+#include "Miscellaneous.h"
+#include "GlyphBlur.h"
+
+using namespace Tehreer;
+
+static void blurLine(const uint8_t *source, uint8_t *target, jint length, jint stride, jint radius)
+{
+    /*
+     * NOTE:
+     *      The pixels outside the line are treated as transparent, so the sum of the moving window
+     *      only needs the pixels entering and leaving it.
+     */
+    jint window = (radius * 2) + 1;
+    uint32_t sum = 0;
+
+    for (jint i = 0; i < radius && i < length; i++) {
+        sum += source[i * stride];
+    }
+
+    for (jint i = 0; i < length; i++) {
+        jint entering = i + radius;
+        jint leaving = i - radius - 1;
+
+        if (entering < length) {
+            sum += source[entering * stride];
+        }
+        if (leaving >= 0) {
+            sum -= source[leaving * stride];
+        }
+
+        target[i * stride] = static_cast<uint8_t>((sum + (window / 2)) / window);
+    }
+}
+
+static void blur(JNIEnv *env, jobject obj, jbyteArray mask, jint width, jint height,
+    jbyteArray shadow, jint padding, jintArray radii)
+{
+    jint shadowWidth = width + (padding * 2);
+    jint shadowHeight = height + (padding * 2);
+    jsize passCount = env->GetArrayLength(radii);
+
+    std::vector<jint> passRadii(passCount);
+    env->GetIntArrayRegion(radii, 0, passCount, passRadii.data());
+
+    std::vector<uint8_t> pixels(shadowWidth * shadowHeight);
+    std::vector<uint8_t> scratch(shadowWidth * shadowHeight);
+
+    /* Place the mask in the middle of the padded area. */
+    for (jint i = 0; i < height; i++) {
+        jbyte *row = reinterpret_cast<jbyte *>(&pixels[((i + padding) * shadowWidth) + padding]);
+        env->GetByteArrayRegion(mask, i * width, width, row);
+    }
+
+    /* Successive box blurs approximate a gaussian blur. */
+    for (jint radius : passRadii) {
+        if (radius <= 0) {
+            continue;
+        }
+
+        for (jint i = 0; i < shadowHeight; i++) {
+            jint offset = i * shadowWidth;
+            blurLine(&pixels[offset], &scratch[offset], shadowWidth, 1, radius);
+        }
+        for (jint i = 0; i < shadowWidth; i++) {
+            blurLine(&scratch[i], &pixels[i], shadowHeight, shadowWidth, radius);
+        }
+    }
+
+    env->SetByteArrayRegion(shadow, 0, shadowWidth * shadowHeight,
+                            reinterpret_cast<const jbyte *>(pixels.data()));
+}
+
+static JNINativeMethod JNI_METHODS[] = {
+    { "nativeBlur", "([BII[BI[I)V", (void *)blur },
+};
+
+jint register_com_mta_tehreer_graphics_GlyphBlur(JNIEnv *env)
+{
+    return JavaBridge::registerClass(env, "com/mta/tehreer/graphics/GlyphBlur", JNI_METHODS, sizeof(JNI_METHODS) / sizeof(JNI_METHODS[0]));
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <android/bitmap.h>
+#include <algorithm>
+#include <cmath>
+#include <cstdint>
+#include <jni.h>
+#include <vector>
+
+#include "JavaBridge.h"
+#include "Miscellaneous.h"
+#include "GlyphDistanceField.h"
+
+using namespace Tehreer;
+
+static const float FAR_DISTANCE = 1e20f;
+
+/* The fields of a placement must match the ones filled in GlyphDistanceField.java. */
+enum {
+    PLACEMENT_LEFT = 0,
+    PLACEMENT_TOP = 1,
+    PLACEMENT_SCALE = 2,
+    PLACEMENT_FIELD_COUNT = 3,
+};
+
+static void transformLine(const float *source, float *target, jint length, jint stride,
+    float *values, jint *vertices, float *bounds)
+{
+    /*
+     * NOTE:
+     *      This is the squared euclidean distance transform of Felzenszwalb and Huttenlocher. The
+     *      lower envelope of the parabolas rooted at each pixel is built first, and then sampled.
+     */
+    for (jint i = 0; i < length; i++) {
+        values[i] = source[i * stride];
+    }
+
+    jint k = 0;
+    vertices[0] = 0;
+    bounds[0] = -FAR_DISTANCE;
+    bounds[1] = FAR_DISTANCE;
+
+    for (jint q = 1; q < length; q++) {
+        float s;
+
+        /* The first bound is far enough to stop the search for a hidden parabola. */
+        while (true) {
+            jint v = vertices[k];
+            s = ((values[q] + (q * q)) - (values[v] + (v * v))) / (2.0f * (q - v));
+            if (s > bounds[k]) {
+                break;
+            }
+
+            k--;
+        }
+
+        k++;
+        vertices[k] = q;
+        bounds[k] = s;
+        bounds[k + 1] = FAR_DISTANCE;
+    }
+
+    k = 0;
+    for (jint q = 0; q < length; q++) {
+        while (bounds[k + 1] < q) {
+            k++;
+        }
+
+        jint v = vertices[k];
+        float delta = static_cast<float>(q - v);
+        target[q * stride] = (delta * delta) + values[v];
+    }
+}
+
+static void transformGrid(std::vector<float> &grid, jint width, jint height)
+{
+    jint length = std::max(width, height);
+    std::vector<float> values(length);
+    std::vector<jint> vertices(length);
+    std::vector<float> bounds(length + 1);
+
+    for (jint i = 0; i < width; i++) {
+        transformLine(&grid[i], &grid[i], height, width,
+                      values.data(), vertices.data(), bounds.data());
+    }
+    for (jint i = 0; i < height; i++) {
+        transformLine(&grid[i * width], &grid[i * width], width, 1,
+                      values.data(), vertices.data(), bounds.data());
+    }
+}
+
+static void generate(JNIEnv *env, jobject obj, jbyteArray mask, jint width, jint height,
+    jbyteArray field, jint padding, jint spread)
+{
+    jint fieldWidth = width + (padding * 2);
+    jint fieldHeight = height + (padding * 2);
+    size_t fieldLength = static_cast<size_t>(fieldWidth * fieldHeight);
+
+    std::vector<uint8_t> coverage(fieldLength);
+    for (jint i = 0; i < height; i++) {
+        jbyte *row = reinterpret_cast<jbyte *>(&coverage[((i + padding) * fieldWidth) + padding]);
+        env->GetByteArrayRegion(mask, i * width, width, row);
+    }
+
+    /* Measure the distance of every pixel to the nearest pixel on the other side of the edge. */
+    std::vector<float> insideGrid(fieldLength);
+    std::vector<float> outsideGrid(fieldLength);
+    for (size_t i = 0; i < fieldLength; i++) {
+        bool inside = (coverage[i] >= 128);
+        insideGrid[i] = (inside ? 0.0f : FAR_DISTANCE);
+        outsideGrid[i] = (inside ? FAR_DISTANCE : 0.0f);
+    }
+
+    transformGrid(insideGrid, fieldWidth, fieldHeight);
+    transformGrid(outsideGrid, fieldWidth, fieldHeight);
+
+    /*
+     * NOTE:
+     *      The edge lies half way between the centers of an inside and an outside pixel. The
+     *      distance is encoded around the middle value so that the edge falls on 128 and the
+     *      spread on either side covers the rest of the byte.
+     */
+    std::vector<uint8_t> values(fieldLength);
+    float unit = 127.0f / spread;
+
+    for (size_t i = 0; i < fieldLength; i++) {
+        float distance;
+        if (coverage[i] >= 128) {
+            distance = std::sqrt(outsideGrid[i]) - 0.5f;
+        } else {
+            distance = 0.5f - std::sqrt(insideGrid[i]);
+        }
+
+        float value = 128.0f + (distance * unit);
+        values[i] = static_cast<uint8_t>(std::min(std::max(value, 0.0f), 255.0f) + 0.5f);
+    }
+
+    env->SetByteArrayRegion(field, 0, static_cast<jsize>(fieldLength),
+                            reinterpret_cast<const jbyte *>(values.data()));
+}
+
+static inline float sampleField(const uint8_t *field, jint width, jint height, jint x, jint y)
+{
+    if (x < 0 || y < 0 || x >= width || y >= height) {
+        return 0.0f;
+    }
+
+    return field[(y * width) + x];
+}
+
+static void renderField(const uint8_t *field, jint fieldWidth, jint fieldHeight,
+    float originX, float originY, float scale, float unit,
+    uint8_t *pixels, const AndroidBitmapInfo &bitmapInfo)
+{
+    jint left = std::max(static_cast<jint>(std::floor(originX)), 0);
+    jint top = std::max(static_cast<jint>(std::floor(originY)), 0);
+    jint right = std::min(static_cast<jint>(std::ceil(originX + (fieldWidth * scale))),
+                          static_cast<jint>(bitmapInfo.width));
+    jint bottom = std::min(static_cast<jint>(std::ceil(originY + (fieldHeight * scale))),
+                           static_cast<jint>(bitmapInfo.height));
+
+    for (jint y = top; y < bottom; y++) {
+        float fy = ((y + 0.5f - originY) / scale) - 0.5f;
+        jint y0 = static_cast<jint>(std::floor(fy));
+        float wy = fy - y0;
+        uint8_t *target = pixels + (y * bitmapInfo.stride);
+
+        for (jint x = left; x < right; x++) {
+            float fx = ((x + 0.5f - originX) / scale) - 0.5f;
+            jint x0 = static_cast<jint>(std::floor(fx));
+            float wx = fx - x0;
+
+            float upper = sampleField(field, fieldWidth, fieldHeight, x0, y0) * (1.0f - wx)
+                        + sampleField(field, fieldWidth, fieldHeight, x0 + 1, y0) * wx;
+            float lower = sampleField(field, fieldWidth, fieldHeight, x0, y0 + 1) * (1.0f - wx)
+                        + sampleField(field, fieldWidth, fieldHeight, x0 + 1, y0 + 1) * wx;
+            float value = (upper * (1.0f - wy)) + (lower * wy);
+
+            /* Convert the distance into target pixels, covering one pixel across the edge. */
+            float distance = (value - 128.0f) * unit * scale;
+            float coverage = std::min(std::max(distance + 0.5f, 0.0f), 1.0f);
+
+            uint32_t s = static_cast<uint32_t>((coverage * 255.0f) + 0.5f);
+            uint32_t d = target[x];
+            uint32_t p = (s * d) + 128;
+
+            target[x] = static_cast<uint8_t>(s + d - ((p + (p >> 8)) >> 8));
+        }
+    }
+}
+
+static void render(JNIEnv *env, jobject obj, jobject bitmap, jobjectArray fields,
+    jintArray sizes, jfloatArray placements, jint count, jint spread)
+{
+    AndroidBitmapInfo bitmapInfo;
+    if (AndroidBitmap_getInfo(env, bitmap, &bitmapInfo) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        LOGE("Could not get the info of target bitmap");
+        return;
+    }
+    if (bitmapInfo.format != ANDROID_BITMAP_FORMAT_A_8) {
+        LOGE("Target bitmap is not an alpha mask");
+        return;
+    }
+
+    std::vector<jint> fieldSizes(count * 2);
+    std::vector<jfloat> fieldPlacements(count * PLACEMENT_FIELD_COUNT);
+    env->GetIntArrayRegion(sizes, 0, count * 2, fieldSizes.data());
+    env->GetFloatArrayRegion(placements, 0, count * PLACEMENT_FIELD_COUNT, fieldPlacements.data());
+
+    void *pixels = nullptr;
+    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        LOGE("Could not lock the pixels of target bitmap");
+        return;
+    }
+
+    float unit = spread / 127.0f;
+
+    for (jint i = 0; i < count; i++) {
+        jbyteArray field = static_cast<jbyteArray>(env->GetObjectArrayElement(fields, i));
+        void *values = env->GetPrimitiveArrayCritical(field, nullptr);
+
+        if (values) {
+            const jfloat *placement = &fieldPlacements[i * PLACEMENT_FIELD_COUNT];
+            renderField(static_cast<const uint8_t *>(values),
+                        fieldSizes[i * 2], fieldSizes[(i * 2) + 1],
+                        placement[PLACEMENT_LEFT], placement[PLACEMENT_TOP],
+                        placement[PLACEMENT_SCALE], unit,
+                        static_cast<uint8_t *>(pixels), bitmapInfo);
+
+            env->ReleasePrimitiveArrayCritical(field, values, JNI_ABORT);
+        }
+
+        env->DeleteLocalRef(field);
+    }
+
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
+
+static JNINativeMethod JNI_METHODS[] = {
+    { "nativeGenerate", "([BII[BII)V", (void *)generate },
+    { "nativeRender", "(Landroid/graphics/Bitmap;[[B[I[FII)V", (void *)render },
+};
+
+jint register_com_mta_tehreer_graphics_GlyphDistanceField(JNIEnv *env)
+{
+    return JavaBridge::registerClass(env, "com/mta/tehreer/graphics/GlyphDistanceField", JNI_METHODS, sizeof(JNI_METHODS) / sizeof(JNI_METHODS[0]));
+}
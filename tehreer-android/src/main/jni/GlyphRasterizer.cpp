@@ -20,7 +20,6 @@ extern "C" {
 #include FT_BITMAP_H
 #include FT_IMAGE_H
 #include FT_OUTLINE_H
-#include FT_SIZES_H
 #include FT_STROKER_H
 #include FT_TYPES_H
 }
@@ -36,38 +35,31 @@ using namespace Tehreer;
 
 GlyphRasterizer::GlyphRasterizer(Typeface &typeface, FT_F26Dot6 pixelWidth, FT_F26Dot6 pixelHeight, FT_Matrix transform)
     : m_typeface(typeface)
-    , m_size(nullptr)
+    , m_pixelWidth(pixelWidth)
+    , m_pixelHeight(pixelHeight)
     , m_transform(transform)
 {
-    m_typeface.lock();
-
-    FT_Face baseFace = m_typeface.ftFace();
-    FT_New_Size(baseFace, &m_size);
-    FT_Activate_Size(m_size);
-    FT_Set_Char_Size(baseFace, pixelWidth, pixelHeight, 0, 0);
-
-    m_typeface.unlock();
+    m_typeface.retain();
 }
 
 GlyphRasterizer::~GlyphRasterizer()
 {
-    if (m_size) {
-        /*
-         * NOTE:
-         *      FreeType face must be locked before releasing the size because it changes an
-         *      internal list of the face containing all the sizes.
-         */
-
-        m_typeface.lock();
-        FT_Done_Size(m_size);
-        m_typeface.unlock();
-    }
+    m_typeface.release();
 }
 
-void GlyphRasterizer::unsafeActivate(FT_Face ftFace)
+Typeface::FaceInstance *GlyphRasterizer::acquireFace()
 {
-    FT_Activate_Size(m_size);
-    FT_Set_Transform(ftFace, &m_transform, nullptr);
+    /*
+     * NOTE:
+     *      Each rasterizing thread gets a face instance of its own from the typeface, so that the
+     *      glyphs of a typeface can be rasterized in parallel. The instance stays exclusive to the
+     *      caller until it is released.
+     */
+    Typeface::FaceInstance *instance = m_typeface.acquireFace(m_pixelWidth, m_pixelHeight);
+    instance->setSize(m_pixelWidth, m_pixelHeight);
+    FT_Set_Transform(instance->ftFace, &m_transform, nullptr);
+
+    return instance;
 }
 
 jobject GlyphRasterizer::unsafeCreateBitmap(const JavaBridge &bridge, const FT_Bitmap *bitmap)
@@ -93,6 +85,37 @@ jobject GlyphRasterizer::unsafeCreateBitmap(const JavaBridge &bridge, const FT_B
     return glyphBitmap;
 }
 
+jbyteArray GlyphRasterizer::unsafeCreateMask(const JavaBridge &bridge, const FT_Bitmap *bitmap)
+{
+    JNIEnv *env = bridge.env();
+    jbyteArray maskArray = nullptr;
+
+    if (bitmap->pixel_mode == FT_PIXEL_MODE_GRAY) {
+        jint width = static_cast<jint>(bitmap->width);
+        jint rows = static_cast<jint>(bitmap->rows);
+
+        if (width > 0 && rows > 0) {
+            maskArray = env->NewByteArray(width * rows);
+
+            /* Copy the rows one by one as the pitch of the bitmap may include padding. */
+            const unsigned char *buffer = bitmap->buffer;
+            int pitch = bitmap->pitch;
+            if (pitch < 0) {
+                buffer -= pitch * (rows - 1);
+            }
+
+            for (jint i = 0; i < rows; i++) {
+                const jbyte *row = reinterpret_cast<const jbyte *>(buffer + (i * pitch));
+                env->SetByteArrayRegion(maskArray, i * width, width, row);
+            }
+        }
+    } else {
+        LOGW("Unsupported pixel mode of freetype bitmap");
+    }
+
+    return maskArray;
+}
+
 void GlyphRasterizer::loadBitmap(const JavaBridge &bridge, jobject glyph)
 {
     FT_UInt glyphID = static_cast<FT_UInt>(bridge.Glyph_getGlyphID(glyph));
@@ -100,14 +123,12 @@ void GlyphRasterizer::loadBitmap(const JavaBridge &bridge, jobject glyph)
     jint leftSideBearing = 0;
     jint topSideBearing = 0;
 
-    m_typeface.lock();
+    Typeface::FaceInstance *faceInstance = acquireFace();
+    FT_Face ftFace = faceInstance->ftFace;
 
-    FT_Face baseFace = m_typeface.ftFace();
-    unsafeActivate(baseFace);
-
-    FT_Error error = FT_Load_Glyph(baseFace, glyphID, FT_LOAD_RENDER);
+    FT_Error error = FT_Load_Glyph(ftFace, glyphID, FT_LOAD_RENDER);
     if (error == FT_Err_Ok) {
-        FT_GlyphSlot glyphSlot = baseFace->glyph;
+        FT_GlyphSlot glyphSlot = ftFace->glyph;
         glyphBitmap = unsafeCreateBitmap(bridge, &glyphSlot->bitmap);
 
         if (glyphBitmap) {
@@ -116,45 +137,168 @@ void GlyphRasterizer::loadBitmap(const JavaBridge &bridge, jobject glyph)
         }
     }
 
-    m_typeface.unlock();
+    m_typeface.releaseFace(faceInstance);
 
     bridge.Glyph_ownBitmap(glyph, glyphBitmap, leftSideBearing, topSideBearing);
 }
 
-void GlyphRasterizer::loadOutline(const JavaBridge &bridge, jobject glyph)
+void GlyphRasterizer::loadMask(const JavaBridge &bridge, jobject glyph)
 {
     FT_UInt glyphID = static_cast<FT_UInt>(bridge.Glyph_getGlyphID(glyph));
+    jbyteArray maskArray = nullptr;
+    jint maskWidth = 0;
+    jint maskHeight = 0;
+    jint leftSideBearing = 0;
+    jint topSideBearing = 0;
 
-    m_typeface.lock();
-
-    FT_Face baseFace = m_typeface.ftFace();
-    unsafeActivate(baseFace);
+    Typeface::FaceInstance *faceInstance = acquireFace();
+    FT_Face ftFace = faceInstance->ftFace;
 
-    FT_Glyph outline = nullptr;
-    FT_Error error = FT_Load_Glyph(baseFace, glyphID, FT_LOAD_NO_BITMAP);
+    FT_Error error = FT_Load_Glyph(ftFace, glyphID, FT_LOAD_RENDER);
     if (error == FT_Err_Ok) {
-        FT_Get_Glyph(baseFace->glyph, &outline);
+        FT_GlyphSlot glyphSlot = ftFace->glyph;
+        maskArray = unsafeCreateMask(bridge, &glyphSlot->bitmap);
+
+        if (maskArray) {
+            maskWidth = static_cast<jint>(glyphSlot->bitmap.width);
+            maskHeight = static_cast<jint>(glyphSlot->bitmap.rows);
+            leftSideBearing = glyphSlot->bitmap_left;
+            topSideBearing = glyphSlot->bitmap_top;
+        }
     }
 
-    m_typeface.unlock();
+    m_typeface.releaseFace(faceInstance);
 
-    bridge.Glyph_ownOutline(glyph, outline ? reinterpret_cast<jlong>(outline) : 0);
+    bridge.Glyph_ownMask(glyph, maskArray, maskWidth, maskHeight, leftSideBearing, topSideBearing);
 }
 
-void GlyphRasterizer::loadPath(const JavaBridge &bridge, jobject glyph)
+void GlyphRasterizer::loadMasks(const jint *glyphIDs, jsize count, std::vector<jbyte> &masks, jint *metrics)
 {
-    FT_UInt glyphID = static_cast<FT_UInt>(bridge.Glyph_getGlyphID(glyph));
+    Typeface::FaceInstance *faceInstance = acquireFace();
+    FT_Face ftFace = faceInstance->ftFace;
+
+    for (jsize i = 0; i < count; i++) {
+        FT_UInt glyphID = static_cast<FT_UInt>(glyphIDs[i]);
+        jint *glyphMetrics = metrics + (i * 4);
+
+        glyphMetrics[0] = 0;
+        glyphMetrics[1] = 0;
+        glyphMetrics[2] = 0;
+        glyphMetrics[3] = 0;
+
+        FT_Error error = FT_Load_Glyph(ftFace, glyphID, FT_LOAD_RENDER);
+        if (error != FT_Err_Ok) {
+            continue;
+        }
+
+        FT_GlyphSlot glyphSlot = ftFace->glyph;
+        const FT_Bitmap *bitmap = &glyphSlot->bitmap;
+        if (bitmap->pixel_mode != FT_PIXEL_MODE_GRAY) {
+            LOGW("Unsupported pixel mode of freetype bitmap");
+            continue;
+        }
+
+        jint width = static_cast<jint>(bitmap->width);
+        jint rows = static_cast<jint>(bitmap->rows);
+        if (width <= 0 || rows <= 0) {
+            continue;
+        }
+
+        /* Append the rows one by one as the pitch of the bitmap may include padding. */
+        const unsigned char *buffer = bitmap->buffer;
+        int pitch = bitmap->pitch;
+        if (pitch < 0) {
+            buffer -= pitch * (rows - 1);
+        }
 
-    m_typeface.lock();
+        for (jint j = 0; j < rows; j++) {
+            const jbyte *row = reinterpret_cast<const jbyte *>(buffer + (j * pitch));
+            masks.insert(masks.end(), row, row + width);
+        }
+
+        glyphMetrics[0] = width;
+        glyphMetrics[1] = rows;
+        glyphMetrics[2] = glyphSlot->bitmap_left;
+        glyphMetrics[3] = glyphSlot->bitmap_top;
+    }
 
-    FT_Face baseFace = m_typeface.ftFace();
-    unsafeActivate(baseFace);
+    m_typeface.releaseFace(faceInstance);
+}
+
+void GlyphRasterizer::loadBounds(const jint *glyphIDs, jsize count, jint *metrics)
+{
+    Typeface::FaceInstance *faceInstance = acquireFace();
+    FT_Face ftFace = faceInstance->ftFace;
 
-    jobject glyphPath = m_typeface.getGlyphPathNoLock(bridge, glyphID);
+    for (jsize i = 0; i < count; i++) {
+        FT_UInt glyphID = static_cast<FT_UInt>(glyphIDs[i]);
+        jint *glyphMetrics = metrics + (i * 4);
 
-    m_typeface.unlock();
+        glyphMetrics[0] = 0;
+        glyphMetrics[1] = 0;
+        glyphMetrics[2] = 0;
+        glyphMetrics[3] = 0;
 
-    bridge.Glyph_ownPath(glyph, glyphPath);
+        FT_Error error = FT_Load_Glyph(ftFace, glyphID, FT_LOAD_DEFAULT);
+        if (error != FT_Err_Ok) {
+            continue;
+        }
+
+        FT_GlyphSlot glyphSlot = ftFace->glyph;
+
+        if (glyphSlot->format == FT_GLYPH_FORMAT_OUTLINE) {
+            /*
+             * NOTE:
+             *      The control box is expanded to whole pixels in the same way as the renderer
+             *      does, so the bounds match the ones of the rendered bitmap.
+             */
+            FT_BBox cbox;
+            FT_Outline_Get_CBox(&glyphSlot->outline, &cbox);
+
+            FT_Pos xMin = cbox.xMin & ~63;
+            FT_Pos yMin = cbox.yMin & ~63;
+            FT_Pos xMax = (cbox.xMax + 63) & ~63;
+            FT_Pos yMax = (cbox.yMax + 63) & ~63;
+
+            jint width = static_cast<jint>((xMax - xMin) >> 6);
+            jint rows = static_cast<jint>((yMax - yMin) >> 6);
+            if (width > 0 && rows > 0) {
+                glyphMetrics[0] = width;
+                glyphMetrics[1] = rows;
+                glyphMetrics[2] = static_cast<jint>(xMin >> 6);
+                glyphMetrics[3] = static_cast<jint>(yMax >> 6);
+            }
+        } else if (glyphSlot->format == FT_GLYPH_FORMAT_BITMAP) {
+            jint width = static_cast<jint>(glyphSlot->bitmap.width);
+            jint rows = static_cast<jint>(glyphSlot->bitmap.rows);
+            if (width > 0 && rows > 0) {
+                glyphMetrics[0] = width;
+                glyphMetrics[1] = rows;
+                glyphMetrics[2] = glyphSlot->bitmap_left;
+                glyphMetrics[3] = glyphSlot->bitmap_top;
+            }
+        }
+    }
+
+    m_typeface.releaseFace(faceInstance);
+}
+
+void GlyphRasterizer::loadOutline(const JavaBridge &bridge, jobject glyph)
+{
+    FT_UInt glyphID = static_cast<FT_UInt>(bridge.Glyph_getGlyphID(glyph));
+
+    Typeface::FaceInstance *faceInstance = acquireFace();
+    FT_Face ftFace = faceInstance->ftFace;
+
+    FT_Glyph outline = nullptr;
+    FT_Error error = FT_Load_Glyph(ftFace, glyphID, FT_LOAD_NO_BITMAP);
+    if (error == FT_Err_Ok) {
+        FT_Get_Glyph(ftFace->glyph, &outline);
+    }
+
+    m_typeface.releaseFace(faceInstance);
+
+    bridge.Glyph_ownOutline(glyph, outline ? reinterpret_cast<jlong>(outline) : 0);
 }
 
 jobject GlyphRasterizer::strokeGlyph(const JavaBridge &bridge, jobject glyph, FT_Fixed lineRadius,
@@ -224,16 +368,49 @@ static void loadBitmap(JNIEnv *env, jobject obj, jlong rasterizerHandle, jobject
     glyphRasterizer->loadBitmap(JavaBridge(env), glyph);
 }
 
-static void loadOutline(JNIEnv *env, jobject obj, jlong rasterizerHandle, jobject glyph)
+static void loadMask(JNIEnv *env, jobject obj, jlong rasterizerHandle, jobject glyph)
 {
     GlyphRasterizer *glyphRasterizer = reinterpret_cast<GlyphRasterizer *>(rasterizerHandle);
-    glyphRasterizer->loadOutline(JavaBridge(env), glyph);
+    glyphRasterizer->loadMask(JavaBridge(env), glyph);
+}
+
+static jbyteArray loadMasks(JNIEnv *env, jobject obj, jlong rasterizerHandle,
+    jintArray glyphIDs, jint count, jintArray metrics)
+{
+    GlyphRasterizer *glyphRasterizer = reinterpret_cast<GlyphRasterizer *>(rasterizerHandle);
+    std::vector<jint> idBuffer(count);
+    std::vector<jint> metricBuffer(count * 4);
+    std::vector<jbyte> maskBuffer;
+
+    env->GetIntArrayRegion(glyphIDs, 0, count, idBuffer.data());
+    glyphRasterizer->loadMasks(idBuffer.data(), count, maskBuffer, metricBuffer.data());
+    env->SetIntArrayRegion(metrics, 0, count * 4, metricBuffer.data());
+
+    jsize maskLength = static_cast<jsize>(maskBuffer.size());
+    jbyteArray maskArray = env->NewByteArray(maskLength);
+    if (maskArray && maskLength > 0) {
+        env->SetByteArrayRegion(maskArray, 0, maskLength, maskBuffer.data());
+    }
+
+    return maskArray;
+}
+
+static void loadBounds(JNIEnv *env, jobject obj, jlong rasterizerHandle,
+    jintArray glyphIDs, jint count, jintArray metrics)
+{
+    GlyphRasterizer *glyphRasterizer = reinterpret_cast<GlyphRasterizer *>(rasterizerHandle);
+    std::vector<jint> idBuffer(count);
+    std::vector<jint> metricBuffer(count * 4);
+
+    env->GetIntArrayRegion(glyphIDs, 0, count, idBuffer.data());
+    glyphRasterizer->loadBounds(idBuffer.data(), count, metricBuffer.data());
+    env->SetIntArrayRegion(metrics, 0, count * 4, metricBuffer.data());
 }
 
-static void loadPath(JNIEnv *env, jobject obj, jlong rasterizerHandle, jobject glyph)
+static void loadOutline(JNIEnv *env, jobject obj, jlong rasterizerHandle, jobject glyph)
 {
     GlyphRasterizer *glyphRasterizer = reinterpret_cast<GlyphRasterizer *>(rasterizerHandle);
-    glyphRasterizer->loadPath(JavaBridge(env), glyph);
+    glyphRasterizer->loadOutline(JavaBridge(env), glyph);
 }
 
 static jobject strokeGlyph(JNIEnv *env, jobject obj, jlong rasterizerHandle, jobject glyph,
@@ -253,8 +430,10 @@ static JNINativeMethod JNI_METHODS[] = {
     { "nativeCreate", "(JIIIIII)J", (void *)create },
     { "nativeDispose", "(J)V", (void *)dispose },
     { "nativeLoadBitmap", "(JLcom/mta/tehreer/graphics/Glyph;)V", (void *)loadBitmap },
+    { "nativeLoadMask", "(JLcom/mta/tehreer/graphics/Glyph;)V", (void *)loadMask },
+    { "nativeLoadMasks", "(J[II[I)[B", (void *)loadMasks },
+    { "nativeLoadBounds", "(J[II[I)V", (void *)loadBounds },
     { "nativeLoadOutline", "(JLcom/mta/tehreer/graphics/Glyph;)V", (void *)loadOutline },
-    { "nativeLoadPath", "(JLcom/mta/tehreer/graphics/Glyph;)V", (void *)loadPath },
     { "nativeStrokeGlyph", "(JLcom/mta/tehreer/graphics/Glyph;IIII)Lcom/mta/tehreer/graphics/Glyph;", (void *)strokeGlyph },
 };
 
@@ -24,6 +24,7 @@ extern "C" {
 }
 
 #include <jni.h>
+#include <vector>
 
 #include "FreeType.h"
 #include "Glyph.h"
@@ -40,19 +41,23 @@ public:
     Typeface &typeface() { return m_typeface; }
 
     void loadBitmap(const JavaBridge &bridge, jobject glyph);
+    void loadMask(const JavaBridge &bridge, jobject glyph);
+    void loadMasks(const jint *glyphIDs, jsize count, std::vector<jbyte> &masks, jint *metrics);
+    void loadBounds(const jint *glyphIDs, jsize count, jint *metrics);
     void loadOutline(const JavaBridge &bridge, jobject glyph);
-    void loadPath(const JavaBridge &bridge, jobject glyph);
 
     jobject strokeGlyph(const JavaBridge &bridge, jobject glyph, FT_Fixed lineRadius,
         FT_Stroker_LineCap lineCap, FT_Stroker_LineJoin lineJoin, FT_Fixed miterLimit);
 
 private:
     Typeface &m_typeface;
-    FT_Size m_size;
+    FT_F26Dot6 m_pixelWidth;
+    FT_F26Dot6 m_pixelHeight;
     FT_Matrix m_transform;
 
-    void unsafeActivate(FT_Face ftFace);
+    Typeface::FaceInstance *acquireFace();
     jobject unsafeCreateBitmap(const JavaBridge &bridge, const FT_Bitmap *bitmap);
+    jbyteArray unsafeCreateMask(const JavaBridge &bridge, const FT_Bitmap *bitmap);
 };
 
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 Muhammad Tayyab Akram
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <android/bitmap.h>
+#include <algorithm>
+#include <cstdint>
+#include <jni.h>
+#include <vector>
+
+#include "JavaBridge.h"
+#include "Miscellaneous.h"
+#include "GlyphSlabAllocator.h"
+
+using namespace Tehreer;
+
+/* The fields of a block must match the ones filled in GlyphSlabAllocator.java. */
+enum {
+    BLOCK_OFFSET = 0,
+    BLOCK_WIDTH = 1,
+    BLOCK_HEIGHT = 2,
+    BLOCK_X = 3,
+    BLOCK_Y = 4,
+    BLOCK_FIELD_COUNT = 5,
+};
+
+static void blitMask(const uint8_t *mask, jint width, jint height, jint x, jint y,
+    uint8_t *pixels, const AndroidBitmapInfo &bitmapInfo)
+{
+    /* Clip the mask against the bounds of the bitmap. */
+    jint left = std::max(x, 0);
+    jint top = std::max(y, 0);
+    jint right = std::min(x + width, static_cast<jint>(bitmapInfo.width));
+    jint bottom = std::min(y + height, static_cast<jint>(bitmapInfo.height));
+    if (left >= right || top >= bottom) {
+        return;
+    }
+
+    const uint8_t *source = mask + ((top - y) * width) + (left - x);
+    uint8_t *target = pixels + (top * bitmapInfo.stride) + left;
+    jint columns = right - left;
+
+    /*
+     * NOTE:
+     *      Neighbouring glyphs may overlap, so the coverage is composited with source-over rule,
+     *      just like the canvas would do while drawing the masks separately.
+     */
+    for (jint i = top; i < bottom; i++) {
+        for (jint j = 0; j < columns; j++) {
+            uint32_t s = source[j];
+            uint32_t d = target[j];
+            uint32_t p = (s * d) + 128;
+
+            target[j] = static_cast<uint8_t>(s + d - ((p + (p >> 8)) >> 8));
+        }
+
+        source += width;
+        target += bitmapInfo.stride;
+    }
+}
+
+static void blit(JNIEnv *env, jobject obj, jobject bitmap,
+    jobjectArray buffers, jintArray blocks, jint count)
+{
+    AndroidBitmapInfo bitmapInfo;
+    if (AndroidBitmap_getInfo(env, bitmap, &bitmapInfo) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        LOGE("Could not get the info of target bitmap");
+        return;
+    }
+    if (bitmapInfo.format != ANDROID_BITMAP_FORMAT_A_8) {
+        LOGE("Target bitmap is not an alpha mask");
+        return;
+    }
+
+    /* Resolve the slab addresses before entering the critical region of block array. */
+    std::vector<const uint8_t *> slabs(static_cast<size_t>(count));
+    for (jint i = 0; i < count; i++) {
+        jobject buffer = env->GetObjectArrayElement(buffers, i);
+        slabs[i] = static_cast<const uint8_t *>(env->GetDirectBufferAddress(buffer));
+        env->DeleteLocalRef(buffer);
+
+        if (!slabs[i]) {
+            LOGE("Could not get the address of slab buffer");
+            return;
+        }
+    }
+
+    void *pixels = nullptr;
+    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        LOGE("Could not lock the pixels of target bitmap");
+        return;
+    }
+
+    jint *values = static_cast<jint *>(env->GetPrimitiveArrayCritical(blocks, nullptr));
+    if (values) {
+        for (jint i = 0; i < count; i++) {
+            const jint *block = values + (i * BLOCK_FIELD_COUNT);
+            blitMask(slabs[i] + block[BLOCK_OFFSET],
+                     block[BLOCK_WIDTH], block[BLOCK_HEIGHT], block[BLOCK_X], block[BLOCK_Y],
+                     static_cast<uint8_t *>(pixels), bitmapInfo);
+        }
+
+        env->ReleasePrimitiveArrayCritical(blocks, values, JNI_ABORT);
+    }
+
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
+
+static JNINativeMethod JNI_METHODS[] = {
+    { "nativeBlit", "(Landroid/graphics/Bitmap;[Ljava/nio/ByteBuffer;[II)V", (void *)blit },
+};
+
+jint register_com_mta_tehreer_graphics_GlyphSlabAllocator(JNIEnv *env)
+{
+    return JavaBridge::registerClass(env, "com/mta/tehreer/graphics/GlyphSlabAllocator", JNI_METHODS, sizeof(JNI_METHODS) / sizeof(JNI_METHODS[0]));
+}
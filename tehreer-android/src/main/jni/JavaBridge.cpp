@@ -33,13 +33,16 @@ static jobject   BITMAP_CONFIG__ALPHA_8;
 static jclass    BITMAP;
 static jmethodID BITMAP__CREATE_BITMAP;
 
+static jmethodID FONT_SOURCE__READ;
+static jmethodID FONT_SOURCE__SIZE;
+
 static jclass    GLYPH;
 static jmethodID GLYPH__CONSTRUCTOR;
 static jfieldID  GLYPH__GLYPH_ID;
 static jfieldID  GLYPH__NATIVE_OUTLINE;
 static jmethodID GLYPH__OWN_BITMAP;
+static jmethodID GLYPH__OWN_MASK;
 static jmethodID GLYPH__OWN_OUTLINE;
-static jmethodID GLYPH__OWN_PATH;
 
 static jmethodID INPUT_STREAM__READ;
 
@@ -54,8 +57,6 @@ static jmethodID PATH__LINE_TO;
 static jmethodID PATH__MOVE_TO;
 static jmethodID PATH__QUAD_TO;
 
-static jmethodID RECT__SET;
-
 static jclass    STRING;
 
 static jfieldID  TYPEFACE__NATIVE_TYPEFACE;
@@ -83,14 +84,18 @@ void JavaBridge::load(JNIEnv* env)
     field = env->GetStaticObjectField(clazz, fieldID);
     BITMAP_CONFIG__ALPHA_8 = env->NewGlobalRef(field);
 
+    clazz = env->FindClass("com/mta/tehreer/graphics/FontSource");
+    FONT_SOURCE__READ = env->GetMethodID(clazz, "read", "(J[BII)I");
+    FONT_SOURCE__SIZE = env->GetMethodID(clazz, "size", "()J");
+
     clazz = env->FindClass("com/mta/tehreer/graphics/Glyph");
     GLYPH = (jclass)env->NewGlobalRef(clazz);
     GLYPH__CONSTRUCTOR = env->GetMethodID(clazz, "<init>", "(I)V");
     GLYPH__GLYPH_ID = env->GetFieldID(clazz, "glyphId", "I");
     GLYPH__NATIVE_OUTLINE = env->GetFieldID(clazz, "nativeOutline", "J");
     GLYPH__OWN_BITMAP = env->GetMethodID(clazz, "ownBitmap", "(Landroid/graphics/Bitmap;II)V");
+    GLYPH__OWN_MASK = env->GetMethodID(clazz, "ownMask", "([BIIII)V");
     GLYPH__OWN_OUTLINE = env->GetMethodID(clazz, "ownOutline", "(J)V");
-    GLYPH__OWN_PATH = env->GetMethodID(clazz, "ownPath", "(Landroid/graphics/Path;)V");
 
     clazz = env->FindClass("java/io/InputStream");
     INPUT_STREAM__READ = env->GetMethodID(clazz, "read", "([BII)I");
@@ -108,9 +113,6 @@ void JavaBridge::load(JNIEnv* env)
     PATH__MOVE_TO = env->GetMethodID(clazz, "moveTo", "(FF)V");
     PATH__QUAD_TO = env->GetMethodID(clazz, "quadTo", "(FFFF)V");
 
-    clazz = env->FindClass("android/graphics/Rect");
-    RECT__SET = env->GetMethodID(clazz, "set", "(IIII)V");
-
     clazz = env->FindClass("java/lang/String");
     STRING = (jclass)env->NewGlobalRef(clazz);
 
@@ -189,14 +191,24 @@ void JavaBridge::Glyph_ownBitmap(jobject glyph, jobject bitmap, jint left, jint
     m_env->CallVoidMethod(glyph, GLYPH__OWN_BITMAP, bitmap, left, top);
 }
 
+void JavaBridge::Glyph_ownMask(jobject glyph, jbyteArray mask, jint width, jint height, jint left, jint top) const
+{
+    m_env->CallVoidMethod(glyph, GLYPH__OWN_MASK, mask, width, height, left, top);
+}
+
 void JavaBridge::Glyph_ownOutline(jobject glyph, jlong nativeOutline) const
 {
     m_env->CallVoidMethod(glyph, GLYPH__OWN_OUTLINE, nativeOutline);
 }
 
-void JavaBridge::Glyph_ownPath(jobject glyph, jobject path) const
+jint JavaBridge::FontSource_read(jobject fontSource, jlong position, jbyteArray buffer, jint offset, jint length) const
 {
-    m_env->CallVoidMethod(glyph, GLYPH__OWN_PATH, path);
+    return m_env->CallIntMethod(fontSource, FONT_SOURCE__READ, position, buffer, offset, length);
+}
+
+jlong JavaBridge::FontSource_size(jobject fontSource) const
+{
+    return m_env->CallLongMethod(fontSource, FONT_SOURCE__SIZE);
 }
 
 jint JavaBridge::InputStream_read(jobject inputStream, jbyteArray buffer, jint offset, jint length) const
@@ -239,11 +251,6 @@ void JavaBridge::Path_quadTo(jobject path, jfloat x1, jfloat y1, jfloat x2, jflo
     m_env->CallVoidMethod(path, PATH__QUAD_TO, x1, y1, x2, y2);
 }
 
-void JavaBridge::Rect_set(jobject rect, jint left, jint top, jint right, jint bottom) const
-{
-    m_env->CallVoidMethod(rect, RECT__SET, left, top, right, bottom);
-}
-
 jclass JavaBridge::String_class() const
 {
     return STRING;
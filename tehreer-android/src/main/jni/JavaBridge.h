@@ -42,12 +42,15 @@ public:
     jobject Bitmap_create(jint width, jint height, BitmapConfig config) const;
     void Bitmap_setPixels(jobject bitmap, const void *pixels, size_t length) const;
 
+    jint FontSource_read(jobject fontSource, jlong position, jbyteArray buffer, jint offset, jint length) const;
+    jlong FontSource_size(jobject fontSource) const;
+
     jobject Glyph_construct(jint glyphID) const;
     jint Glyph_getGlyphID(jobject glyph) const;
     jlong Glyph_getNativeOutline(jobject glyph) const;
     void Glyph_ownBitmap(jobject glyph, jobject bitmap, jint left, jint top) const;
+    void Glyph_ownMask(jobject glyph, jbyteArray mask, jint width, jint height, jint left, jint top) const;
     void Glyph_ownOutline(jobject glyph, jlong nativeOutline) const;
-    void Glyph_ownPath(jobject glyph, jobject path) const;
 
     jint InputStream_read(jobject inputStream, jbyteArray buffer, jint offset, jint length) const;
 
@@ -60,8 +63,6 @@ public:
     void Path_moveTo(jobject path, jfloat dx, jfloat dy) const;
     void Path_quadTo(jobject path, jfloat x1, jfloat y1, jfloat x2, jfloat y2) const;
 
-    void Rect_set(jobject rect, jint left, jint top, jint right, jint bottom) const;
-
     jclass String_class() const;
 
     jlong Typeface_getNativeTypeface(jobject typeface) const;
@@ -37,16 +37,31 @@ void PatternCache::put(const PatternKey &key, SFPatternRef pattern)
 
 SFPatternRef PatternCache::get(const PatternKey &key)
 {
+    /*
+     * NOTE:
+     *      The pattern is retained on behalf of the caller so that it remains valid even if the
+     *      cache is cleared in the meantime. The caller is responsible to release it.
+     */
+
     SFPatternRef pattern = nullptr;
 
     m_mutex.lock();
 
     auto pair = m_patterns.find(key);
     if (pair != m_patterns.end()) {
-        pattern = pair->second.get();
+        pattern = SFPatternRetain(pair->second.get());
     }
 
     m_mutex.unlock();
 
     return pattern;
 }
+
+void PatternCache::clear()
+{
+    m_mutex.lock();
+
+    m_patterns.clear();
+
+    m_mutex.unlock();
+}
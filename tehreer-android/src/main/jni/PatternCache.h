@@ -57,6 +57,7 @@ public:
 
     void put(const PatternKey &key, SFPatternRef pattern);
     SFPatternRef get(const PatternKey &key);
+    void clear();
 
 private:
     typedef std::unique_ptr<_SFPattern, std::function<void (SFPatternRef)>> PatternValue;
@@ -79,7 +79,6 @@ void ShapingEngine::shapeText(ShapingResult &shapingResult, const jchar *charArr
 
         pattern = SFSchemeBuildPattern(m_sfScheme);
         cache.put(key, pattern);
-        SFPatternRelease(pattern);
     }
 
     if (pattern) {
@@ -90,6 +89,7 @@ void ShapingEngine::shapeText(ShapingResult &shapingResult, const jchar *charArr
         SFArtistSetPattern(m_sfArtist, pattern);
         SFArtistSetString(m_sfArtist, SFStringEncodingUTF16, stringBuffer, stringLength);
         SFArtistFillAlbum(m_sfArtist, shapingResult.sfAlbum());
+        SFPatternRelease(pattern);
     }
 
     jfloat sizeByEm = m_typeSize / m_typeface->ftFace()->units_per_EM;
@@ -34,7 +34,11 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *jvm, void *reserved) {
     FreeType::load(env);
 
     result = register_com_mta_tehreer_graphics_Glyph(env) == JNI_OK
+          && register_com_mta_tehreer_graphics_GlyphAtlas(env) == JNI_OK
+          && register_com_mta_tehreer_graphics_GlyphBlur(env) == JNI_OK
+          && register_com_mta_tehreer_graphics_GlyphDistanceField(env) == JNI_OK
           && register_com_mta_tehreer_graphics_GlyphRasterizer(env) == JNI_OK
+          && register_com_mta_tehreer_graphics_GlyphSlabAllocator(env) == JNI_OK
           && register_com_mta_tehreer_graphics_Typeface(env) == JNI_OK
           && register_com_mta_tehreer_internal_Raw(env) == JNI_OK
           && register_com_mta_tehreer_sfnt_tables_SfntTables(env) == JNI_OK
@@ -24,7 +24,11 @@
 #include "BidiParagraph.h"
 #include "FreeType.h"
 #include "Glyph.h"
+#include "GlyphAtlas.h"
+#include "GlyphBlur.h"
+#include "GlyphDistanceField.h"
 #include "GlyphRasterizer.h"
+#include "GlyphSlabAllocator.h"
 #include "Miscellaneous.h"
 #include "Raw.h"
 #include "SfntTables.h"
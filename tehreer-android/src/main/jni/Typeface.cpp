@@ -18,7 +18,6 @@ extern "C" {
 #include <ft2build.h>
 #include FT_ADVANCES_H
 #include FT_FREETYPE_H
-#include FT_SIZES_H
 #include FT_STROKER_H
 #include FT_SYSTEM_H
 #include FT_TRUETYPE_TABLES_H
@@ -29,10 +28,13 @@ extern "C" {
 
 #include <android/asset_manager.h>
 #include <android/asset_manager_jni.h>
+#include <algorithm>
 #include <cstdlib>
 #include <jni.h>
 #include <mutex>
+#include <thread>
 
+#include "FontStream.h"
 #include "FreeType.h"
 #include "JavaBridge.h"
 #include "Miscellaneous.h"
@@ -133,6 +135,59 @@ static int processCubicTo(const FT_Vector *control1, const FT_Vector *control2,
     return 0;
 }
 
+/*
+ * NOTE:
+ *      The commands must match the ones defined in GlyphContours class of Java.
+ */
+enum ContourCommand {
+    CONTOUR_MOVE_TO = 0,
+    CONTOUR_LINE_TO = 1,
+    CONTOUR_QUAD_TO = 2,
+    CONTOUR_CUBIC_TO = 3,
+};
+
+static int appendMoveTo(const FT_Vector *to, void *user)
+{
+    std::vector<jint> *contours = reinterpret_cast<std::vector<jint> *>(user);
+    contours->push_back(CONTOUR_MOVE_TO);
+    contours->push_back(static_cast<jint>(to->x));
+    contours->push_back(static_cast<jint>(to->y));
+    return 0;
+}
+
+static int appendLineTo(const FT_Vector *to, void *user)
+{
+    std::vector<jint> *contours = reinterpret_cast<std::vector<jint> *>(user);
+    contours->push_back(CONTOUR_LINE_TO);
+    contours->push_back(static_cast<jint>(to->x));
+    contours->push_back(static_cast<jint>(to->y));
+    return 0;
+}
+
+static int appendQuadTo(const FT_Vector *control1, const FT_Vector *to, void *user)
+{
+    std::vector<jint> *contours = reinterpret_cast<std::vector<jint> *>(user);
+    contours->push_back(CONTOUR_QUAD_TO);
+    contours->push_back(static_cast<jint>(control1->x));
+    contours->push_back(static_cast<jint>(control1->y));
+    contours->push_back(static_cast<jint>(to->x));
+    contours->push_back(static_cast<jint>(to->y));
+    return 0;
+}
+
+static int appendCubicTo(const FT_Vector *control1, const FT_Vector *control2, const FT_Vector *to, void *user)
+{
+    std::vector<jint> *contours = reinterpret_cast<std::vector<jint> *>(user);
+    contours->push_back(CONTOUR_CUBIC_TO);
+    contours->push_back(static_cast<jint>(control1->x));
+    contours->push_back(static_cast<jint>(control1->y));
+    contours->push_back(static_cast<jint>(control2->x));
+    contours->push_back(static_cast<jint>(control2->y));
+    contours->push_back(static_cast<jint>(to->x));
+    contours->push_back(static_cast<jint>(to->y));
+    return 0;
+}
+
 static unsigned long assetStreamRead(FT_Stream assetStream,
     unsigned long offset, unsigned char *buffer, unsigned long count)
 {
@@ -186,11 +241,6 @@ static FT_Stream assetStreamCreate(AAssetManager *assetManager, const char *path
     return assetStream;
 }
 
-static void assetStreamDispose(FT_Stream assetStream)
-{
-    free(assetStream);
-}
-
 Typeface *Typeface::createWithAsset(AAssetManager *assetManager, const char *path)
 {
     FT_Stream stream = assetStreamCreate(assetManager, path);
@@ -202,7 +252,7 @@ Typeface *Typeface::createWithAsset(AAssetManager *assetManager, const char *pat
         args.pathname = nullptr;
         args.stream = stream;
 
-        return createWithArgs(&args);
+        return createWithArgs(&args, false);
     }
 
     return nullptr;
@@ -217,7 +267,7 @@ Typeface *Typeface::createWithFile(const char *path)
     args.pathname = const_cast<FT_String *>(path);
     args.stream = nullptr;
 
-    return createWithArgs(&args);
+    return createWithArgs(&args, false);
 }
 
 Typeface *Typeface::createFromStream(const JavaBridge &bridge, jobject stream)
@@ -233,32 +283,108 @@ Typeface *Typeface::createFromStream(const JavaBridge &bridge, jobject stream)
         args.pathname = nullptr;
         args.stream = nullptr;
 
-        return createWithArgs(&args);
+        Typeface *typeface = createWithArgs(&args, true);
+        if (!typeface) {
+            free(buffer);
+        }
+
+        return typeface;
     }
 
     return nullptr;
 }
 
-Typeface *Typeface::createWithArgs(const FT_Open_Args *args)
+Typeface *Typeface::createWithMemory(const void *data, size_t length)
 {
-    std::mutex &mutex = FreeType::mutex();
-    mutex.lock();
+    /*
+     * NOTE:
+     *      The memory is borrowed from the caller, which keeps it alive and unchanged for the
+     *      lifetime of the typeface. It is read in place by the face and its clones.
+     */
+    FT_Open_Args args;
+    args.flags = FT_OPEN_MEMORY;
+    args.memory_base = static_cast<const FT_Byte *>(data);
+    args.memory_size = static_cast<FT_Long>(length);
+    args.pathname = nullptr;
+    args.stream = nullptr;
 
-    FT_Face ftFace = nullptr;
-    FT_Error error = FT_Open_Face(FreeType::library(), args, 0, &ftFace);
-    if (error == FT_Err_Ok) {
-        if (!FT_IS_SCALABLE(ftFace)) {
-            FT_Done_Face(ftFace);
-            ftFace = nullptr;
+    return createWithArgs(&args, false);
+}
+
+Typeface *Typeface::createWithSource(const JavaBridge &bridge, jobject fontSource)
+{
+    FT_Stream stream = FontStream::create(bridge, fontSource);
+    if (stream) {
+        FT_Open_Args args;
+        args.flags = FT_OPEN_STREAM;
+        args.memory_base = nullptr;
+        args.memory_size = 0;
+        args.pathname = nullptr;
+        args.stream = stream;
+
+        Typeface *typeface = createWithArgs(&args, false);
+        if (!typeface) {
+            free(stream);
         }
+
+        return typeface;
+    }
+
+    return nullptr;
+}
+
+FT_Face Typeface::openFace(FT_Library library, const FT_Open_Args *args)
+{
+    FT_Face ftFace = nullptr;
+    FT_Error error = FT_Open_Face(library, args, 0, &ftFace);
+    if (error != FT_Err_Ok) {
+        return nullptr;
+    }
+
+    if (!FT_IS_SCALABLE(ftFace)) {
+        FT_Done_Face(ftFace);
+        return nullptr;
+    }
+
+    return ftFace;
+}
+
+Typeface *Typeface::createWithArgs(const FT_Open_Args *args, bool ownsBuffer)
+{
+    FT_Library ftLibrary = nullptr;
+    FT_Face ftFace = nullptr;
+
+    /*
+     * NOTE:
+     *      Opening and closing faces must be serialized per library. Each typeface gets a library
+     *      of its own, so that typefaces can be opened in parallel, and a face reading from a font
+     *      source never blocks the others while calling back into Java.
+     */
+    if (FT_Init_FreeType(&ftLibrary) != FT_Err_Ok) {
+        return nullptr;
     }
 
-    mutex.unlock();
+    ftFace = openFace(ftLibrary, args);
+    if (!ftFace) {
+        FT_Done_FreeType(ftLibrary);
+        return nullptr;
+    }
 
-    return (ftFace ? new Typeface((void *)args->memory_base, args->stream, ftFace) : nullptr);
+    return new Typeface(args, ownsBuffer, ftLibrary, ftFace);
 }
 
-Typeface::Typeface(void *buffer, FT_Stream ftStream, FT_Face ftFace)
+static size_t maxCloneCount()
+{
+    /*
+     * NOTE:
+     *      The base face is used as well when no clone is idle, so keeping one clone less than the
+     *      number of cores is enough to let all of them rasterize at the same time.
+     */
+    static const size_t count = std::max(std::thread::hardware_concurrency(), 1U) - 1;
+    return count;
+}
+
+Typeface::Typeface(const FT_Open_Args *args, bool ownsBuffer, FT_Library ftLibrary, FT_Face ftFace)
 {
     SFFontProtocol protocol;
     protocol.finalize = nullptr;
@@ -266,14 +392,42 @@ Typeface::Typeface(void *buffer, FT_Stream ftStream, FT_Face ftFace)
     protocol.getGlyphIDForCodepoint = &protocolGetGlyphIDForCodepoint;
     protocol.getAdvanceForGlyph = &protocolGetAdvanceForGlyph;
 
-    m_buffer = buffer;
-    m_ftStream = ftStream;
+    m_buffer = const_cast<FT_Byte *>(args->memory_base);
+    m_bufferLength = static_cast<size_t>(args->memory_size);
+    m_ownsBuffer = ownsBuffer;
+    m_path = (args->pathname ? args->pathname : "");
+    m_ftStream = args->stream;
+    m_ftLibrary = ftLibrary;
     m_ftFace = ftFace;
-    m_ftSize = nullptr;
     m_ftStroker = nullptr;
+    m_characterMap = nullptr;
+    m_advanceTables[0] = nullptr;
+    m_advanceTables[1] = nullptr;
     m_sfFont = SFFontCreateWithProtocol(&protocol, this);
 
-    FT_New_Size(m_ftFace, &m_ftSize);
+    m_baseInstance.ftFace = ftFace;
+    m_baseInstance.pixelWidth = 0;
+    m_baseInstance.pixelHeight = 0;
+    m_cloneCount = 0;
+    m_retainCount = 1;
+}
+
+void Typeface::retain()
+{
+    m_retainCount++;
+}
+
+void Typeface::release()
+{
+    /*
+     * NOTE:
+     *      The Java object holds the first reference and each glyph rasterizer holds one of its
+     *      own, so the face outlives every rasterizer regardless of the order in which the garbage
+     *      collector disposes them.
+     */
+    if (--m_retainCount == 0) {
+        delete this;
+    }
 }
 
 Typeface::~Typeface()
@@ -284,30 +438,171 @@ Typeface::~Typeface()
         FT_Stroker_Done(m_ftStroker);
     }
 
-    if (m_ftSize) {
-        m_mutex.lock();
+    releaseIdleClones();
 
-        FT_Done_Size(m_ftSize);
+    delete m_characterMap.load();
+    delete [] m_advanceTables[0].load();
+    delete [] m_advanceTables[1].load();
 
-        m_mutex.unlock();
+    /* The clones are gone by now, so the library has no other user. */
+    FT_Done_Face(m_ftFace);
+    FT_Done_FreeType(m_ftLibrary);
+
+    if (m_ftStream) {
+        free(m_ftStream);
+    }
+
+    if (m_buffer && m_ownsBuffer) {
+        free(m_buffer);
     }
+}
 
-    if (m_ftFace) {
-        std::mutex &mutex = FreeType::mutex();
-        mutex.lock();
+void Typeface::releaseCaches()
+{
+    m_patternCache.clear();
+    releaseIdleClones();
 
-        FT_Done_Face(m_ftFace);
+    m_mutex.lock();
 
-        mutex.unlock();
+    if (m_ftStroker) {
+        FT_Stroker_Done(m_ftStroker);
+        m_ftStroker = nullptr;
     }
 
-    if (m_ftStream) {
-        assetStreamDispose(m_ftStream);
+    m_mutex.unlock();
+}
+
+void Typeface::FaceInstance::setSize(FT_F26Dot6 width, FT_F26Dot6 height)
+{
+    /* Changing the size may run the hinting program of the font, so avoid it when possible. */
+    if (pixelWidth != width || pixelHeight != height) {
+        FT_Set_Char_Size(ftFace, width, height, 0, 0);
+        pixelWidth = width;
+        pixelHeight = height;
     }
+}
+
+FT_Face Typeface::openClone()
+{
+    /*
+     * NOTE:
+     *      A face reading from an asset or a font source cannot be cloned as the stream keeps a
+     *      single position and cache of its own.
+     */
+    FT_Open_Args args;
+    args.memory_base = nullptr;
+    args.memory_size = 0;
+    args.pathname = nullptr;
+    args.stream = nullptr;
 
     if (m_buffer) {
-        free(m_buffer);
+        args.flags = FT_OPEN_MEMORY;
+        args.memory_base = static_cast<const FT_Byte *>(m_buffer);
+        args.memory_size = static_cast<FT_Long>(m_bufferLength);
+    } else if (!m_path.empty()) {
+        args.flags = FT_OPEN_PATHNAME;
+        args.pathname = const_cast<FT_String *>(m_path.c_str());
+    } else {
+        return nullptr;
+    }
+
+    m_libraryMutex.lock();
+
+    FT_Face ftFace = nullptr;
+    FT_Error error = FT_Open_Face(m_ftLibrary, &args, 0, &ftFace);
+    if (error != FT_Err_Ok) {
+        ftFace = nullptr;
     }
+
+    m_libraryMutex.unlock();
+
+    return ftFace;
+}
+
+void Typeface::releaseIdleClones()
+{
+    m_poolMutex.lock();
+
+    std::vector<FaceInstance *> instances;
+    instances.swap(m_idleInstances);
+    m_cloneCount -= instances.size();
+
+    m_poolMutex.unlock();
+
+    if (!instances.empty()) {
+        m_libraryMutex.lock();
+
+        for (FaceInstance *instance : instances) {
+            FT_Done_Face(instance->ftFace);
+            delete instance;
+        }
+
+        m_libraryMutex.unlock();
+    }
+}
+
+Typeface::FaceInstance *Typeface::acquireFace(FT_F26Dot6 pixelWidth, FT_F26Dot6 pixelHeight)
+{
+    FaceInstance *instance = nullptr;
+    bool shouldClone = false;
+
+    m_poolMutex.lock();
+
+    size_t idleCount = m_idleInstances.size();
+    if (idleCount > 0) {
+        /* Prefer an instance which is already set to the same size. */
+        size_t index = idleCount - 1;
+        for (size_t i = 0; i < idleCount; i++) {
+            FaceInstance *candidate = m_idleInstances[i];
+            if (candidate->pixelWidth == pixelWidth && candidate->pixelHeight == pixelHeight) {
+                index = i;
+                break;
+            }
+        }
+
+        instance = m_idleInstances[index];
+        m_idleInstances.erase(m_idleInstances.begin() + index);
+    } else if (!m_ftStream && m_cloneCount < maxCloneCount()) {
+        /* Reserve the clone before opening it outside the lock. */
+        m_cloneCount++;
+        shouldClone = true;
+    }
+
+    m_poolMutex.unlock();
+
+    if (shouldClone) {
+        FT_Face ftFace = openClone();
+        if (ftFace) {
+            instance = new FaceInstance();
+            instance->ftFace = ftFace;
+            instance->pixelWidth = 0;
+            instance->pixelHeight = 0;
+        } else {
+            m_poolMutex.lock();
+            m_cloneCount--;
+            m_poolMutex.unlock();
+        }
+    }
+
+    if (!instance) {
+        /* Fall back to the base face, waiting for any other thread using it. */
+        m_mutex.lock();
+        instance = &m_baseInstance;
+    }
+
+    return instance;
+}
+
+void Typeface::releaseFace(FaceInstance *instance)
+{
+    if (instance == &m_baseInstance) {
+        m_mutex.unlock();
+        return;
+    }
+
+    m_poolMutex.lock();
+    m_idleInstances.push_back(instance);
+    m_poolMutex.unlock();
 }
 
 FT_Stroker Typeface::ftStroker()
@@ -337,32 +632,94 @@ void Typeface::loadSfntTable(FT_ULong tag, FT_Byte *buffer, FT_ULong *length)
     m_mutex.unlock();
 }
 
+const CharacterMap *Typeface::characterMap()
+{
+    CharacterMap *characterMap = m_characterMap.load(std::memory_order_acquire);
+    if (!characterMap) {
+        m_mutex.lock();
+
+        characterMap = m_characterMap.load(std::memory_order_relaxed);
+        if (!characterMap) {
+            characterMap = new CharacterMap(m_ftFace);
+            m_characterMap.store(characterMap, std::memory_order_release);
+        }
+
+        m_mutex.unlock();
+    }
+
+    return characterMap;
+}
+
 FT_UInt Typeface::getGlyphID(FT_ULong codePoint)
 {
-    m_mutex.lock();
+    /*
+     * NOTE:
+     *      The cmap is copied into a character map once, so the glyph ids of the code points are
+     *      looked up without locking the face, even while shaping.
+     */
+    return characterMap()->getGlyphID(codePoint);
+}
 
-    FT_UInt glyphID = FT_Get_Char_Index(m_ftFace, codePoint);
+const int32_t *Typeface::advanceTable(bool vertical)
+{
+    std::atomic<int32_t *> &slot = m_advanceTables[vertical ? 1 : 0];
 
-    m_mutex.unlock();
+    int32_t *table = slot.load(std::memory_order_acquire);
+    if (!table) {
+        m_mutex.lock();
+
+        table = slot.load(std::memory_order_relaxed);
+        if (!table) {
+            FT_Int32 loadFlags = FT_LOAD_NO_SCALE;
+            if (vertical) {
+                loadFlags |= FT_LOAD_VERTICAL_LAYOUT;
+            }
+
+            FT_Long glyphCount = m_ftFace->num_glyphs;
+            std::vector<FT_Fixed> advances(static_cast<size_t>(glyphCount), 0);
+            if (glyphCount > 0) {
+                FT_Get_Advances(m_ftFace, 0, static_cast<FT_UInt>(glyphCount), loadFlags, advances.data());
+            }
+
+            /* The advances in font units always fit in 32 bits, so keep them compact. */
+            table = new int32_t[glyphCount > 0 ? glyphCount : 1];
+            for (FT_Long i = 0; i < glyphCount; i++) {
+                table[i] = static_cast<int32_t>(advances[i]);
+            }
+
+            slot.store(table, std::memory_order_release);
+        }
 
-    return glyphID;
+        m_mutex.unlock();
+    }
+
+    return table;
 }
 
 FT_Fixed Typeface::getGlyphAdvance(FT_UInt glyphID, bool vertical)
 {
-    FT_Int32 loadFlags = FT_LOAD_NO_SCALE;
-    if (vertical) {
-        loadFlags |= FT_LOAD_VERTICAL_LAYOUT;
+    /*
+     * NOTE:
+     *      The advances in font units are decoded once for all glyphs, so the shaping engine reads
+     *      them without locking the face.
+     */
+    if (glyphID >= static_cast<FT_UInt>(m_ftFace->num_glyphs)) {
+        return 0;
     }
 
-    m_mutex.lock();
-
-    FT_Fixed advance;
-    FT_Get_Advance(m_ftFace, glyphID, loadFlags, &advance);
+    return advanceTable(vertical)[glyphID];
+}
 
-    m_mutex.unlock();
+void Typeface::getLinearGlyphAdvances(const jint *glyphIDs, size_t count, jfloat typeSize, bool vertical, jfloat *advances)
+{
+    const int32_t *table = advanceTable(vertical);
+    FT_UInt glyphCount = static_cast<FT_UInt>(m_ftFace->num_glyphs);
+    jfloat scale = typeSize / m_ftFace->units_per_EM;
 
-    return advance;
+    for (size_t i = 0; i < count; i++) {
+        FT_UInt glyphID = static_cast<FT_UInt>(glyphIDs[i]);
+        advances[i] = (glyphID < glyphCount ? table[glyphID] * scale : 0.0f);
+    }
 }
 
 FT_Fixed Typeface::getGlyphAdvance(FT_UInt glyphID, FT_F26Dot6 typeSize, bool vertical)
@@ -372,25 +729,58 @@ FT_Fixed Typeface::getGlyphAdvance(FT_UInt glyphID, FT_F26Dot6 typeSize, bool ve
         loadFlags |= FT_LOAD_VERTICAL_LAYOUT;
     }
 
-    m_mutex.lock();
+    FaceInstance *instance = acquireFace(typeSize, typeSize);
+    FT_Face ftFace = instance->ftFace;
 
-    FT_Activate_Size(m_ftSize);
-    FT_Set_Char_Size(m_ftFace, 0, typeSize, 0, 0);
-    FT_Set_Transform(m_ftFace, nullptr, nullptr);
+    instance->setSize(typeSize, typeSize);
+    FT_Set_Transform(ftFace, nullptr, nullptr);
 
     FT_Fixed advance;
-    FT_Get_Advance(m_ftFace, glyphID, loadFlags, &advance);
+    FT_Get_Advance(ftFace, glyphID, loadFlags, &advance);
 
-    m_mutex.unlock();
+    releaseFace(instance);
 
     return advance;
 }
 
-jobject Typeface::getGlyphPathNoLock(JavaBridge bridge, FT_UInt glyphID)
+void Typeface::loadGlyphContours(FT_UInt glyphID, std::vector<jint> &contours)
+{
+    /*
+     * NOTE:
+     *      The glyph is loaded in font units, so the contours are independent of any size and
+     *      transform, and are not hinted.
+     */
+    FT_Int32 loadFlags = FT_LOAD_NO_SCALE | FT_LOAD_IGNORE_TRANSFORM;
+
+    m_mutex.lock();
+
+    FT_Error error = FT_Load_Glyph(m_ftFace, glyphID, loadFlags);
+    if (error == FT_Err_Ok && m_ftFace->glyph->format == FT_GLYPH_FORMAT_OUTLINE) {
+        FT_Outline_Funcs funcs;
+        funcs.move_to = appendMoveTo;
+        funcs.line_to = appendLineTo;
+        funcs.conic_to = appendQuadTo;
+        funcs.cubic_to = appendCubicTo;
+        funcs.shift = 0;
+        funcs.delta = 0;
+
+        FT_Outline *outline = &m_ftFace->glyph->outline;
+        contours.reserve(outline->n_points * 3);
+
+        error = FT_Outline_Decompose(outline, &funcs, &contours);
+        if (error != FT_Err_Ok) {
+            contours.clear();
+        }
+    }
+
+    m_mutex.unlock();
+}
+
+jobject Typeface::getGlyphPathNoLock(JavaBridge bridge, FT_Face ftFace, FT_UInt glyphID)
 {
     jobject glyphPath = nullptr;
 
-    FT_Error error = FT_Load_Glyph(m_ftFace, glyphID, FT_LOAD_NO_BITMAP);
+    FT_Error error = FT_Load_Glyph(ftFace, glyphID, FT_LOAD_NO_BITMAP);
     if (error == FT_Err_Ok) {
         FT_Outline_Funcs funcs;
         funcs.move_to = processMoveTo;
@@ -404,7 +794,7 @@ jobject Typeface::getGlyphPathNoLock(JavaBridge bridge, FT_UInt glyphID)
         pathContext.bridge = &bridge;
         pathContext.path = bridge.Path_construct();
 
-        FT_Outline *outline = &m_ftFace->glyph->outline;
+        FT_Outline *outline = &ftFace->glyph->outline;
         error = FT_Outline_Decompose(outline, &funcs, &pathContext);
         if (error == FT_Err_Ok) {
             glyphPath = pathContext.path;
@@ -418,15 +808,15 @@ jobject Typeface::getGlyphPath(JavaBridge bridge, FT_UInt glyphID, FT_F26Dot6 ty
 {
     jobject glyphPath = nullptr;
 
-    m_mutex.lock();
+    FaceInstance *instance = acquireFace(typeSize, typeSize);
+    FT_Face ftFace = instance->ftFace;
 
-    FT_Activate_Size(m_ftSize);
-    FT_Set_Char_Size(m_ftFace, 0, typeSize, 0, 0);
-    FT_Set_Transform(m_ftFace, matrix, delta);
+    instance->setSize(typeSize, typeSize);
+    FT_Set_Transform(ftFace, matrix, delta);
 
-    glyphPath = getGlyphPathNoLock(bridge, glyphID);
+    glyphPath = getGlyphPathNoLock(bridge, ftFace, glyphID);
 
-    m_mutex.unlock();
+    releaseFace(instance);
 
     return glyphPath;
 }
@@ -470,10 +860,56 @@ static jlong createFromStream(JNIEnv *env, jobject obj, jobject stream)
     return 0;
 }
 
+static jlong createWithBuffer(JNIEnv *env, jobject obj, jobject buffer, jint offset, jint length)
+{
+    if (buffer) {
+        jbyte *address = static_cast<jbyte *>(env->GetDirectBufferAddress(buffer));
+        if (address) {
+            Typeface *typeface = Typeface::createWithMemory(address + offset, static_cast<size_t>(length));
+            return reinterpret_cast<jlong>(typeface);
+        }
+    }
+
+    return 0;
+}
+
+static jlong createWithSource(JNIEnv *env, jobject obj, jobject source)
+{
+    if (source) {
+        Typeface *typeface = Typeface::createWithSource(JavaBridge(env), source);
+        return reinterpret_cast<jlong>(typeface);
+    }
+
+    return 0;
+}
+
 static void dispose(JNIEnv *env, jobject obj, jlong typefaceHandle)
 {
     Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
-    delete typeface;
+    typeface->release();
+}
+
+static void releaseCaches(JNIEnv *env, jobject obj, jlong typefaceHandle)
+{
+    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
+    typeface->releaseCaches();
+}
+
+static jintArray loadGlyphContours(JNIEnv *env, jobject obj, jlong typefaceHandle, jint glyphId)
+{
+    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
+    FT_UInt glyphIndex = static_cast<FT_UInt>(glyphId);
+
+    std::vector<jint> contours;
+    typeface->loadGlyphContours(glyphIndex, contours);
+
+    jsize length = static_cast<jsize>(contours.size());
+    jintArray contourArray = env->NewIntArray(length);
+    if (contourArray && length > 0) {
+        env->SetIntArrayRegion(contourArray, 0, length, contours.data());
+    }
+
+    return contourArray;
 }
 
 static jbyteArray getTableData(JNIEnv *env, jobject obj, jlong typefaceHandle, jint tableTag)
@@ -500,51 +936,65 @@ static jbyteArray getTableData(JNIEnv *env, jobject obj, jlong typefaceHandle, j
     return nullptr;
 }
 
-static jint getUnitsPerEm(JNIEnv *env, jobject obj, jlong typefaceHandle)
-{
-    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
-    FT_Face baseFace = typeface->ftFace();
-    FT_UShort unitsPerEm = baseFace->units_per_EM;
-
-    return static_cast<jint>(unitsPerEm);
-}
-
-static jint getAscent(JNIEnv *env, jobject obj, jlong typefaceHandle)
-{
-    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
-    FT_Face baseFace = typeface->ftFace();
-    FT_Short ascender = baseFace->ascender;
-
-    return static_cast<jint>(ascender);
-}
+/*
+ * NOTE:
+ *      The indexes must match the ones defined in Typeface class of Java.
+ */
+enum Metric {
+    METRIC_UNITS_PER_EM = 0,
+    METRIC_ASCENT = 1,
+    METRIC_DESCENT = 2,
+    METRIC_LEADING = 3,
+    METRIC_GLYPH_COUNT = 4,
+    METRIC_BBOX_LEFT = 5,
+    METRIC_BBOX_TOP = 6,
+    METRIC_BBOX_RIGHT = 7,
+    METRIC_BBOX_BOTTOM = 8,
+    METRIC_UNDERLINE_POSITION = 9,
+    METRIC_UNDERLINE_THICKNESS = 10,
+    METRIC_COUNT = 11,
+};
 
-static jint getDescent(JNIEnv *env, jobject obj, jlong typefaceHandle)
+static void getMetrics(JNIEnv *env, jobject obj, jlong typefaceHandle, jintArray metricsArray)
 {
     Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
     FT_Face baseFace = typeface->ftFace();
-    FT_Short descender = baseFace->descender;
-
-    return static_cast<jint>(-descender);
+    jint metrics[METRIC_COUNT];
+
+    metrics[METRIC_UNITS_PER_EM] = static_cast<jint>(baseFace->units_per_EM);
+    metrics[METRIC_ASCENT] = static_cast<jint>(baseFace->ascender);
+    metrics[METRIC_DESCENT] = static_cast<jint>(-baseFace->descender);
+    metrics[METRIC_LEADING] = static_cast<jint>(baseFace->height - (baseFace->ascender - baseFace->descender));
+    metrics[METRIC_GLYPH_COUNT] = static_cast<jint>(baseFace->num_glyphs);
+    metrics[METRIC_BBOX_LEFT] = static_cast<jint>(baseFace->bbox.xMin);
+    metrics[METRIC_BBOX_TOP] = static_cast<jint>(baseFace->bbox.yMin);
+    metrics[METRIC_BBOX_RIGHT] = static_cast<jint>(baseFace->bbox.xMax);
+    metrics[METRIC_BBOX_BOTTOM] = static_cast<jint>(baseFace->bbox.yMax);
+    metrics[METRIC_UNDERLINE_POSITION] = static_cast<jint>(baseFace->underline_position);
+    metrics[METRIC_UNDERLINE_THICKNESS] = static_cast<jint>(baseFace->underline_thickness);
+
+    env->SetIntArrayRegion(metricsArray, 0, METRIC_COUNT, metrics);
 }
 
-static jint getLeading(JNIEnv *env, jobject obj, jlong typefaceHandle)
+static void getGlyphIds(JNIEnv *env, jobject obj, jlong typefaceHandle, jintArray codePoints, jint count)
 {
     Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
-    FT_Face baseFace = typeface->ftFace();
-    FT_Short ascender = baseFace->ascender;
-    FT_Short descender = baseFace->descender;
-    FT_Short height = baseFace->height;
+    std::vector<jint> values(static_cast<size_t>(count));
 
-    return static_cast<jint>(height - (ascender - descender));
-}
+    /*
+     * NOTE:
+     *      The array is copied instead of being accessed critically as building the character map
+     *      may call back into Java for reading a font source.
+     */
+    env->GetIntArrayRegion(codePoints, 0, count, values.data());
 
-static jint getGlyphCount(JNIEnv *env, jobject obj, jlong typefaceHandle)
-{
-    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
-    FT_Face baseFace = typeface->ftFace();
-    FT_Long glyphCount = baseFace->num_glyphs;
+    /* Replace each code point with its glyph id. */
+    for (jint i = 0; i < count; i++) {
+        FT_UInt glyphID = typeface->getGlyphID(static_cast<FT_ULong>(values[i]));
+        values[i] = static_cast<jint>(glyphID);
+    }
 
-    return static_cast<jint>(glyphCount);
+    env->SetIntArrayRegion(codePoints, 0, count, values.data());
 }
 
 static jint getGlyphId(JNIEnv *env, jobject obj, jlong typefaceHandle, jint codePoint)
@@ -565,6 +1015,18 @@ static jfloat getGlyphAdvance(JNIEnv *env, jobject obj, jlong typefaceHandle, ji
     return f16Dot16toFloat(advance);
 }
 
+static void getLinearGlyphAdvances(JNIEnv *env, jobject obj, jlong typefaceHandle, jintArray glyphIds, jfloat typeSize, jboolean vertical, jfloatArray advances)
+{
+    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
+    jsize count = env->GetArrayLength(glyphIds);
+    std::vector<jint> glyphValues(static_cast<size_t>(count));
+    std::vector<jfloat> advanceValues(static_cast<size_t>(count));
+
+    env->GetIntArrayRegion(glyphIds, 0, count, glyphValues.data());
+    typeface->getLinearGlyphAdvances(glyphValues.data(), glyphValues.size(), typeSize, vertical, advanceValues.data());
+    env->SetFloatArrayRegion(advances, 0, count, advanceValues.data());
+}
+
 static jobject getGlyphPath(JNIEnv *env, jobject obj, jlong typefaceHandle, jint glyphId, jfloat typeSize, jfloatArray matrixArray)
 {
     Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
@@ -599,52 +1061,22 @@ static jobject getGlyphPath(JNIEnv *env, jobject obj, jlong typefaceHandle, jint
     return typeface->getGlyphPath(JavaBridge(env), glyphIndex, fixedSize, &transform, &delta);
 }
 
-static void getBoundingBox(JNIEnv *env, jobject obj, jlong typefaceHandle, jobject rect)
-{
-    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
-    FT_Face baseFace = typeface->ftFace();
-    FT_BBox bbox = baseFace->bbox;
-
-    JavaBridge(env).Rect_set(rect,
-                             static_cast<jint>(bbox.xMin), static_cast<jint>(bbox.yMin),
-                             static_cast<jint>(bbox.xMax), static_cast<jint>(bbox.yMax));
-}
-
-static jint getUnderlinePosition(JNIEnv *env, jobject obj, jlong typefaceHandle)
-{
-    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
-    FT_Face baseFace = typeface->ftFace();
-    FT_Short underlinePosition = baseFace->underline_position;
-
-    return static_cast<jint>(underlinePosition);
-}
-
-static jint getUnderlineThickness(JNIEnv *env, jobject obj, jlong typefaceHandle)
-{
-    Typeface *typeface = reinterpret_cast<Typeface *>(typefaceHandle);
-    FT_Face baseFace = typeface->ftFace();
-    FT_Short underlineThickness = baseFace->underline_thickness;
-
-    return static_cast<jint>(underlineThickness);
-}
-
 static JNINativeMethod JNI_METHODS[] = {
     { "nativeCreateWithAsset", "(Landroid/content/res/AssetManager;Ljava/lang/String;)J", (void *)createWithAsset },
     { "nativeCreateWithFile", "(Ljava/lang/String;)J", (void *)createWithFile },
     { "nativeCreateFromStream", "(Ljava/io/InputStream;)J", (void *)createFromStream },
+    { "nativeCreateWithBuffer", "(Ljava/nio/ByteBuffer;II)J", (void *)createWithBuffer },
+    { "nativeCreateWithSource", "(Lcom/mta/tehreer/graphics/FontSource;)J", (void *)createWithSource },
     { "nativeDispose", "(J)V", (void *)dispose },
+    { "nativeReleaseCaches", "(J)V", (void *)releaseCaches },
+    { "nativeLoadGlyphContours", "(JI)[I", (void *)loadGlyphContours },
     { "nativeGetTableData", "(JI)[B", (void *)getTableData },
-    { "nativeGetUnitsPerEm", "(J)I", (void *)getUnitsPerEm },
-    { "nativeGetAscent", "(J)I", (void *)getAscent },
-    { "nativeGetDescent", "(J)I", (void *)getDescent },
-    { "nativeGetLeading", "(J)I", (void *)getLeading },
-    { "nativeGetGlyphCount", "(J)I", (void *)getGlyphCount },
+    { "nativeGetMetrics", "(J[I)V", (void *)getMetrics },
     { "nativeGetGlyphId", "(JI)I", (void *)getGlyphId },
+    { "nativeGetGlyphIds", "(J[II)V", (void *)getGlyphIds },
     { "nativeGetGlyphAdvance", "(JIFZ)F", (void *)getGlyphAdvance },
+    { "nativeGetLinearGlyphAdvances", "(J[IFZ[F)V", (void *)getLinearGlyphAdvances },
     { "nativeGetGlyphPath", "(JIF[F)Landroid/graphics/Path;", (void *)getGlyphPath },
-    { "nativeGetBoundingBox", "(JLandroid/graphics/Rect;)V", (void *)getBoundingBox },
-    { "nativeGetUnderlinePosition", "(J)I", (void *)getUnderlinePosition },
-    { "nativeGetUnderlineThickness", "(J)I", (void *)getUnderlineThickness },
 };
 
 jint register_com_mta_tehreer_graphics_Typeface(JNIEnv *env)
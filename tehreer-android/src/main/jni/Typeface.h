@@ -27,9 +27,14 @@ extern "C" {
 }
 
 #include <android/asset_manager.h>
+#include <atomic>
+#include <cstdint>
 #include <jni.h>
 #include <mutex>
+#include <string>
+#include <vector>
 
+#include "CharacterMap.h"
 #include "JavaBridge.h"
 #include "PatternCache.h"
 
@@ -37,43 +42,83 @@ namespace Tehreer {
 
 class Typeface {
 public:
+    struct FaceInstance {
+        FT_Face ftFace;
+        FT_F26Dot6 pixelWidth;
+        FT_F26Dot6 pixelHeight;
+
+        void setSize(FT_F26Dot6 width, FT_F26Dot6 height);
+    };
+
     static Typeface *createWithAsset(AAssetManager *assetManager, const char *path);
     static Typeface *createWithFile(const char *path);
     static Typeface *createFromStream(const JavaBridge &bridge, jobject stream);
+    static Typeface *createWithMemory(const void *data, size_t length);
+    static Typeface *createWithSource(const JavaBridge &bridge, jobject fontSource);
 
     ~Typeface();
 
+    void retain();
+    void release();
+
     void lock() { m_mutex.lock(); };
     void unlock() { m_mutex.unlock(); }
 
     FT_Face ftFace() const { return m_ftFace; }
     FT_Stroker ftStroker();
 
+    FaceInstance *acquireFace(FT_F26Dot6 pixelWidth, FT_F26Dot6 pixelHeight);
+    void releaseFace(FaceInstance *instance);
+
     SFFontRef sfFont() const { return m_sfFont; }
     PatternCache &patternCache() { return m_patternCache; }
 
+    void releaseCaches();
+
     void loadSfntTable(FT_ULong tag, FT_Byte *buffer, FT_ULong *length);
 
     FT_UInt getGlyphID(FT_ULong codePoint);
     FT_Fixed getGlyphAdvance(FT_UInt glyphID, bool vertical);
     FT_Fixed getGlyphAdvance(FT_UInt glyphID, FT_F26Dot6 typeSize, bool vertical);
+    void getLinearGlyphAdvances(const jint *glyphIDs, size_t count, jfloat typeSize, bool vertical, jfloat *advances);
 
-    jobject getGlyphPathNoLock(JavaBridge bridge, FT_UInt glyphID);
+    void loadGlyphContours(FT_UInt glyphID, std::vector<jint> &contours);
+
+    jobject getGlyphPathNoLock(JavaBridge bridge, FT_Face ftFace, FT_UInt glyphID);
     jobject getGlyphPath(JavaBridge bridge, FT_UInt glyphID, FT_F26Dot6 typeSize, FT_Matrix *matrix, FT_Vector *delta);
 
 private:
+    std::atomic_int m_retainCount;
     std::mutex m_mutex;
+    std::mutex m_libraryMutex;
+    FT_Library m_ftLibrary;
     void *m_buffer;
+    size_t m_bufferLength;
+    bool m_ownsBuffer;
+    std::string m_path;
     FT_Stream m_ftStream;
     FT_Face m_ftFace;
-    FT_Size m_ftSize;
     FT_Stroker m_ftStroker;
+    std::atomic<CharacterMap *> m_characterMap;
+    std::atomic<int32_t *> m_advanceTables[2];
     SFFontRef m_sfFont;
     PatternCache m_patternCache;
 
-    static Typeface *createWithArgs(const FT_Open_Args *args);
+    std::mutex m_poolMutex;
+    FaceInstance m_baseInstance;
+    std::vector<FaceInstance *> m_idleInstances;
+    size_t m_cloneCount;
+
+    static FT_Face openFace(FT_Library library, const FT_Open_Args *args);
+    static Typeface *createWithArgs(const FT_Open_Args *args, bool ownsBuffer);
+
+    Typeface(const FT_Open_Args *args, bool ownsBuffer, FT_Library ftLibrary, FT_Face ftFace);
+
+    const CharacterMap *characterMap();
+    const int32_t *advanceTable(bool vertical);
 
-    Typeface(void *buffer, FT_Stream ftStream, FT_Face ftFace);
+    FT_Face openClone();
+    void releaseIdleClones();
 };
 
 }